@@ -6,7 +6,7 @@ docker buildx inspect --bootstrap
 # Extract version from pom.xml
 VERSION=$(mvn help:evaluate -Dexpression=project.version -q -DforceStdout)
 
-./mvnw package -Pnative
+./mvnw package -Pnative,embed-census
 
 # Not building native images on GitHub commits yet for latest-native, so also tagging latest...
 docker buildx build -f src/main/docker/Dockerfile.native --platform linux/amd64,linux/arm64 -t greystone/slogan-generator:$VERSION-native -t greystone/openjdk-helper:latest-native --push .
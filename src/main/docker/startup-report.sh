@@ -0,0 +1,85 @@
+#!/bin/bash
+#
+# Start-up report for the JVM container image, run while the image is built.
+#
+# The AppCDS archive itself is created by the Quarkus build (quarkus.package.jar.appcds.enabled).
+# This script only measures what it buys: it starts the application on the census fixture, without
+# and with the archive, and reports the start-up time (until the first census answer) and the
+# latency of the first search.
+#
+set -euo pipefail
+
+CDS_DIR=${CDS_DIR:-/deployments/cds}
+APP_JAR=${JAVA_APP_JAR:-/deployments/quarkus-run.jar}
+CENSUS_URL=${REPORT_CENSUS_URL:-file://$CDS_DIR/census.html}
+PORT=${REPORT_PORT:-8089}
+TRIALS=${REPORT_TRIALS:-3}
+ARCHIVE=${CDS_ARCHIVE:-/deployments/app-cds.jsa}
+BASE_URL=http://localhost:$PORT
+
+READY_PATH="/census/people?userid=hirt"
+FIRST_PATH="/census/people/search?query=Hirt"
+
+now_millis() {
+	echo $(( $(date +%s%N) / 1000000 ))
+}
+
+# Starts the application with the given extra java options, and waits until it answers from the census.
+# Sets PID, STARTUP_MILLIS and FIRST_MILLIS.
+start_app() {
+	local start
+	start=$(now_millis)
+	# shellcheck disable=SC2086
+	# All requests come from here, so the inbound rate limit would refuse most of them
+	java ${JAVA_OPTS:-} "$@" -Dquarkus.http.port="$PORT" -Dopenjdk.census.url="$CENSUS_URL" -Dinbound.rate-limit.enabled=false -jar "$APP_JAR" \
+		> "$CDS_DIR/startup.log" 2>&1 &
+	PID=$!
+	until curl -fs -o /dev/null "$BASE_URL$READY_PATH"; do
+		if ! kill -0 "$PID" 2> /dev/null || (( $(now_millis) - start > 120000 )); then
+			echo "The application did not start, see the log below" >&2
+			cat "$CDS_DIR/startup.log" >&2
+			exit 1
+		fi
+		sleep 0.05
+	done
+	STARTUP_MILLIS=$(( $(now_millis) - start ))
+	FIRST_MILLIS=$(curl -fs -o /dev/null -w '%{time_total}' "$BASE_URL$FIRST_PATH" | awk '{ printf "%d", $1 * 1000 }')
+}
+
+stop_app() {
+	kill -TERM "$PID"
+	wait "$PID" || true
+}
+
+# Runs the trials with the given extra java options, and reports the best start-up and first request times
+measure() {
+	local label=$1
+	shift
+	local best_startup=
+	local best_first=
+	for (( i = 0; i < TRIALS; i++ )); do
+		start_app "$@"
+		stop_app
+		if [[ -z $best_startup ]] || (( STARTUP_MILLIS < best_startup )); then
+			best_startup=$STARTUP_MILLIS
+		fi
+		if [[ -z $best_first ]] || (( FIRST_MILLIS < best_first )); then
+			best_first=$FIRST_MILLIS
+		fi
+	done
+	printf '%-16s start-up %6d ms, first search %5d ms (best of %d)\n' "$label" "$best_startup" "$best_first" "$TRIALS" >> "$CDS_DIR/report.txt"
+}
+
+mkdir -p "$CDS_DIR"
+: > "$CDS_DIR/report.txt"
+
+if [[ ! -f $ARCHIVE ]]; then
+	echo "No AppCDS archive at $ARCHIVE, build with quarkus.package.jar.appcds.enabled=true" >&2
+	exit 1
+fi
+
+measure "Without archive" -Xshare:auto
+measure "With archive" -XX:SharedArchiveFile="$ARCHIVE" -Xshare:auto
+
+rm -f "$CDS_DIR/census.html" "$CDS_DIR/startup.log"
+cat "$CDS_DIR/report.txt"
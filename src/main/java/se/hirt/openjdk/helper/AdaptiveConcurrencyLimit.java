@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import java.time.Duration;
+
+/**
+ * An adaptive limit on the number of concurrent calls to an upstream service, adjusted by
+ * additive increase and multiplicative decrease (AIMD). A call that completes within the latency
+ * threshold, while the limit is being used, raises the limit by about one per limit's worth of
+ * calls. A call that fails, or takes longer than the threshold, cuts the limit by a quarter; only
+ * once for the calls that were already in flight at the previous cut, so that a burst of slow
+ * calls is counted as one congestion signal.
+ * <p>
+ * Callers that find no capacity are meant to fail fast rather than queue, so that threads are not
+ * tied up waiting for a struggling upstream.
+ */
+public final class AdaptiveConcurrencyLimit {
+	private static final double BACKOFF = 0.75;
+
+	private final String name;
+	private final int maxLimit;
+	private final long latencyThresholdNanos;
+	private double limit;
+	private int inFlight;
+	private long rejected;
+	// Times are kept relative to the origin, so that they are never negative
+	private final long originNanos = System.nanoTime();
+	private long lastCutNanos;
+
+	/**
+	 * @param latencyThreshold
+	 *            calls taking longer than this are taken as a sign of congestion.
+	 */
+	public AdaptiveConcurrencyLimit(String name, int initialLimit, int maxLimit, Duration latencyThreshold) {
+		this.name = name;
+		this.maxLimit = Math.max(1, maxLimit);
+		this.limit = Math.max(1, Math.min(initialLimit, this.maxLimit));
+		this.latencyThresholdNanos = latencyThreshold.toNanos();
+	}
+
+	/**
+	 * @return true if a call may start now.
+	 */
+	public synchronized boolean hasCapacity() {
+		return inFlight < getLimit();
+	}
+
+	/**
+	 * Starts a call if there is capacity. A call that was started must be ended with
+	 * {@link #release(long, boolean)}.
+	 *
+	 * @return the start time of the call, to be passed to release, or -1 if there was no capacity.
+	 */
+	public synchronized long tryAcquire() {
+		if (!hasCapacity()) {
+			return -1;
+		}
+		inFlight++;
+		return System.nanoTime() - originNanos;
+	}
+
+	/**
+	 * Ends a call, and adjusts the limit by its outcome.
+	 *
+	 * @param startNanos
+	 *            the value returned by {@link #tryAcquire()}.
+	 * @param dropped
+	 *            true if the call failed or timed out, or the upstream reported being
+	 *            overloaded.
+	 */
+	public synchronized void release(long startNanos, boolean dropped) {
+		int used = inFlight--;
+		long now = System.nanoTime() - originNanos;
+		int before = getLimit();
+		if (dropped || now - startNanos > latencyThresholdNanos) {
+			if (startNanos - lastCutNanos >= 0) {
+				limit = Math.max(1, limit * BACKOFF);
+				lastCutNanos = now;
+			}
+		} else if (used * 2 >= before) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+		if (getLimit() != before) {
+			emitEvent(false);
+		}
+	}
+
+	/**
+	 * Records a call that was refused for lack of capacity.
+	 */
+	public synchronized void onRejected() {
+		rejected++;
+		emitEvent(true);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public int getMaxLimit() {
+		return maxLimit;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return the number of calls refused for lack of capacity so far.
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	private void emitEvent(boolean rejection) {
+		ConcurrencyLimitEvent event = new ConcurrencyLimitEvent();
+		if (event.shouldCommit()) {
+			event.upstream = name;
+			event.limit = getLimit();
+			event.inFlight = inFlight;
+			event.rejected = rejected;
+			event.rejection = rejection;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import se.hirt.openjdk.helper.census.CensusFootprint;
+import se.hirt.openjdk.helper.census.CensusRetriever;
+import se.hirt.openjdk.helper.github.GitHubRequestScheduler;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Path("/admin")
+public class AdminResource {
+
+	@Inject
+	CensusFootprint footprint;
+
+	@Inject
+	CensusRetriever censusRetriever;
+
+	@Inject
+	GitHubRequestScheduler gitHubScheduler;
+
+	/**
+	 * The estimated heap retained by the census, for capacity planning.
+	 */
+	@GET
+	@Path("/footprint")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Map<String, Object> getFootprint() {
+		CensusFootprint.Footprint current = footprint.getCurrent();
+		CensusFootprint.Footprint previous = footprint.getPrevious();
+		long responseCache = footprint.getResponseCacheSize();
+
+		Map<String, Object> result = new HashMap<>();
+		result.put("snapshot", footprintToMap(current));
+		result.put("previous", previous == null ? null : footprintToMap(previous));
+		result.put("swapPeak", current.getTotal() + (previous == null ? 0 : previous.getTotal()));
+		result.put("responseCache", responseCache);
+		result.put("total", current.getTotal() + responseCache);
+		result.put("budget", footprint.getBudget().orElse(null));
+		result.put("overBudget", footprint.getBudget().map(budget -> current.getTotal() > budget).orElse(false));
+		return result;
+	}
+
+	/**
+	 * The current adaptive concurrency limits for the outbound calls.
+	 */
+	@GET
+	@Path("/limits")
+	@Produces(MediaType.APPLICATION_JSON)
+	public List<Map<String, Object>> getLimits() {
+		return List.of(limitToMap(gitHubScheduler.getConcurrencyLimit()), limitToMap(censusRetriever.getConcurrencyLimit()));
+	}
+
+	private static Map<String, Object> limitToMap(AdaptiveConcurrencyLimit limit) {
+		Map<String, Object> map = new HashMap<>();
+		map.put("name", limit.getName());
+		map.put("limit", limit.getLimit());
+		map.put("maxLimit", limit.getMaxLimit());
+		map.put("inFlight", limit.getInFlight());
+		map.put("rejected", limit.getRejected());
+		return map;
+	}
+
+	private static Map<String, Object> footprintToMap(CensusFootprint.Footprint footprint) {
+		Map<String, Object> map = new HashMap<>();
+		map.put("version", footprint.getVersion());
+		map.put("components", footprint.getComponents());
+		map.put("total", footprint.getTotal());
+		return map;
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import jdk.jfr.*;
+
+@Name("se.hirt.openjdk.helper.ConcurrencyLimit")
+@Label("Outbound Concurrency Limit")
+@Description("A change of the adaptive concurrency limit for an upstream service, or a call refused by it")
+@Category({"OpenJDK Helper", "Outbound"})
+@StackTrace(false)
+class ConcurrencyLimitEvent extends Event {
+	@Label("Upstream")
+	String upstream;
+
+	@Label("Limit")
+	int limit;
+
+	@Label("In Flight")
+	int inFlight;
+
+	@Label("Rejected")
+	@Description("The number of calls refused so far")
+	long rejected;
+
+	@Label("Rejection")
+	@Description("True if this event is for a refused call, false if the limit changed")
+	boolean rejection;
+}
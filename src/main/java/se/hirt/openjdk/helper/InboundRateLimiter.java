@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.ext.web.Router;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of requests per client with a {@link TokenBucket} for each, so that a single
+ * client cannot slow down everyone else, or use up the GitHub budget on its own. Requests cost
+ * differently: census lookups are cheap, and searches, queries and exports cost more. Requests to
+ * GitHub are charged on top, one at a time as they are made, so that a listing crawling many pages,
+ * or many repositories, costs accordingly, up to a cap per inbound request. Beyond the cap, the
+ * pages of a crawl are free, so that a complete crawl of a large repository can finish; those pages
+ * are bulk requests, which yield to the interactive ones anyway. A request the client cannot afford
+ * is answered with 429 and Retry-After.
+ * <p>
+ * Clients are told apart by their IP address, or by one of the configured API keys, given in the
+ * <code>X-API-Key</code> header. The address is the forwarded one only when the reverse proxy is
+ * listed in <code>quarkus.http.proxy.trusted-proxies</code>, as Quarkus then only takes the
+ * forwarding headers from it. Otherwise it is the address of the connection, since any client
+ * could pick a new forwarded address, and a fresh bucket, for every request. Webhook deliveries
+ * are not limited, since they are signed, and GitHub does not redeliver the ones refused.
+ */
+@ApplicationScoped
+public class InboundRateLimiter {
+	public static final String API_KEY_HEADER = "X-API-Key";
+	// Beyond this many clients, the least recently seen one is forgotten, and gets a full bucket if it returns
+	private static final int MAX_CLIENTS = 10_000;
+
+	@ConfigProperty(name = "inbound.rate-limit.enabled", defaultValue = "true")
+	boolean enabled;
+
+	@ConfigProperty(name = "inbound.rate-limit.capacity", defaultValue = "120")
+	int capacity;
+
+	@ConfigProperty(name = "inbound.rate-limit.refill-per-second", defaultValue = "2")
+	double refillPerSecond;
+
+	@ConfigProperty(name = "inbound.rate-limit.cost.lookup", defaultValue = "1")
+	int lookupCost;
+
+	@ConfigProperty(name = "inbound.rate-limit.cost.search", defaultValue = "3")
+	int searchCost;
+
+	@ConfigProperty(name = "inbound.rate-limit.cost.github", defaultValue = "10")
+	int gitHubCost;
+
+	@ConfigProperty(name = "inbound.rate-limit.cost.github-max", defaultValue = "60")
+	int maxGitHubCost;
+
+	@ConfigProperty(name = "inbound.rate-limit.api-keys")
+	Optional<List<String>> apiKeys;
+
+	@ConfigProperty(name = "quarkus.http.proxy.trusted-proxies")
+	Optional<List<String>> trustedProxies;
+
+	@ConfigProperty(name = "quarkus.smallrye-graphql.root-path", defaultValue = "graphql")
+	String graphQLPath;
+
+	private final Map<String, TokenBucket> buckets = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+			return size() > MAX_CLIENTS;
+		}
+	};
+
+	@ServerRequestFilter
+	public Optional<Response> filter(ContainerRequestContext context, HttpServerRequest request) {
+		long retryAfter = admit(request, context.getUriInfo().getPath());
+		if (retryAfter == 0) {
+			return Optional.empty();
+		}
+		return Optional.of(Response.status(Response.Status.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, retryAfter)
+				.entity(refusal(retryAfter)).build());
+	}
+
+	/**
+	 * GraphQL is served by its own route, which the REST filters do not see, so it is limited
+	 * ahead of that route.
+	 */
+	void limitGraphQL(@Observes Router router) {
+		String path = graphQLPath.startsWith("/") ? graphQLPath : "/" + graphQLPath;
+		router.route(path + "*").order(-1).handler(context -> {
+			long retryAfter = admit(context.request(), context.request().path());
+			if (retryAfter == 0) {
+				context.next();
+				return;
+			}
+			context.response().setStatusCode(Response.Status.TOO_MANY_REQUESTS.getStatusCode())
+					.putHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter)).end(refusal(retryAfter));
+		});
+	}
+
+	/**
+	 * Charges the client for an inbound request.
+	 *
+	 * @return 0 if the client could afford the request, else the seconds until it can.
+	 */
+	private long admit(HttpServerRequest request, String path) {
+		if (!enabled || path.endsWith("github/webhook")) {
+			return 0;
+		}
+		String client = clientOf(request);
+		int cost = costOf(path);
+		long waitNanos = tryConsume(client, cost);
+		return waitNanos == 0 ? 0 : refused(client, path, cost, waitNanos);
+	}
+
+	private static String refusal(long retryAfter) {
+		return "Rate limit exceeded, retry after " + retryAfter + " seconds";
+	}
+
+	/**
+	 * The GitHub requests made for one inbound request, charged to its client until the cap is
+	 * reached. Shared by the crawls of the request, which may run concurrently.
+	 */
+	public final class GitHubCharge {
+		private final String client;
+		private int charged;
+
+		private GitHubCharge(String client) {
+			this.client = client;
+		}
+
+		/**
+		 * Charges the client for a GitHub request about to be made on its behalf.
+		 *
+		 * @param url
+		 *            the GitHub URL, for the recording of a refusal.
+		 * @return 0 if the client could afford the request, else the seconds until it can, in which
+		 *         case the request must not be made.
+		 */
+		public synchronized long charge(String url) {
+			int cost = Math.min(gitHubCost, maxGitHubCost - charged);
+			if (!enabled || cost <= 0) {
+				return 0;
+			}
+			long waitNanos = tryConsume(client, cost);
+			if (waitNanos != 0) {
+				return refused(client, url, cost, waitNanos);
+			}
+			charged += cost;
+			return 0;
+		}
+	}
+
+	/**
+	 * @return the charge for the GitHub requests made for the inbound request.
+	 */
+	public GitHubCharge startGitHubCharge(HttpServerRequest request) {
+		return new GitHubCharge(clientOf(request));
+	}
+
+	/**
+	 * @return 0 if the client could afford the cost, else the nanoseconds until it can.
+	 */
+	long tryConsume(String client, int cost) {
+		long now = System.nanoTime();
+		TokenBucket bucket;
+		synchronized (buckets) {
+			bucket = buckets.computeIfAbsent(client, key -> new TokenBucket(capacity, refillPerSecond, now));
+		}
+		return bucket.tryConsume(cost, now);
+	}
+
+	/**
+	 * @return the number of clients with a bucket.
+	 */
+	int getClientCount() {
+		synchronized (buckets) {
+			return buckets.size();
+		}
+	}
+
+	int costOf(String path) {
+		String normalized = path.startsWith("/") ? path.substring(1) : path;
+		// Searches, and what may resolve or write much of the census
+		if (normalized.endsWith("/search") || normalized.equals("census/query") || normalized.equals("census/graphql")
+				|| normalized.equals("census/export")) {
+			return searchCost;
+		}
+		// The GitHub requests made are charged as they are made
+		return lookupCost;
+	}
+
+	/**
+	 * Records the refusal.
+	 *
+	 * @return the seconds to retry after.
+	 */
+	private static long refused(String client, String path, int cost, long waitNanos) {
+		long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+		InboundRateLimitEvent event = new InboundRateLimitEvent();
+		if (event.shouldCommit()) {
+			event.client = client;
+			event.path = path;
+			event.cost = cost;
+			event.retryAfter = retryAfter;
+			event.commit();
+		}
+		return retryAfter;
+	}
+
+	/**
+	 * @return the API key index of the client, or its IP address, forwarded only from trusted
+	 *         proxies.
+	 */
+	public String clientOf(HttpServerRequest request) {
+		String apiKey = request.getHeader(API_KEY_HEADER);
+		if (apiKey != null && apiKeys.isPresent()) {
+			int index = apiKeys.get().indexOf(apiKey);
+			if (index >= 0) {
+				// Never the key itself, since the client id ends up in recordings
+				return "key#" + index;
+			}
+		}
+		// The connection is the one of the peer, whatever the forwarding headers say
+		SocketAddress address = trustedProxies.isPresent() ? request.remoteAddress() : request.connection().remoteAddress();
+		return address != null ? address.hostAddress() : "unknown";
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+/**
+ * A token bucket holding up to a capacity of tokens, refilled at a fixed rate. A request takes as
+ * many tokens as it costs, so bursts up to the capacity are allowed, while the sustained rate is
+ * bounded by the refill rate.
+ */
+public final class TokenBucket {
+	private final double capacity;
+	private final double refillPerNano;
+	private double tokens;
+	private long lastRefillNanos;
+
+	/**
+	 * Creates a full bucket.
+	 */
+	public TokenBucket(double capacity, double refillPerSecond, long nowNanos) {
+		this.capacity = capacity;
+		this.refillPerNano = refillPerSecond / 1_000_000_000d;
+		this.tokens = capacity;
+		this.lastRefillNanos = nowNanos;
+	}
+
+	/**
+	 * Takes the tokens for a request, if there are enough of them. A cost larger than the capacity
+	 * is taken to be the capacity, so that any request can eventually be served.
+	 *
+	 * @return 0 if the tokens were taken, else the number of nanoseconds until there will be enough.
+	 */
+	public synchronized long tryConsume(double cost, long nowNanos) {
+		refill(nowNanos);
+		double needed = Math.min(cost, capacity);
+		if (tokens >= needed) {
+			tokens -= needed;
+			return 0;
+		}
+		return Math.max(1, (long) Math.ceil((needed - tokens) / refillPerNano));
+	}
+
+	/**
+	 * @return true if the bucket has refilled completely, i.e. it has not been used for a while.
+	 */
+	public synchronized boolean isFull(long nowNanos) {
+		refill(nowNanos);
+		return tokens >= capacity;
+	}
+
+	public synchronized double getTokens(long nowNanos) {
+		refill(nowNanos);
+		return tokens;
+	}
+
+	private void refill(long nowNanos) {
+		long elapsed = nowNanos - lastRefillNanos;
+		if (elapsed > 0) {
+			tokens = Math.min(capacity, tokens + elapsed * refillPerNano);
+			lastRefillNanos = nowNanos;
+		}
+	}
+}
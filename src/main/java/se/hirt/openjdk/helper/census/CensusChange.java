@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * A summary of what changed between two census snapshots: the people, groups and projects that
+ * were added, removed or changed. A person or an affiliation is changed if its name or any of its
+ * memberships changed.
+ */
+public final class CensusChange {
+	private final String version;
+	private final String previousVersion;
+	private final Instant timestamp;
+	private final Delta people = new Delta();
+	private final Delta groups = new Delta();
+	private final Delta projects = new Delta();
+
+	/**
+	 * The ids added, removed and changed, in sorted order.
+	 */
+	public static final class Delta {
+		private final SortedSet<String> added = new TreeSet<>();
+		private final SortedSet<String> removed = new TreeSet<>();
+		private final SortedSet<String> changed = new TreeSet<>();
+
+		public SortedSet<String> getAdded() {
+			return added;
+		}
+
+		public SortedSet<String> getRemoved() {
+			return removed;
+		}
+
+		public SortedSet<String> getChanged() {
+			return changed;
+		}
+
+		public boolean isEmpty() {
+			return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+		}
+	}
+
+	private CensusChange(CensusView previous, CensusView current) {
+		this.version = current.getVersion();
+		this.previousVersion = previous.getVersion();
+		this.timestamp = current.getTimestamp();
+	}
+
+	public static CensusChange between(CensusView previous, CensusView current) {
+		CensusChange change = new CensusChange(previous, current);
+		Set<String> previousFacts = CensusFacts.of(previous);
+		Set<String> currentFacts = CensusFacts.of(current);
+		change.collect(previousFacts, currentFacts, true);
+		change.collect(currentFacts, previousFacts, false);
+		return change;
+	}
+
+	/**
+	 * Sorts the facts only found in one of the snapshots into the deltas. The ids themselves are
+	 * handled before the memberships, so that memberships of added or removed entities do not
+	 * count as changes.
+	 */
+	private void collect(Set<String> facts, Set<String> otherFacts, boolean removal) {
+		List<String[]> memberships = new ArrayList<>();
+		for (String fact : facts) {
+			if (otherFacts.contains(fact)) {
+				continue;
+			}
+			String[] fields = CensusFacts.fields(fact);
+			switch (CensusFacts.kind(fact)) {
+			case CensusFacts.USER_ID:
+			case CensusFacts.PERSON:
+				record(people, fields[0], removal);
+				break;
+			case CensusFacts.GROUP:
+				record(groups, fields[0], removal);
+				break;
+			case CensusFacts.PROJECT:
+				record(projects, fields[0], removal);
+				break;
+			default:
+				memberships.add(new String[] {String.valueOf(CensusFacts.kind(fact)), fields[0], fields[1]});
+			}
+		}
+		for (String[] membership : memberships) {
+			Delta affiliations = membership[0].charAt(0) == CensusFacts.GROUP_MEMBER ? groups : projects;
+			markChanged(affiliations, membership[1]);
+			markChanged(people, membership[2]);
+		}
+	}
+
+	/**
+	 * An id only found in one snapshot is added or removed, and one found in both, but with
+	 * different facts, is changed.
+	 */
+	private void record(Delta delta, String id, boolean removal) {
+		if (delta.changed.contains(id)) {
+			return;
+		}
+		SortedSet<String> other = removal ? delta.added : delta.removed;
+		if (other.remove(id)) {
+			delta.changed.add(id);
+		} else {
+			(removal ? delta.removed : delta.added).add(id);
+		}
+	}
+
+	private static void markChanged(Delta delta, String id) {
+		if (!delta.added.contains(id) && !delta.removed.contains(id)) {
+			delta.changed.add(id);
+		}
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public String getPreviousVersion() {
+		return previousVersion;
+	}
+
+	public Instant getTimestamp() {
+		return timestamp;
+	}
+
+	public Delta getPeople() {
+		return people;
+	}
+
+	public Delta getGroups() {
+		return groups;
+	}
+
+	public Delta getProjects() {
+		return projects;
+	}
+
+	public boolean isEmpty() {
+		return people.isEmpty() && groups.isEmpty() && projects.isEmpty();
+	}
+}
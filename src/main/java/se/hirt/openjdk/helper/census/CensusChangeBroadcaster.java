@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import io.quarkus.logging.Log;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseBroadcaster;
+import jakarta.ws.rs.sse.SseEventSink;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Pushes a server-sent event to all subscribed clients every time a census snapshot with a new
+ * version is published, or, when serving a mapped census, mapped. Clients first get a
+ * <code>current</code> event with the version they start from, and then a <code>change</code>
+ * event, with the version and a summary of what changed, for every new snapshot. The event id is
+ * the snapshot version.
+ */
+@ApplicationScoped
+public class CensusChangeBroadcaster {
+	private Sse sse;
+	private SseBroadcaster broadcaster;
+	private CensusView previous = CensusSnapshot.EMPTY;
+
+	/**
+	 * Subscribes a client, starting from the last published snapshot. Taken under the same lock as
+	 * the snapshots are published with, so that the client neither misses the change to the next
+	 * one, nor gets a change to the one it starts from.
+	 *
+	 * @param initial
+	 *            the snapshot to start from if none has been published yet.
+	 */
+	public synchronized void subscribe(SseEventSink sink, Sse sse, Supplier<CensusView> initial) {
+		if (broadcaster == null) {
+			this.sse = sse;
+			broadcaster = sse.newBroadcaster();
+			broadcaster.onError((failedSink, t) -> Log.debug("Dropping census change subscriber: " + t.getMessage()));
+		}
+		if (previous == CensusSnapshot.EMPTY) {
+			previous = initial.get();
+		}
+		CensusView current = previous;
+		Map<String, Object> data = new HashMap<>();
+		data.put("version", current.getVersion());
+		data.put("timestamp", current.getTimestamp().toString());
+		sink.send(event("current", current.getVersion(), data));
+		broadcaster.register(sink);
+	}
+
+	void onSnapshot(@Observes CensusSnapshot snapshot) {
+		publish(snapshot);
+	}
+
+	void onMapped(@Observes MappedCensus mapped) {
+		publish(mapped);
+	}
+
+	private synchronized void publish(CensusView snapshot) {
+		CensusView last = previous;
+		previous = snapshot;
+		if (broadcaster == null || last.getVersion().equals(snapshot.getVersion())) {
+			return;
+		}
+		CensusChange change = CensusChange.between(last, snapshot);
+		broadcaster.broadcast(event("change", change.getVersion(), changeToMap(change)));
+	}
+
+	private OutboundSseEvent event(String name, String version, Map<String, Object> data) {
+		return sse.newEventBuilder().name(name).id(version).mediaType(MediaType.APPLICATION_JSON_TYPE).data(Map.class, data).build();
+	}
+
+	private static Map<String, Object> changeToMap(CensusChange change) {
+		Map<String, Object> data = new HashMap<>();
+		data.put("version", change.getVersion());
+		data.put("previousVersion", change.getPreviousVersion());
+		data.put("timestamp", change.getTimestamp().toString());
+		data.put("people", deltaToMap(change.getPeople()));
+		data.put("groups", deltaToMap(change.getGroups()));
+		data.put("projects", deltaToMap(change.getProjects()));
+		return data;
+	}
+
+	private static Map<String, Object> deltaToMap(CensusChange.Delta delta) {
+		return Map.of("added", delta.getAdded(), "removed", delta.getRemoved(), "changed", delta.getChanged());
+	}
+
+	@PreDestroy
+	synchronized void close() {
+		if (broadcaster != null) {
+			broadcaster.close();
+		}
+	}
+}
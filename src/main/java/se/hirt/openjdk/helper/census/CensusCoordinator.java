@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import io.quarkus.logging.Log;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Coordinates the replicas sharing the directory configured with
+ * <code>openjdk.census.shared.dir</code>, so that only one of them fetches the census. The
+ * replica holding the lock on the lock file in the directory is the fetcher. It shares every
+ * snapshot it parses by writing it to a temporary file and renaming it into place. The other
+ * replicas watch the directory, and pick up new snapshots as they appear. Should the fetcher
+ * die, the operating system releases the lock, and the first replica to try takes over. The
+ * replicas try every <code>openjdk.census.shared.lock-poll-interval</code>.
+ */
+@ApplicationScoped
+public class CensusCoordinator {
+	static final String LOCK_FILE = "fetcher.lock";
+	static final String SNAPSHOT_FILE = "census.snapshot";
+
+	@ConfigProperty(name = "openjdk.census.shared.dir")
+	Optional<String> directory;
+
+	@ConfigProperty(name = "openjdk.census.shared.lock-poll-interval", defaultValue = "5s")
+	Duration lockPollInterval;
+
+	private FileChannel lockChannel;
+	private FileLock lock;
+	private WatchService watchService;
+
+	public CensusCoordinator() {
+	}
+
+	/**
+	 * For use outside of CDI, e.g. when testing with several JVMs.
+	 *
+	 * @param directory        the directory shared between the replicas.
+	 * @param lockPollInterval how often a replica that is not the fetcher tries to become it.
+	 */
+	public CensusCoordinator(Path directory, Duration lockPollInterval) {
+		this.directory = Optional.of(directory.toString());
+		this.lockPollInterval = lockPollInterval;
+	}
+
+	public boolean isEnabled() {
+		return directory.isPresent();
+	}
+
+	/**
+	 * @return how often a replica that is not the fetcher should try to become it.
+	 */
+	public Duration getLockPollInterval() {
+		return lockPollInterval;
+	}
+
+	/**
+	 * @return true if this replica is the one fetching the census.
+	 */
+	public synchronized boolean isFetcher() {
+		return lock != null && lock.isValid();
+	}
+
+	/**
+	 * Tries to become the fetcher. Does not block.
+	 *
+	 * @return true if this replica is, or just became, the fetcher.
+	 */
+	public synchronized boolean tryBecomeFetcher() {
+		if (isFetcher()) {
+			return true;
+		}
+		try {
+			Path dir = getDirectory();
+			Files.createDirectories(dir);
+			if (lockChannel == null) {
+				lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			}
+			lock = lockChannel.tryLock();
+			if (lock != null) {
+				Log.info("This replica is now the census fetcher for " + dir);
+			}
+			return lock != null;
+		} catch (IOException e) {
+			Log.error("Could not take part in the census fetcher election", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Shares the snapshot with the other replicas.
+	 */
+	public void share(CensusSnapshot snapshot) throws IOException {
+		Path dir = getDirectory();
+		Path temporary = dir.resolve(SNAPSHOT_FILE + ".tmp");
+		try (OutputStream out = Files.newOutputStream(temporary)) {
+			CensusSnapshotCodec.write(snapshot, out);
+		}
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(temporary, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return the latest shared snapshot, or null if there is none (or it could not be read).
+	 */
+	public CensusSnapshot readShared() {
+		Path file = getDirectory().resolve(SNAPSHOT_FILE);
+		try (InputStream in = Files.newInputStream(file)) {
+			return CensusSnapshotCodec.read(in);
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			Log.error("Could not read the shared census snapshot " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Starts watching the directory, calling the listener with every snapshot shared from now on.
+	 * The listener is called from the watching thread, also for snapshots shared by this replica.
+	 */
+	public synchronized void watch(Consumer<CensusSnapshot> listener) throws IOException {
+		if (watchService != null) {
+			throw new IllegalStateException("Already watching " + getDirectory());
+		}
+		Path dir = getDirectory();
+		Files.createDirectories(dir);
+		watchService = dir.getFileSystem().newWatchService();
+		dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		WatchService service = watchService;
+		Thread watcher = new Thread(() -> watch(service, listener), "census-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	private void watch(WatchService service, Consumer<CensusSnapshot> listener) {
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				boolean shared = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					// On overflow, events may have been lost, so check anyway
+					shared |= event.kind() == StandardWatchEventKinds.OVERFLOW || SNAPSHOT_FILE.equals(String.valueOf(event.context()));
+				}
+				if (shared) {
+					CensusSnapshot snapshot = readShared();
+					if (snapshot != null) {
+						try {
+							listener.accept(snapshot);
+						} catch (RuntimeException e) {
+							// Must not stop the watching
+							Log.error("Failed to load the shared census snapshot", e);
+						}
+					}
+				}
+				if (!key.reset()) {
+					Log.error("Stopped watching " + getDirectory() + " for shared census snapshots");
+					return;
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Shutting down
+		}
+	}
+
+	@PreDestroy
+	synchronized void close() {
+		try {
+			if (watchService != null) {
+				watchService.close();
+			}
+			if (lockChannel != null) {
+				// Also releases the lock
+				lockChannel.close();
+			}
+		} catch (IOException e) {
+			Log.warn("Could not close the census coordination resources", e);
+		}
+	}
+
+	private Path getDirectory() {
+		return Path.of(directory.orElseThrow(() -> new IllegalStateException("No shared census directory configured")));
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Writes a whole census snapshot for bulk consumers, straight from the model, without building
+ * the maps used for the other responses.
+ * <p>
+ * JSON, CBOR and Smile get one document with the version and timestamp of the snapshot, and the
+ * people, projects and groups, each entry looking like in the full listings. NDJSON gets one line
+ * per entry instead, tagged with its type, after a first census line with the version, timestamp
+ * and counts.
+ */
+final class CensusExporter {
+	private CensusExporter() {
+	}
+
+	static void export(CensusView snapshot, CensusFormat format, OutputStream out) throws IOException {
+		try (JsonGenerator generator = format.createGenerator(out)) {
+			if (format == CensusFormat.NDJSON) {
+				exportLines(snapshot, generator);
+			} else {
+				exportDocument(snapshot, generator);
+			}
+		}
+	}
+
+	private static void exportDocument(CensusView snapshot, JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("version", snapshot.getVersion());
+		generator.writeStringField("timestamp", snapshot.getTimestamp().toString());
+		generator.writeArrayFieldStart("people");
+		for (Person person : snapshot.getPeople().values()) {
+			generator.writeStartObject();
+			writePerson(generator, person);
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+		generator.writeArrayFieldStart("projects");
+		for (Project project : snapshot.getProjects().values()) {
+			generator.writeStartObject();
+			writeAffiliation(generator, project);
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+		generator.writeArrayFieldStart("groups");
+		for (Group group : snapshot.getGroups().values()) {
+			generator.writeStartObject();
+			writeAffiliation(generator, group);
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	private static void exportLines(CensusView snapshot, JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("type", "census");
+		generator.writeStringField("version", snapshot.getVersion());
+		generator.writeStringField("timestamp", snapshot.getTimestamp().toString());
+		generator.writeNumberField("people", snapshot.getPeople().size());
+		generator.writeNumberField("projects", snapshot.getProjects().size());
+		generator.writeNumberField("groups", snapshot.getGroups().size());
+		generator.writeEndObject();
+		generator.writeRaw('\n');
+		for (Person person : snapshot.getPeople().values()) {
+			generator.writeStartObject();
+			generator.writeStringField("type", "person");
+			writePerson(generator, person);
+			generator.writeEndObject();
+			generator.writeRaw('\n');
+		}
+		for (Project project : snapshot.getProjects().values()) {
+			generator.writeStartObject();
+			generator.writeStringField("type", "project");
+			writeAffiliation(generator, project);
+			generator.writeEndObject();
+			generator.writeRaw('\n');
+		}
+		for (Group group : snapshot.getGroups().values()) {
+			generator.writeStartObject();
+			generator.writeStringField("type", "group");
+			writeAffiliation(generator, group);
+			generator.writeEndObject();
+			generator.writeRaw('\n');
+		}
+	}
+
+	private static void writePerson(JsonGenerator generator, Person person) throws IOException {
+		generator.writeStringField("userId", person.getUserid());
+		generator.writeStringField("fullName", person.getFullName());
+		generator.writeObjectFieldStart("affiliations");
+		generator.writeArrayFieldStart("groups");
+		writePersonAffiliations(generator, person, Group.class);
+		generator.writeEndArray();
+		generator.writeArrayFieldStart("projects");
+		writePersonAffiliations(generator, person, Project.class);
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	private static void writePersonAffiliations(JsonGenerator generator, Person person, Class<? extends Affiliation> kind) throws IOException {
+		for (Affiliation affiliation : person.getAffiliations().values()) {
+			if (kind.isInstance(affiliation)) {
+				generator.writeStartObject();
+				generator.writeStringField("id", affiliation.getId());
+				generator.writeStringField("name", affiliation.getFullName());
+				generator.writeStringField("role", affiliation.getMembers().get(person.getUserid()));
+				generator.writeEndObject();
+			}
+		}
+	}
+
+	private static void writeAffiliation(JsonGenerator generator, Affiliation affiliation) throws IOException {
+		generator.writeStringField("id", affiliation.getId());
+		generator.writeStringField("name", affiliation.getFullName());
+		generator.writeArrayFieldStart("members");
+		for (Map.Entry<String, String> member : affiliation.getMembers().entrySet()) {
+			generator.writeStartObject();
+			generator.writeStringField("userId", member.getKey());
+			generator.writeStringField("role", member.getValue());
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Breaks a snapshot down into a set of flat facts (a person, an affiliation, a membership), so
+ * that the difference between two snapshots can be expressed as facts added and removed.
+ */
+final class CensusFacts {
+	static final char USER_ID = 'U';
+	static final char PERSON = 'P';
+	static final char GROUP = 'G';
+	static final char PROJECT = 'J';
+	static final char GROUP_MEMBER = 'g';
+	static final char PROJECT_MEMBER = 'j';
+
+	private static final char SEPARATOR = '\u001f';
+	private static final String NULL = "\u0000";
+
+	private CensusFacts() {
+	}
+
+	static Set<String> of(CensusView snapshot) {
+		Set<String> facts = new HashSet<>();
+		for (String userId : snapshot.getUserIds()) {
+			facts.add(fact(USER_ID, userId));
+		}
+		for (Person person : snapshot.getPeople().values()) {
+			facts.add(fact(PERSON, person.getUserid(), person.getFullName()));
+		}
+		for (Group group : snapshot.getGroups().values()) {
+			facts.add(fact(GROUP, group.getId(), group.getFullName()));
+			for (Map.Entry<String, String> member : group.getMembers().entrySet()) {
+				facts.add(fact(GROUP_MEMBER, group.getId(), member.getKey(), member.getValue()));
+			}
+		}
+		for (Project project : snapshot.getProjects().values()) {
+			facts.add(fact(PROJECT, project.getId(), project.getFullName()));
+			for (Map.Entry<String, String> member : project.getMembers().entrySet()) {
+				facts.add(fact(PROJECT_MEMBER, project.getId(), member.getKey(), member.getValue()));
+			}
+		}
+		return facts;
+	}
+
+	static CensusSnapshot toSnapshot(Collection<String> facts, Instant timestamp) {
+		Set<String> userIds = new HashSet<>();
+		Map<String, Group> groups = new HashMap<>();
+		Map<String, Project> projects = new HashMap<>();
+		Map<String, Person> people = new HashMap<>();
+		List<String[]> memberships = new ArrayList<>();
+		for (String fact : facts) {
+			String[] fields = fields(fact);
+			switch (kind(fact)) {
+			case USER_ID:
+				userIds.add(fields[0]);
+				break;
+			case PERSON:
+				people.put(fields[0], new Person(fields[0], fields[1]));
+				break;
+			case GROUP:
+				groups.computeIfAbsent(fields[0], Group::new).setFullName(fields[1]);
+				break;
+			case PROJECT:
+				projects.computeIfAbsent(fields[0], Project::new).setFullName(fields[1]);
+				break;
+			default:
+				memberships.add(new String[] {String.valueOf(kind(fact)), fields[0], fields[1], fields[2]});
+			}
+		}
+		for (String[] membership : memberships) {
+			Affiliation affiliation = membership[0].charAt(0) == GROUP_MEMBER ? groups.computeIfAbsent(membership[1], Group::new)
+					: projects.computeIfAbsent(membership[1], Project::new);
+			affiliation.addMember(membership[2], membership[3]);
+			Person person = people.get(membership[2]);
+			if (person != null) {
+				person.addAffiliation(affiliation.getId(), affiliation);
+			}
+		}
+		return new CensusSnapshot(userIds, groups, projects, people, timestamp);
+	}
+
+	static String fact(char kind, String... fields) {
+		StringBuilder builder = new StringBuilder().append(kind);
+		for (String field : fields) {
+			builder.append(SEPARATOR).append(field == null ? NULL : field);
+		}
+		return builder.toString();
+	}
+
+	static char kind(String fact) {
+		return fact.charAt(0);
+	}
+
+	/**
+	 * @return the fields of the fact, not including the kind.
+	 */
+	static String[] fields(String fact) {
+		String[] fields = fact.substring(2).split(String.valueOf(SEPARATOR), -1);
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].equals(NULL)) {
+				fields[i] = null;
+			}
+		}
+		return fields;
+	}
+}
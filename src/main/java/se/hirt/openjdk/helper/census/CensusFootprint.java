@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import io.quarkus.logging.Log;
+import io.quarkus.runtime.Startup;
+import io.quarkus.runtime.configuration.MemorySize;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jdk.jfr.FlightRecorder;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Keeps an estimate of the heap retained by the current census snapshot, broken down by
+ * component, and of the snapshot it replaced, since both are live while a new snapshot is being
+ * swapped in. Every new snapshot is checked against <code>openjdk.census.memory-budget</code>, if
+ * set. The estimates are also emitted as a periodic JFR event.
+ */
+@Startup
+@ApplicationScoped
+public class CensusFootprint {
+	@ConfigProperty(name = "openjdk.census.memory-budget")
+	Optional<MemorySize> budget;
+
+	@Inject
+	OpenjdkCensusScraper census;
+
+	@Inject
+	CensusResponseCache responseCache;
+
+	private final Runnable periodicHook = this::emitEvent;
+	private volatile Footprint current;
+	private volatile Footprint previous;
+
+	/**
+	 * The estimated retained size of a snapshot, in bytes, per component. Strings shared between
+	 * components are counted in the first one, in the order people, groups, projects, userIds,
+	 * roleIndex and stats.
+	 */
+	public static final class Footprint {
+		private final String version;
+		private final Map<String, Long> components;
+		private final long total;
+
+		private Footprint(String version, Map<String, Long> components) {
+			this.version = version;
+			this.components = Collections.unmodifiableMap(components);
+			this.total = components.values().stream().mapToLong(Long::longValue).sum();
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public Map<String, Long> getComponents() {
+			return components;
+		}
+
+		public long getTotal() {
+			return total;
+		}
+	}
+
+	public static Footprint estimate(CensusSnapshot snapshot) {
+		HeapEstimator estimator = new HeapEstimator();
+		Map<String, Long> components = new LinkedHashMap<>();
+		long people = estimator.wrapper() + estimator.hashMap(snapshot.getPeople().size());
+		for (Person person : snapshot.getPeople().values()) {
+			people += estimator.object(3, 0) + estimator.string(person.getUserid()) + estimator.string(person.getFullName())
+					+ estimator.hashMap(person.getAffiliations().size());
+			for (String affiliationId : person.getAffiliations().keySet()) {
+				people += estimator.string(affiliationId);
+			}
+		}
+		components.put("people", people);
+		components.put("groups", estimateAffiliations(estimator, snapshot.getGroups()));
+		components.put("projects", estimateAffiliations(estimator, snapshot.getProjects()));
+		long userIds = estimator.wrapper() + estimator.hashSet(snapshot.getUserIds().size());
+		for (String userId : snapshot.getUserIds()) {
+			userIds += estimator.string(userId);
+		}
+		components.put("userIds", userIds);
+		components.put("roleIndex", snapshot.getRoleIndex().estimateSize(estimator));
+		components.put("stats", snapshot.getStats().estimateSize(estimator));
+		return new Footprint(snapshot.getVersion(), components);
+	}
+
+	private static long estimateAffiliations(HeapEstimator estimator, Map<String, ? extends Affiliation> affiliations) {
+		long size = estimator.wrapper() + estimator.hashMap(affiliations.size());
+		for (Affiliation affiliation : affiliations.values()) {
+			size += estimator.string(affiliation.getId()) + estimator.object(3, 0) + estimator.string(affiliation.getFullName())
+					+ estimator.hashMap(affiliation.getMembers().size());
+			for (Map.Entry<String, String> member : affiliation.getMembers().entrySet()) {
+				size += estimator.string(member.getKey()) + estimator.string(member.getValue());
+			}
+		}
+		return size;
+	}
+
+	@PostConstruct
+	void initialize() {
+		onSnapshot(census.getSnapshot());
+		FlightRecorder.addPeriodicEvent(CensusFootprintEvent.class, periodicHook);
+	}
+
+	@PreDestroy
+	void close() {
+		FlightRecorder.removePeriodicEvent(periodicHook);
+	}
+
+	synchronized void onSnapshot(@Observes CensusSnapshot snapshot) {
+		if (current != null && current.getVersion().equals(snapshot.getVersion())) {
+			return;
+		}
+		Footprint footprint = estimate(snapshot);
+		previous = current;
+		current = footprint;
+		if (budget.isPresent() && footprint.getTotal() > budget.get().asLongValue()) {
+			Log.warn("Census snapshot " + footprint.getVersion() + " retains an estimated " + footprint.getTotal() + " bytes, over the budget of "
+					+ budget.get().asLongValue() + " bytes (openjdk.census.memory-budget): " + footprint.getComponents());
+		}
+	}
+
+	public Footprint getCurrent() {
+		return current;
+	}
+
+	/**
+	 * @return the footprint of the snapshot replaced by the current one, or null if none.
+	 */
+	public Footprint getPrevious() {
+		return previous;
+	}
+
+	/**
+	 * @return the bytes held by the cached response bodies.
+	 */
+	public long getResponseCacheSize() {
+		return responseCache.estimateSize();
+	}
+
+	/**
+	 * @return the memory budget for a snapshot in bytes, if configured.
+	 */
+	public Optional<Long> getBudget() {
+		return budget.map(MemorySize::asLongValue);
+	}
+
+	private void emitEvent() {
+		Footprint footprint = current;
+		CensusFootprintEvent event = new CensusFootprintEvent();
+		if (footprint == null || !event.shouldCommit()) {
+			return;
+		}
+		event.version = footprint.getVersion();
+		event.people = footprint.getComponents().get("people");
+		event.groups = footprint.getComponents().get("groups");
+		event.projects = footprint.getComponents().get("projects");
+		event.roleIndex = footprint.getComponents().get("roleIndex");
+		event.stats = footprint.getComponents().get("stats");
+		event.snapshot = footprint.getTotal();
+		event.responseCache = getResponseCacheSize();
+		event.budget = getBudget().orElse(0L);
+		event.commit();
+	}
+}
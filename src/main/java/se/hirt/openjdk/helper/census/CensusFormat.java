@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonFactoryBuilder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import jakarta.ws.rs.core.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The formats the census can be served in. JSON, CBOR and Smile carry the same documents, the
+ * binary ones being more compact and cheaper to parse. NDJSON is only used for the export, with
+ * one entry per line.
+ */
+enum CensusFormat {
+	JSON(MediaType.APPLICATION_JSON, new JsonFactory()),
+	CBOR(CensusFormat.CBOR_TYPE, new CBORFactory()),
+	SMILE(CensusFormat.SMILE_TYPE, new SmileFactory()),
+	NDJSON(CensusFormat.NDJSON_TYPE, new JsonFactoryBuilder().rootValueSeparator((String) null).build());
+
+	static final String CBOR_TYPE = "application/cbor";
+	static final String SMILE_TYPE = "application/x-jackson-smile";
+	static final String NDJSON_TYPE = "application/x-ndjson";
+
+	/**
+	 * The formats of the full listings.
+	 */
+	static final Set<CensusFormat> DOCUMENT_FORMATS = EnumSet.of(JSON, CBOR, SMILE);
+
+	private final String mediaType;
+	private final ObjectMapper mapper;
+
+	CensusFormat(String mediaType, JsonFactory factory) {
+		this.mediaType = mediaType;
+		this.mapper = new ObjectMapper(factory);
+	}
+
+	String getMediaType() {
+		return mediaType;
+	}
+
+	/**
+	 * @return the suffix telling the representations apart in ETags and cache keys, empty for JSON.
+	 */
+	String getSuffix() {
+		return this == JSON ? "" : "-" + name().toLowerCase(Locale.ROOT);
+	}
+
+	byte[] write(Object entity) throws JsonProcessingException {
+		return mapper.writeValueAsBytes(entity);
+	}
+
+	/**
+	 * @return a generator writing to the stream, which is left open when the generator is closed.
+	 */
+	JsonGenerator createGenerator(OutputStream out) throws IOException {
+		return mapper.getFactory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	}
+
+	/**
+	 * @return the format with the name (json, cbor, smile or ndjson), or null if there is none.
+	 */
+	static CensusFormat forName(String name) {
+		for (CensusFormat format : values()) {
+			if (format.name().equalsIgnoreCase(name)) {
+				return format;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param acceptable
+	 *            the media types accepted by the client, most preferred first.
+	 * @return the first supported format the client accepts, or JSON if none is accepted.
+	 */
+	static CensusFormat negotiate(List<MediaType> acceptable, Set<CensusFormat> supported) {
+		for (MediaType mediaType : acceptable) {
+			for (CensusFormat format : supported) {
+				if (mediaType.isCompatible(MediaType.valueOf(format.mediaType))) {
+					return format;
+				}
+			}
+		}
+		return JSON;
+	}
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import jakarta.enterprise.context.RequestScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.graphql.*;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * GraphQL over the census, served by SmallRye GraphQL, so that clients can fetch exactly the part
+ * of the census graph they need in one request, e.g.
+ * <code>{ project(id: "jmc") { name members(role: "Reviewer") { person { userid name } } } }</code>.
+ * The schema is served at <code>/census/graphql/schema.graphql</code>. Lists are in id order.
+ * <p>
+ * The lists of people, projects and groups are resolved once per level of the query for all the
+ * objects at that level (with <code>@Source List</code>), rather than once per object. All fields
+ * of a query are resolved from the same census. The depth and complexity of a query are limited
+ * by the <code>smallrye.graphql.query.*</code> settings before it runs; while it runs, it is
+ * stopped once it has resolved more objects than <code>openjdk.census.graphql.max-objects</code>.
+ */
+@GraphQLApi
+public class CensusGraphQL {
+	@Inject
+	Execution execution;
+
+	@Query
+	@Description("The version of the census snapshot the query is answered from.")
+	public String version() throws GraphQLException {
+		return execution.getCensus().getVersion();
+	}
+
+	@Query
+	public PersonNode person(@NonNull String userid) throws GraphQLException {
+		Person person = execution.getCensus().getPeople().get(userid);
+		execution.resolved(person == null ? 0 : 1);
+		return person == null ? null : new PersonNode(person);
+	}
+
+	@Query
+	@Description("People, optionally only those with the role somewhere, or matching the search expression.")
+	public List<PersonNode> people(String role, String search, Integer first) throws GraphQLException {
+		CensusView census = execution.getCensus();
+		Collection<Person> people = search == null ? census.getPeople().values() : findAll(search, census::findPeople);
+		if (role != null) {
+			Set<String> withRole = census.getRoleIndex().getAffiliations(role).keySet();
+			people = people.stream().filter(person -> withRole.contains(person.getUserid())).collect(Collectors.toList());
+		}
+		List<PersonNode> nodes = first(people.stream().sorted(Comparator.comparing(Person::getUserid)).map(PersonNode::new).collect(Collectors.toList()),
+				first);
+		execution.resolved(nodes.size());
+		return nodes;
+	}
+
+	@Query
+	public ProjectNode project(@NonNull String id) throws GraphQLException {
+		Project project = execution.getCensus().getProjects().get(id);
+		execution.resolved(project == null ? 0 : 1);
+		return project == null ? null : new ProjectNode(project);
+	}
+
+	@Query
+	@Description("Projects, optionally only those matching the search expression.")
+	public List<ProjectNode> projects(String search, Integer first) throws GraphQLException {
+		CensusView census = execution.getCensus();
+		return affiliations(census.getProjects(), search == null ? null : findAll(search, census::findProjects), first, ProjectNode::new);
+	}
+
+	@Query
+	public GroupNode group(@NonNull String id) throws GraphQLException {
+		Group group = execution.getCensus().getGroups().get(id);
+		execution.resolved(group == null ? 0 : 1);
+		return group == null ? null : new GroupNode(group);
+	}
+
+	@Query
+	@Description("Groups, optionally only those matching the search expression.")
+	public List<GroupNode> groups(String search, Integer first) throws GraphQLException {
+		CensusView census = execution.getCensus();
+		return affiliations(census.getGroups(), search == null ? null : findAll(search, census::findGroups), first, GroupNode::new);
+	}
+
+	@Name("projects")
+	@Description("The projects of the person, optionally only those where the person has the role.")
+	public List<List<ProjectMembershipNode>> personProjects(@Source List<PersonNode> people, String role, Integer first) throws GraphQLException {
+		return memberships(people, Project.class, role, first, (affiliation, personRole) -> new ProjectMembershipNode(personRole, (Project) affiliation));
+	}
+
+	@Name("groups")
+	@Description("The groups of the person, optionally only those where the person has the role.")
+	public List<List<GroupMembershipNode>> personGroups(@Source List<PersonNode> people, String role, Integer first) throws GraphQLException {
+		return memberships(people, Group.class, role, first, (affiliation, personRole) -> new GroupMembershipNode(personRole, (Group) affiliation));
+	}
+
+	@Name("members")
+	@Description("The members of the project, optionally only those with the role.")
+	public List<List<MemberNode>> projectMembers(@Source List<ProjectNode> projects, String role, Integer first) throws GraphQLException {
+		return members(projects, role, first);
+	}
+
+	@Name("members")
+	@Description("The members of the group, optionally only those with the role.")
+	public List<List<MemberNode>> groupMembers(@Source List<GroupNode> groups, String role, Integer first) throws GraphQLException {
+		return members(groups, role, first);
+	}
+
+	private <T extends Affiliation, N> List<N> affiliations(Map<String, T> all, Set<T> found, Integer first, Function<T, N> node)
+			throws GraphQLException {
+		Collection<T> affiliations = found == null ? all.values() : found;
+		List<N> nodes = first(affiliations.stream().sorted(Comparator.comparing(Affiliation::getId)).map(node).collect(Collectors.toList()), first);
+		execution.resolved(nodes.size());
+		return nodes;
+	}
+
+	@FunctionalInterface
+	private interface MembershipFactory<N> {
+		N create(Affiliation affiliation, String role);
+	}
+
+	private <N> List<List<N>> memberships(List<PersonNode> people, Class<? extends Affiliation> kind, String role, Integer first,
+			MembershipFactory<N> factory) throws GraphQLException {
+		RoleIndex roleIndex = execution.getCensus().getRoleIndex();
+		List<List<N>> values = new ArrayList<>(people.size());
+		int resolved = 0;
+		for (PersonNode node : people) {
+			Person person = node.person;
+			Collection<Affiliation> affiliations = role == null ? person.getAffiliations().values()
+					: roleIndex.getAffiliations(role, person.getUserid());
+			List<N> memberships = first(affiliations.stream().filter(kind::isInstance).sorted(Comparator.comparing(Affiliation::getId))
+					.map(affiliation -> factory.create(affiliation, affiliation.getMembers().get(person.getUserid()))).collect(Collectors.toList()),
+					first);
+			values.add(memberships);
+			resolved += memberships.size();
+		}
+		execution.resolved(resolved);
+		return values;
+	}
+
+	private List<List<MemberNode>> members(List<? extends AffiliationNode> affiliations, String role, Integer first) throws GraphQLException {
+		CensusView census = execution.getCensus();
+		Map<String, Person> people = census.getPeople();
+		List<List<MemberNode>> values = new ArrayList<>(affiliations.size());
+		int resolved = 0;
+		for (AffiliationNode node : affiliations) {
+			Map<String, String> members = role == null ? node.affiliation.getMembers() : census.getRoleIndex().getMembers(node.affiliation, role);
+			List<MemberNode> nodes = first(members.entrySet().stream().sorted(Map.Entry.comparingByKey())
+					.map(member -> new MemberNode(member.getValue(), people.get(member.getKey()))).collect(Collectors.toList()), first);
+			values.add(nodes);
+			resolved += nodes.size();
+		}
+		execution.resolved(resolved);
+		return values;
+	}
+
+	private static <T> List<T> first(List<T> values, Integer first) throws GraphQLException {
+		if (first == null) {
+			return values;
+		}
+		if (first < 0) {
+			throw new GraphQLException("Invalid first: " + first);
+		}
+		return first >= values.size() ? values : new ArrayList<>(values.subList(0, first));
+	}
+
+	private static <T> Set<T> findAll(String search, Function<String, Set<T>> finder) throws GraphQLException {
+		try {
+			return finder.apply(search);
+		} catch (PatternSyntaxException e) {
+			throw new GraphQLException("Invalid search expression " + search);
+		}
+	}
+
+	/**
+	 * The state of one query: the census it is answered from, and the number of objects it has
+	 * resolved so far.
+	 */
+	@RequestScoped
+	static class Execution {
+		@Inject
+		OpenjdkCensusScraper census;
+
+		@ConfigProperty(name = "openjdk.census.graphql.max-objects", defaultValue = "20000")
+		long maxObjects;
+
+		private CensusView current;
+		private long resolved;
+
+		synchronized CensusView getCensus() throws GraphQLException {
+			if (current == null) {
+				current = census.getCensus();
+				if (current == null) {
+					throw new GraphQLException("The census has not been written yet");
+				}
+			}
+			return current;
+		}
+
+		synchronized void resolved(int objects) throws GraphQLException {
+			resolved += objects;
+			if (resolved > maxObjects) {
+				throw new GraphQLException("The query resolved more than the limit of " + maxObjects + " objects; use first to limit the lists");
+			}
+		}
+	}
+
+	@Name("Person")
+	public static final class PersonNode {
+		@Ignore
+		final Person person;
+
+		PersonNode(Person person) {
+			this.person = person;
+		}
+
+		public String getUserid() {
+			return person.getUserid();
+		}
+
+		public String getName() {
+			return person.getFullName();
+		}
+	}
+
+	public abstract static class AffiliationNode {
+		@Ignore
+		final Affiliation affiliation;
+
+		AffiliationNode(Affiliation affiliation) {
+			this.affiliation = affiliation;
+		}
+
+		public String getId() {
+			return affiliation.getId();
+		}
+
+		public String getName() {
+			return affiliation.getFullName();
+		}
+
+		public int getMemberCount() {
+			return affiliation.getMembers().size();
+		}
+	}
+
+	@Name("Project")
+	public static final class ProjectNode extends AffiliationNode {
+		ProjectNode(Project project) {
+			super(project);
+		}
+	}
+
+	@Name("Group")
+	public static final class GroupNode extends AffiliationNode {
+		GroupNode(Group group) {
+			super(group);
+		}
+	}
+
+	@Name("ProjectMembership")
+	public static final class ProjectMembershipNode {
+		private final String role;
+		private final ProjectNode project;
+
+		ProjectMembershipNode(String role, Project project) {
+			this.role = role;
+			this.project = new ProjectNode(project);
+		}
+
+		public String getRole() {
+			return role;
+		}
+
+		public ProjectNode getProject() {
+			return project;
+		}
+	}
+
+	@Name("GroupMembership")
+	public static final class GroupMembershipNode {
+		private final String role;
+		private final GroupNode group;
+
+		GroupMembershipNode(String role, Group group) {
+			this.role = role;
+			this.group = new GroupNode(group);
+		}
+
+		public String getRole() {
+			return role;
+		}
+
+		public GroupNode getGroup() {
+			return group;
+		}
+	}
+
+	@Name("Member")
+	public static final class MemberNode {
+		private final String role;
+		private final PersonNode person;
+
+		MemberNode(String role, Person person) {
+			this.role = role;
+			this.person = person == null ? null : new PersonNode(person);
+		}
+
+		public String getRole() {
+			return role;
+		}
+
+		public PersonNode getPerson() {
+			return person;
+		}
+	}
+}
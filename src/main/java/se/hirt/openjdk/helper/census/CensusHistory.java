@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import io.quarkus.logging.Log;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Keeps the history of the census on local disk, so that past snapshots and the changes for a
+ * person can be looked up. Enabled by setting <code>openjdk.census.history.dir</code>.
+ * <p>
+ * An in-memory index of all records, and of the changes per person, is built when the history
+ * is opened. Looking up a past snapshot only replays the segment containing it, which is bounded
+ * by <code>openjdk.census.history.max-deltas-per-segment</code>.
+ */
+@ApplicationScoped
+public class CensusHistory {
+	@ConfigProperty(name = "openjdk.census.history.dir")
+	Optional<String> directory;
+
+	@ConfigProperty(name = "openjdk.census.history.max-deltas-per-segment", defaultValue = "256")
+	int maxDeltasPerSegment;
+
+	private CensusHistoryLog log;
+	private final List<IndexEntry> index = new ArrayList<>();
+	private final Map<String, List<Change>> changesByPerson = new HashMap<>();
+	private Set<String> latestFacts;
+	private IndexEntry cachedEntry;
+	private CensusSnapshot cachedSnapshot;
+
+	/**
+	 * A change for a person. For memberships, the value is the role; for the person itself, the
+	 * value is the full name.
+	 */
+	public static final class Change {
+		private final Instant timestamp;
+		private final String type;
+		private final String kind;
+		private final String id;
+		private final String value;
+		private final String previousValue;
+
+		Change(Instant timestamp, String type, String kind, String id, String value, String previousValue) {
+			this.timestamp = timestamp;
+			this.type = type;
+			this.kind = kind;
+			this.id = id;
+			this.value = value;
+			this.previousValue = previousValue;
+		}
+
+		public Instant getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * @return one of initial, added, removed or changed.
+		 */
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * @return one of person, group or project.
+		 */
+		public String getKind() {
+			return kind;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public String getPreviousValue() {
+			return previousValue;
+		}
+	}
+
+	private static final class IndexEntry {
+		private final Instant timestamp;
+		private final String version;
+		private final Path segment;
+		private final int ordinal;
+
+		IndexEntry(Instant timestamp, String version, Path segment, int ordinal) {
+			this.timestamp = timestamp;
+			this.version = version;
+			this.segment = segment;
+			this.ordinal = ordinal;
+		}
+	}
+
+	public CensusHistory() {
+	}
+
+	/**
+	 * For testing purposes _only_.
+	 *
+	 * @param directory           the directory to keep the history in.
+	 * @param maxDeltasPerSegment the number of deltas after which a new segment is started.
+	 */
+	public CensusHistory(Path directory, int maxDeltasPerSegment) {
+		this.directory = Optional.of(directory.toString());
+		this.maxDeltasPerSegment = maxDeltasPerSegment;
+		open();
+	}
+
+	@PostConstruct
+	void open() {
+		if (directory.isEmpty() || directory.get().isBlank()) {
+			return;
+		}
+		try {
+			CensusHistoryLog newLog = new CensusHistoryLog(Path.of(directory.get()));
+			newLog.scan(this::index);
+			log = newLog;
+			Log.info("Census history opened with " + index.size() + " records, using " + log.getDiskUsage() + " bytes");
+		} catch (IOException e) {
+			Log.error("Could not open the census history in " + directory.get() + ", history disabled", e);
+			index.clear();
+			changesByPerson.clear();
+			latestFacts = null;
+		}
+	}
+
+	public boolean isEnabled() {
+		return log != null;
+	}
+
+	/**
+	 * @return the time of the oldest snapshot in the history, or null if there is none.
+	 */
+	public synchronized Instant getStart() {
+		return index.isEmpty() ? null : index.get(0).timestamp;
+	}
+
+	void onSnapshot(@Observes CensusSnapshot snapshot) {
+		if (isEnabled()) {
+			try {
+				record(snapshot);
+			} catch (IOException e) {
+				Log.error("Could not record census snapshot " + snapshot.getVersion() + " in the history", e);
+			}
+		}
+	}
+
+	/**
+	 * Records the snapshot, unless it is unchanged from, or older than, the latest one recorded.
+	 */
+	public synchronized void record(CensusSnapshot snapshot) throws IOException {
+		if (!index.isEmpty()) {
+			IndexEntry last = index.get(index.size() - 1);
+			// Unchanged, or older than what we have (e.g. an embedded snapshot)
+			if (last.version.equals(snapshot.getVersion()) || !snapshot.getTimestamp().isAfter(last.timestamp)) {
+				return;
+			}
+		}
+		Set<String> facts = CensusFacts.of(snapshot);
+		Path segment;
+		int ordinal;
+		if (latestFacts == null) {
+			addInitial(snapshot.getTimestamp(), facts);
+			segment = startSegment(snapshot, facts);
+			ordinal = 0;
+		} else {
+			List<String> added = difference(facts, latestFacts);
+			List<String> removed = difference(latestFacts, facts);
+			addChanges(snapshot.getTimestamp(), added, removed);
+			if (!log.hasActiveSegment() || log.getActiveDeltas() >= maxDeltasPerSegment || log.isDeltaHeavy()) {
+				segment = startSegment(snapshot, facts);
+				ordinal = 0;
+			} else {
+				segment = log.appendDelta(
+						new CensusHistoryLog.Record(CensusHistoryLog.DELTA, snapshot.getTimestamp(), snapshot.getVersion(), added, removed));
+				ordinal = log.getActiveDeltas();
+			}
+		}
+		index.add(new IndexEntry(snapshot.getTimestamp(), snapshot.getVersion(), segment, ordinal));
+		latestFacts = facts;
+	}
+
+	private Path startSegment(CensusSnapshot snapshot, Set<String> facts) throws IOException {
+		return log.startSegment(
+				new CensusHistoryLog.Record(CensusHistoryLog.CHECKPOINT, snapshot.getTimestamp(), snapshot.getVersion(), facts, Collections.emptyList()));
+	}
+
+	/**
+	 * @return the snapshot as it was at the given time, or null if the history does not go back that far.
+	 */
+	public synchronized CensusSnapshot getSnapshot(Instant asOf) throws IOException {
+		int low = 0;
+		int high = index.size() - 1;
+		IndexEntry entry = null;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (index.get(middle).timestamp.isAfter(asOf)) {
+				high = middle - 1;
+			} else {
+				entry = index.get(middle);
+				low = middle + 1;
+			}
+		}
+		if (entry == null) {
+			return null;
+		}
+		if (entry != cachedEntry) {
+			cachedSnapshot = CensusFacts.toSnapshot(log.read(entry.segment, entry.ordinal), entry.timestamp);
+			cachedEntry = entry;
+		}
+		return cachedSnapshot;
+	}
+
+	/**
+	 * @return the changes recorded for a person, oldest first.
+	 */
+	public synchronized List<Change> getChanges(String userId) {
+		return new ArrayList<>(changesByPerson.getOrDefault(userId, Collections.emptyList()));
+	}
+
+	private void index(Path segment, int ordinal, CensusHistoryLog.Record record) {
+		if (record.type == CensusHistoryLog.CHECKPOINT) {
+			Set<String> facts = new HashSet<>(record.added);
+			if (latestFacts == null) {
+				addInitial(record.timestamp, facts);
+			} else {
+				addChanges(record.timestamp, difference(facts, latestFacts), difference(latestFacts, facts));
+			}
+			latestFacts = facts;
+		} else {
+			addChanges(record.timestamp, record.added, record.removed);
+			latestFacts.removeAll(record.removed);
+			latestFacts.addAll(record.added);
+		}
+		index.add(new IndexEntry(record.timestamp, record.version, segment, ordinal));
+	}
+
+	private void addInitial(Instant timestamp, Collection<String> facts) {
+		for (String fact : facts) {
+			addChange(timestamp, "initial", fact, null);
+		}
+	}
+
+	private void addChanges(Instant timestamp, Collection<String> added, Collection<String> removed) {
+		// Pair up removed and added facts for the same person and affiliation, to report them as changes.
+		Map<String, String> removedByKey = new HashMap<>();
+		for (String fact : removed) {
+			removedByKey.put(key(fact), fact);
+		}
+		for (String fact : added) {
+			String previous = removedByKey.remove(key(fact));
+			addChange(timestamp, previous == null ? "added" : "changed", fact, previous);
+		}
+		for (String fact : removedByKey.values()) {
+			addChange(timestamp, "removed", fact, null);
+		}
+	}
+
+	private void addChange(Instant timestamp, String type, String fact, String previousFact) {
+		String[] fields = CensusFacts.fields(fact);
+		String previousValue = previousFact == null ? null : value(previousFact);
+		switch (CensusFacts.kind(fact)) {
+		case CensusFacts.PERSON:
+			add(fields[0], new Change(timestamp, type, "person", fields[0], fields[1], previousValue));
+			break;
+		case CensusFacts.GROUP_MEMBER:
+			add(fields[1], new Change(timestamp, type, "group", fields[0], fields[2], previousValue));
+			break;
+		case CensusFacts.PROJECT_MEMBER:
+			add(fields[1], new Change(timestamp, type, "project", fields[0], fields[2], previousValue));
+			break;
+		default:
+			// Not about a person
+		}
+	}
+
+	private void add(String userId, Change change) {
+		changesByPerson.computeIfAbsent(userId, u -> new ArrayList<>()).add(change);
+	}
+
+	/**
+	 * @return the identity of the fact, i.e. all but the last field. Facts without a value are
+	 *         their own identity.
+	 */
+	private static String key(String fact) {
+		switch (CensusFacts.kind(fact)) {
+		case CensusFacts.PERSON:
+		case CensusFacts.GROUP:
+		case CensusFacts.PROJECT:
+		case CensusFacts.GROUP_MEMBER:
+		case CensusFacts.PROJECT_MEMBER:
+			return fact.substring(0, fact.lastIndexOf('\u001f'));
+		default:
+			return fact;
+		}
+	}
+
+	private static String value(String fact) {
+		String[] fields = CensusFacts.fields(fact);
+		return fields[fields.length - 1];
+	}
+
+	private static List<String> difference(Set<String> facts, Set<String> others) {
+		List<String> difference = new ArrayList<>();
+		for (String fact : facts) {
+			if (!others.contains(fact)) {
+				difference.add(fact);
+			}
+		}
+		return difference;
+	}
+}
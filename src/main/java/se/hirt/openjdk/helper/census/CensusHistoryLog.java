@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The on-disk part of the census history. The history is kept in a directory of segments, each
+ * starting with a checkpoint (all facts of a snapshot) followed by deltas (the facts added and
+ * removed since the previous record). Only the newest segment is appended to. When a new segment
+ * is started, the previous one is compacted with gzip.
+ * <p>
+ * Every record is length prefixed and checksummed, so that a record torn by a crash, or the
+ * zeroes a file system may leave after a crash, can be detected when the log is opened again.
+ * Reading a segment stops at the first bad record, which is dropped together with everything
+ * after it. An active segment that does not start with a checkpoint, e.g. because it was created
+ * just before a crash, is dropped, and so is an active segment that was compacted just before a
+ * crash.
+ */
+final class CensusHistoryLog {
+	static final byte CHECKPOINT = 0;
+	static final byte DELTA = 1;
+
+	private static final String PREFIX = "segment-";
+	private static final String ACTIVE_SUFFIX = ".log";
+	private static final String COMPACTED_SUFFIX = ".log.gz";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	// The length and the checksum of the payload
+	private static final int HEADER_LENGTH = 2 * Integer.BYTES;
+	private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+	static final class Record {
+		final byte type;
+		final Instant timestamp;
+		final String version;
+		final Collection<String> added;
+		final Collection<String> removed;
+
+		Record(byte type, Instant timestamp, String version, Collection<String> added, Collection<String> removed) {
+			this.type = type;
+			this.timestamp = timestamp;
+			this.version = version;
+			this.added = added;
+			this.removed = removed;
+		}
+	}
+
+	interface Visitor {
+		void visit(Path segment, int ordinal, Record record);
+	}
+
+	private final Path directory;
+	private Path activeSegment;
+	private int activeDeltas;
+	private long activeCheckpointBytes;
+	private long activeDeltaBytes;
+
+	CensusHistoryLog(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+
+	/**
+	 * Reads all records, oldest first. Also recovers from a crash: drops what is left of an
+	 * interrupted compaction, and any bad records at the end of the active segment.
+	 */
+	void scan(Visitor visitor) throws IOException {
+		recoverCompaction();
+		for (Path segment : segments()) {
+			boolean active = segment.getFileName().toString().endsWith(ACTIVE_SUFFIX);
+			long validLength = 0;
+			int ordinal = 0;
+			if (active) {
+				activeDeltas = 0;
+				activeCheckpointBytes = 0;
+				activeDeltaBytes = 0;
+			}
+			try (DataInputStream in = open(segment)) {
+				byte[] payload;
+				while ((payload = readPayload(in)) != null) {
+					Record record = decode(payload);
+					// Deltas only make sense on top of the checkpoint of their segment
+					if (record == null || (ordinal == 0 && record.type != CHECKPOINT)) {
+						break;
+					}
+					visitor.visit(segment, ordinal++, record);
+					validLength += HEADER_LENGTH + payload.length;
+					if (active) {
+						if (record.type == CHECKPOINT) {
+							activeCheckpointBytes = payload.length;
+						} else {
+							activeDeltas++;
+							activeDeltaBytes += payload.length;
+						}
+					}
+				}
+			}
+			if (active) {
+				if (ordinal == 0) {
+					// Nothing to append to, the next record starts a new segment
+					Files.delete(segment);
+					activeSegment = null;
+					continue;
+				}
+				activeSegment = segment;
+				try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+					if (channel.size() > validLength) {
+						channel.truncate(validLength);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * A compaction interrupted by a crash leaves a temporary file, or, if it crashed after the
+	 * compacted segment was moved in place, the active segment next to its complete compacted copy.
+	 */
+	private void recoverCompaction() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : files.collect(Collectors.toList())) {
+				String name = file.getFileName().toString();
+				if (!name.startsWith(PREFIX)) {
+					continue;
+				}
+				if (name.endsWith(COMPACTED_SUFFIX + TEMPORARY_SUFFIX)
+						|| (name.endsWith(ACTIVE_SUFFIX) && Files.exists(file.resolveSibling(name + ".gz")))) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the facts as of the record with the given ordinal in the segment.
+	 */
+	Set<String> read(Path segment, int ordinal) throws IOException {
+		Set<String> facts = new HashSet<>();
+		try (DataInputStream in = open(segment)) {
+			for (int i = 0; i <= ordinal; i++) {
+				byte[] payload = readPayload(in);
+				if (payload == null) {
+					throw new IOException("Record " + ordinal + " not found in " + segment);
+				}
+				Record record = decode(payload);
+				if (record == null) {
+					throw new IOException("Record " + i + " of " + segment + " could not be decoded");
+				}
+				if (record.type == CHECKPOINT) {
+					facts.clear();
+				}
+				facts.removeAll(record.removed);
+				facts.addAll(record.added);
+			}
+		}
+		return facts;
+	}
+
+	/**
+	 * Appends a delta to the active segment.
+	 *
+	 * @return the segment written to.
+	 * @throws IllegalStateException
+	 *             if there is no active segment, in which case a checkpoint must be written first.
+	 */
+	Path appendDelta(Record delta) throws IOException {
+		if (activeSegment == null) {
+			throw new IllegalStateException("No segment to append the delta to");
+		}
+		activeDeltaBytes += write(activeSegment, delta, StandardOpenOption.APPEND);
+		activeDeltas++;
+		return activeSegment;
+	}
+
+	/**
+	 * Compacts the active segment, if any, and starts a new one with the checkpoint.
+	 *
+	 * @return the new segment.
+	 */
+	Path startSegment(Record checkpoint) throws IOException {
+		if (activeSegment != null) {
+			compact(activeSegment);
+		}
+		Path segment = directory.resolve(String.format("%s%020d%s", PREFIX, checkpoint.timestamp.toEpochMilli(), ACTIVE_SUFFIX));
+		activeCheckpointBytes = write(segment, checkpoint, StandardOpenOption.CREATE_NEW);
+		activeSegment = segment;
+		activeDeltas = 0;
+		activeDeltaBytes = 0;
+		return segment;
+	}
+
+	boolean hasActiveSegment() {
+		return activeSegment != null;
+	}
+
+	int getActiveDeltas() {
+		return activeDeltas;
+	}
+
+	/**
+	 * @return true if the deltas in the active segment take more space than its checkpoint, in
+	 *         which case a new checkpoint is cheaper to replay.
+	 */
+	boolean isDeltaHeavy() {
+		return activeDeltaBytes > activeCheckpointBytes;
+	}
+
+	long getDiskUsage() throws IOException {
+		long total = 0;
+		for (Path segment : segments()) {
+			total += Files.size(segment);
+		}
+		return total;
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> {
+				String name = file.getFileName().toString();
+				return name.startsWith(PREFIX) && (name.endsWith(ACTIVE_SUFFIX) || name.endsWith(COMPACTED_SUFFIX));
+			}).sorted().collect(Collectors.toList());
+		}
+	}
+
+	private void compact(Path segment) throws IOException {
+		Path compacted = segment.resolveSibling(segment.getFileName() + ".gz");
+		Path temporary = segment.resolveSibling(compacted.getFileName() + TEMPORARY_SUFFIX);
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary))) {
+			Files.copy(segment, out);
+		}
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+		Files.move(temporary, compacted, StandardCopyOption.ATOMIC_MOVE);
+		Files.delete(segment);
+	}
+
+	private static DataInputStream open(Path segment) throws IOException {
+		if (!Files.exists(segment) && segment.getFileName().toString().endsWith(ACTIVE_SUFFIX)) {
+			// Compacted since it was indexed
+			segment = segment.resolveSibling(segment.getFileName() + ".gz");
+		}
+		InputStream in = Files.newInputStream(segment);
+		if (segment.getFileName().toString().endsWith(COMPACTED_SUFFIX)) {
+			in = new GZIPInputStream(in);
+		}
+		return new DataInputStream(new BufferedInputStream(in));
+	}
+
+	/**
+	 * @return the payload of the next record, or null at the end of the segment or at a torn or
+	 *         otherwise bad record.
+	 */
+	private static byte[] readPayload(DataInputStream in) throws IOException {
+		try {
+			int length = in.readInt();
+			if (length <= 0 || length > MAX_RECORD_LENGTH) {
+				return null;
+			}
+			int checksum = in.readInt();
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			return checksum(payload) == checksum ? payload : null;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Also covers the length, so that a run of zeroes is not a valid empty record.
+	 */
+	private static int checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(ByteBuffer.allocate(Integer.BYTES).putInt(0, payload.length));
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	private static long write(Path segment, Record record, StandardOpenOption mode) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(record.type);
+		out.writeLong(record.timestamp.toEpochMilli());
+		out.writeUTF(record.version);
+		writeFacts(out, record.added);
+		writeFacts(out, record.removed);
+		out.flush();
+		byte[] payload = bytes.toByteArray();
+		int payloadLength = payload.length;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payloadLength);
+		buffer.putInt(payloadLength).putInt(checksum(payload)).put(payload).flip();
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE, mode)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		return payloadLength;
+	}
+
+	private static void writeFacts(DataOutputStream out, Collection<String> facts) throws IOException {
+		out.writeInt(facts.size());
+		for (String fact : facts) {
+			out.writeUTF(fact);
+		}
+	}
+
+	/**
+	 * @return the record, or null if the payload is not one.
+	 */
+	private static Record decode(byte[] payload) {
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+			byte type = in.readByte();
+			Instant timestamp = Instant.ofEpochMilli(in.readLong());
+			String version = in.readUTF();
+			return new Record(type, timestamp, version, readFacts(in), readFacts(in));
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static List<String> readFacts(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<String> facts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			facts.add(in.readUTF());
+		}
+		return facts;
+	}
+}
@@ -0,0 +1,738 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * A query over a census snapshot, e.g. <code>people where project=jdk and role=Reviewer and
+ * name~"Hir"</code>.
+ * <p>
+ * The query names what to list (<code>people</code>, <code>projects</code> or
+ * <code>groups</code>), optionally followed by <code>where</code> and a filter. The filter
+ * combines terms with <code>and</code>, <code>or</code>, <code>not</code> and parentheses. A
+ * term compares a field with a value, which is quoted if it is not a plain word or number. The
+ * operators are <code>=</code> and <code>!=</code>, <code>~</code> (regular expression search),
+ * and <code>&lt; &lt;= &gt; &gt;=</code> for counts. Roles are compared case insensitively.
+ * <ul>
+ * <li>People: <code>userid</code>, <code>name</code>, <code>project</code>, <code>group</code>,
+ * <code>role</code> and <code>affiliations</code> (count).</li>
+ * <li>Projects and groups: <code>id</code>, <code>name</code>, <code>member</code>,
+ * <code>role</code> and <code>members</code> (count).</li>
+ * </ul>
+ * In a conjunction, <code>role</code> applies to the memberships named by the other terms: for
+ * people, the projects and groups; for projects and groups, the member.
+ * <p>
+ * The planner uses the snapshot indexes where a term allows it, and drives the evaluation from
+ * the most selective one, filtering its candidates with the rest of the query. Only when no term
+ * can use an index are all entities scanned.
+ */
+public final class CensusQuery {
+	public enum Target {
+		PEOPLE, PROJECTS, GROUPS
+	}
+
+	private final String text;
+	private final Target target;
+	private final Node filter;
+
+	private CensusQuery(String text, Target target, Node filter) {
+		this.text = text;
+		this.target = target;
+		this.filter = filter;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the query is not valid.
+	 */
+	public static CensusQuery parse(String text) {
+		return new Parser(text).parseQuery();
+	}
+
+	public Target getTarget() {
+		return target;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	/**
+	 * The matching entities, in id order, as {@link Person}s or {@link Affiliation}s depending on
+	 * the target, and a description of how they were found.
+	 */
+	public static final class Result {
+		private final List<Object> matches;
+		private final String plan;
+		private final boolean truncated;
+
+		private Result(List<Object> matches, String plan, boolean truncated) {
+			this.matches = matches;
+			this.plan = plan;
+			this.truncated = truncated;
+		}
+
+		public List<Object> getMatches() {
+			return matches;
+		}
+
+		public String getPlan() {
+			return plan;
+		}
+
+		/**
+		 * @return true if there were more matches than the limit.
+		 */
+		public boolean isTruncated() {
+			return truncated;
+		}
+	}
+
+	public Result execute(CensusView snapshot, int limit) {
+		Context context = new Context(snapshot, target);
+		Node planned = filter == null ? null : filter.plan(target);
+		Candidates driver = planned == null ? null : planned.candidates(context);
+		Collection<String> ids;
+		String plan;
+		if (driver == null) {
+			ids = new TreeSet<>(context.entities().keySet());
+			plan = "scan " + target.name().toLowerCase(Locale.ROOT) + " (" + ids.size() + ")";
+		} else {
+			ids = new TreeSet<>(driver.ids);
+			plan = "index " + driver.description + " (" + ids.size() + ")";
+		}
+		if (planned != null) {
+			plan += ", filter " + planned;
+		}
+
+		List<Object> matches = new ArrayList<>();
+		boolean truncated = false;
+		for (String id : ids) {
+			Object entity = context.entities().get(id);
+			if (entity != null && (planned == null || planned.test(context, entity))) {
+				if (matches.size() == limit) {
+					truncated = true;
+					break;
+				}
+				matches.add(entity);
+			}
+		}
+		return new Result(matches, plan, truncated);
+	}
+
+	private static final class Context {
+		private final CensusView snapshot;
+		private final Target target;
+
+		Context(CensusView snapshot, Target target) {
+			this.snapshot = snapshot;
+			this.target = target;
+		}
+
+		Map<String, ?> entities() {
+			switch (target) {
+			case PEOPLE:
+				return snapshot.getPeople();
+			case PROJECTS:
+				return snapshot.getProjects();
+			default:
+				return snapshot.getGroups();
+			}
+		}
+
+		Affiliation affiliation(Field kind, String id) {
+			return kind == Field.PROJECT ? snapshot.getProjects().get(id) : snapshot.getGroups().get(id);
+		}
+
+		boolean isTargetKind(Affiliation affiliation) {
+			return target == Target.PROJECTS ? affiliation instanceof Project : affiliation instanceof Group;
+		}
+	}
+
+	/**
+	 * Ids found through an index, with a description of the index lookup.
+	 */
+	private static final class Candidates {
+		private final Collection<String> ids;
+		private final String description;
+
+		Candidates(Collection<String> ids, String description) {
+			this.ids = ids;
+			this.description = description;
+		}
+	}
+
+	private enum Field {
+		USERID(Target.PEOPLE), NAME(Target.PEOPLE, Target.PROJECTS, Target.GROUPS), PROJECT(Target.PEOPLE), GROUP(Target.PEOPLE),
+		ROLE(Target.PEOPLE, Target.PROJECTS, Target.GROUPS), AFFILIATIONS(Target.PEOPLE), ID(Target.PROJECTS, Target.GROUPS),
+		MEMBER(Target.PROJECTS, Target.GROUPS), MEMBERS(Target.PROJECTS, Target.GROUPS);
+
+		private final Set<Target> targets;
+
+		Field(Target... targets) {
+			this.targets = EnumSet.copyOf(Arrays.asList(targets));
+		}
+
+		boolean isCount() {
+			return this == AFFILIATIONS || this == MEMBERS;
+		}
+	}
+
+	private enum Operator {
+		EQUALS("="), NOT_EQUALS("!="), MATCHES("~"), LESS("<"), LESS_OR_EQUAL("<="), GREATER(">"), GREATER_OR_EQUAL(">=");
+
+		private final String symbol;
+
+		Operator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		boolean compare(int left, int right) {
+			switch (this) {
+			case EQUALS:
+				return left == right;
+			case NOT_EQUALS:
+				return left != right;
+			case LESS:
+				return left < right;
+			case LESS_OR_EQUAL:
+				return left <= right;
+			case GREATER:
+				return left > right;
+			case GREATER_OR_EQUAL:
+				return left >= right;
+			default:
+				throw new IllegalStateException(symbol + " does not compare counts");
+			}
+		}
+	}
+
+	private abstract static class Node {
+		abstract boolean test(Context context, Object entity);
+
+		/**
+		 * @return the ids of the entities that may match, found through an index, or null if no
+		 *         index applies.
+		 */
+		abstract Candidates candidates(Context context);
+
+		/**
+		 * @return this node rewritten for evaluation, e.g. with correlated terms combined.
+		 */
+		Node plan(Target target) {
+			return this;
+		}
+	}
+
+	private static final class And extends Node {
+		private final List<Node> nodes;
+
+		And(List<Node> nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		boolean test(Context context, Object entity) {
+			for (Node node : nodes) {
+				if (!node.test(context, entity)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		Candidates candidates(Context context) {
+			// The most selective index drives the evaluation, the other terms filter
+			Candidates best = null;
+			for (Node node : nodes) {
+				Candidates candidates = node.candidates(context);
+				if (candidates != null && (best == null || candidates.ids.size() < best.ids.size())) {
+					best = candidates;
+				}
+			}
+			return best;
+		}
+
+		@Override
+		Node plan(Target target) {
+			List<Node> planned = nodes.stream().map(node -> node.plan(target)).collect(Collectors.toList());
+			List<Term> roles = new ArrayList<>();
+			List<Term> memberships = new ArrayList<>();
+			for (Node node : planned) {
+				if (node instanceof Term) {
+					Term term = (Term) node;
+					if (term.operator == Operator.EQUALS) {
+						if (term.field == Field.ROLE) {
+							roles.add(term);
+						} else if (term.field == Field.PROJECT || term.field == Field.GROUP || term.field == Field.MEMBER) {
+							memberships.add(term);
+						}
+					}
+				}
+			}
+			if (roles.isEmpty() || memberships.isEmpty()) {
+				return new And(planned);
+			}
+			planned.removeAll(roles);
+			planned.removeAll(memberships);
+			for (Term membership : memberships) {
+				for (Term role : roles) {
+					planned.add(new MembershipTerm(membership.field, membership.value, role.value));
+				}
+			}
+			return planned.size() == 1 ? planned.get(0) : new And(planned);
+		}
+
+		@Override
+		public String toString() {
+			return nodes.stream().map(Node::toString).collect(Collectors.joining(" and ", "(", ")"));
+		}
+	}
+
+	private static final class Or extends Node {
+		private final List<Node> nodes;
+
+		Or(List<Node> nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		boolean test(Context context, Object entity) {
+			for (Node node : nodes) {
+				if (node.test(context, entity)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		Candidates candidates(Context context) {
+			// Only usable if every alternative can use an index
+			Set<String> ids = new HashSet<>();
+			List<String> descriptions = new ArrayList<>();
+			for (Node node : nodes) {
+				Candidates candidates = node.candidates(context);
+				if (candidates == null) {
+					return null;
+				}
+				ids.addAll(candidates.ids);
+				descriptions.add(candidates.description);
+			}
+			return new Candidates(ids, String.join(" or ", descriptions));
+		}
+
+		@Override
+		Node plan(Target target) {
+			return new Or(nodes.stream().map(node -> node.plan(target)).collect(Collectors.toList()));
+		}
+
+		@Override
+		public String toString() {
+			return nodes.stream().map(Node::toString).collect(Collectors.joining(" or ", "(", ")"));
+		}
+	}
+
+	private static final class Not extends Node {
+		private final Node node;
+
+		Not(Node node) {
+			this.node = node;
+		}
+
+		@Override
+		boolean test(Context context, Object entity) {
+			return !node.test(context, entity);
+		}
+
+		@Override
+		Candidates candidates(Context context) {
+			return null;
+		}
+
+		@Override
+		Node plan(Target target) {
+			return new Not(node.plan(target));
+		}
+
+		@Override
+		public String toString() {
+			return "not " + node;
+		}
+	}
+
+	private static class Term extends Node {
+		final Field field;
+		final Operator operator;
+		final String value;
+		private final Pattern pattern;
+		private final int count;
+
+		Term(Field field, Operator operator, String value) {
+			this.field = field;
+			this.operator = operator;
+			this.value = value;
+			this.pattern = operator == Operator.MATCHES ? Pattern.compile(value) : null;
+			this.count = field.isCount() ? Integer.parseInt(value) : 0;
+		}
+
+		@Override
+		boolean test(Context context, Object entity) {
+			if (field.isCount()) {
+				int actual = entity instanceof Person ? context.snapshot.getRoleIndex().getRoles(((Person) entity).getUserid()).size()
+						: ((Affiliation) entity).getMembers().size();
+				return operator.compare(actual, count);
+			}
+			boolean any = values(context, entity).stream().anyMatch(this::matches);
+			return operator == Operator.NOT_EQUALS ? !any : any;
+		}
+
+		private boolean matches(String actual) {
+			if (actual == null) {
+				return false;
+			}
+			switch (operator) {
+			case MATCHES:
+				return pattern.matcher(actual).find();
+			case EQUALS:
+			case NOT_EQUALS:
+				return field == Field.ROLE ? actual.trim().equalsIgnoreCase(value) : actual.equals(value);
+			default:
+				return false;
+			}
+		}
+
+		/**
+		 * @return the values of the field for the entity; several for memberships and roles.
+		 */
+		private Collection<String> values(Context context, Object entity) {
+			RoleIndex roleIndex = context.snapshot.getRoleIndex();
+			if (entity instanceof Person) {
+				Person person = (Person) entity;
+				switch (field) {
+				case USERID:
+					return Collections.singletonList(person.getUserid());
+				case NAME:
+					return Collections.singletonList(person.getFullName());
+				case PROJECT:
+					return roleIndex.getRoles(person.getUserid()).keySet().stream().filter(a -> a instanceof Project).map(Affiliation::getId)
+							.collect(Collectors.toList());
+				case GROUP:
+					return roleIndex.getRoles(person.getUserid()).keySet().stream().filter(a -> a instanceof Group).map(Affiliation::getId)
+							.collect(Collectors.toList());
+				default:
+					return roleIndex.getRoles(person.getUserid()).values();
+				}
+			}
+			Affiliation affiliation = (Affiliation) entity;
+			switch (field) {
+			case ID:
+				return Collections.singletonList(affiliation.getId());
+			case NAME:
+				return Collections.singletonList(affiliation.getFullName());
+			case MEMBER:
+				return affiliation.getMembers().keySet();
+			default:
+				return affiliation.getMembers().values();
+			}
+		}
+
+		@Override
+		Candidates candidates(Context context) {
+			if (operator != Operator.EQUALS) {
+				return null;
+			}
+			RoleIndex roleIndex = context.snapshot.getRoleIndex();
+			switch (field) {
+			case USERID:
+			case ID:
+				return new Candidates(context.entities().containsKey(value) ? Set.of(value) : Set.of(), toString());
+			case PROJECT:
+			case GROUP: {
+				Affiliation affiliation = context.affiliation(field, value);
+				return new Candidates(affiliation == null ? Set.of() : affiliation.getMembers().keySet(), toString());
+			}
+			case ROLE:
+				if (context.target == Target.PEOPLE) {
+					return new Candidates(roleIndex.getAffiliations(value).keySet(), toString());
+				}
+				return new Candidates(roleIndex.getAffiliations(value).values().stream().flatMap(List::stream).filter(context::isTargetKind)
+						.map(Affiliation::getId).collect(Collectors.toSet()), toString());
+			case MEMBER:
+				return new Candidates(roleIndex.getRoles(value).keySet().stream().filter(context::isTargetKind).map(Affiliation::getId)
+						.collect(Collectors.toSet()), toString());
+			default:
+				return null;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return field.name().toLowerCase(Locale.ROOT) + operator.symbol + (value.matches("[\\w.-]+") ? value : quote(value));
+		}
+	}
+
+	/**
+	 * A membership with a given role, combined from a membership term and a role term.
+	 */
+	private static final class MembershipTerm extends Term {
+		private final String role;
+
+		MembershipTerm(Field field, String value, String role) {
+			super(field, Operator.EQUALS, value);
+			this.role = role;
+		}
+
+		@Override
+		boolean test(Context context, Object entity) {
+			String actual = null;
+			if (entity instanceof Person) {
+				Affiliation affiliation = context.affiliation(field, value);
+				actual = affiliation == null ? null : affiliation.getMembers().get(((Person) entity).getUserid());
+			} else {
+				actual = ((Affiliation) entity).getMembers().get(value);
+			}
+			return actual != null && actual.trim().equalsIgnoreCase(role);
+		}
+
+		@Override
+		Candidates candidates(Context context) {
+			RoleIndex roleIndex = context.snapshot.getRoleIndex();
+			if (field == Field.MEMBER) {
+				return new Candidates(roleIndex.getAffiliations(role, value).stream().filter(context::isTargetKind).map(Affiliation::getId)
+						.collect(Collectors.toSet()), toString());
+			}
+			Affiliation affiliation = context.affiliation(field, value);
+			return new Candidates(affiliation == null ? Set.of() : roleIndex.getMembers(affiliation, role).keySet(), toString());
+		}
+
+		@Override
+		public String toString() {
+			return super.toString() + " as " + (role.matches("[\\w.-]+") ? role : quote(role));
+		}
+	}
+
+	private static String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	/**
+	 * A recursive descent parser. <code>or</code> binds weaker than <code>and</code>, which binds
+	 * weaker than <code>not</code>.
+	 */
+	private static final class Parser {
+		private final String text;
+		private int position;
+		private Target target;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		CensusQuery parseQuery() {
+			String word = word();
+			try {
+				target = Target.valueOf(word.toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				throw error("Expected people, projects or groups, but found " + describe(word));
+			}
+			Node filter = null;
+			if (!atEnd()) {
+				expectKeyword("where");
+				filter = parseOr();
+			}
+			if (!atEnd()) {
+				throw error("Unexpected " + describe(text.substring(position).trim()));
+			}
+			return new CensusQuery(text, target, filter);
+		}
+
+		private Node parseOr() {
+			List<Node> nodes = new ArrayList<>();
+			nodes.add(parseAnd());
+			while (acceptKeyword("or")) {
+				nodes.add(parseAnd());
+			}
+			return nodes.size() == 1 ? nodes.get(0) : new Or(nodes);
+		}
+
+		private Node parseAnd() {
+			List<Node> nodes = new ArrayList<>();
+			nodes.add(parseNot());
+			while (acceptKeyword("and")) {
+				nodes.add(parseNot());
+			}
+			return nodes.size() == 1 ? nodes.get(0) : new And(nodes);
+		}
+
+		private Node parseNot() {
+			if (acceptKeyword("not")) {
+				return new Not(parseNot());
+			}
+			skipWhitespace();
+			if (accept("(")) {
+				Node node = parseOr();
+				if (!accept(")")) {
+					throw error("Expected )");
+				}
+				return node;
+			}
+			return parseTerm();
+		}
+
+		private Node parseTerm() {
+			int start = position;
+			String name = word();
+			Field field;
+			try {
+				field = Field.valueOf(name.toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				field = null;
+			}
+			if (field == null || !field.targets.contains(target)) {
+				position = start;
+				throw error("Unknown field " + describe(name) + " for " + target.name().toLowerCase(Locale.ROOT));
+			}
+			Operator operator = operator();
+			String value = value();
+			if (field.isCount()) {
+				if (operator == Operator.MATCHES || !value.matches("\\d+")) {
+					throw error(name + " must be compared with a number");
+				}
+			} else if (operator != Operator.EQUALS && operator != Operator.NOT_EQUALS && operator != Operator.MATCHES) {
+				throw error(name + " can only be compared with =, != or ~");
+			}
+			try {
+				return new Term(field, operator, value);
+			} catch (PatternSyntaxException e) {
+				throw error("Invalid regular expression " + quote(value));
+			}
+		}
+
+		private Operator operator() {
+			skipWhitespace();
+			for (String symbol : new String[] {"!=", "<=", ">=", "=", "~", "<", ">"}) {
+				if (accept(symbol)) {
+					for (Operator operator : Operator.values()) {
+						if (operator.symbol.equals(symbol)) {
+							return operator;
+						}
+					}
+				}
+			}
+			throw error("Expected an operator");
+		}
+
+		private String value() {
+			skipWhitespace();
+			if (accept("\"")) {
+				StringBuilder builder = new StringBuilder();
+				while (position < text.length()) {
+					char c = text.charAt(position++);
+					if (c == '"') {
+						return builder.toString();
+					}
+					if (c == '\\' && position < text.length()) {
+						c = text.charAt(position++);
+					}
+					builder.append(c);
+				}
+				throw error("Unterminated string");
+			}
+			String word = word();
+			if (word.isEmpty()) {
+				throw error("Expected a value");
+			}
+			return word;
+		}
+
+		private String word() {
+			skipWhitespace();
+			int start = position;
+			while (position < text.length() && (Character.isLetterOrDigit(text.charAt(position)) || "_.-".indexOf(text.charAt(position)) >= 0)) {
+				position++;
+			}
+			return text.substring(start, position);
+		}
+
+		private boolean acceptKeyword(String keyword) {
+			int start = position;
+			if (word().equalsIgnoreCase(keyword)) {
+				return true;
+			}
+			position = start;
+			return false;
+		}
+
+		private void expectKeyword(String keyword) {
+			int start = position;
+			String word = word();
+			if (!word.equalsIgnoreCase(keyword)) {
+				position = start;
+				throw error("Expected " + keyword + ", but found " + describe(word));
+			}
+		}
+
+		private boolean accept(String symbol) {
+			if (text.startsWith(symbol, position)) {
+				position += symbol.length();
+				return true;
+			}
+			return false;
+		}
+
+		private boolean atEnd() {
+			skipWhitespace();
+			return position >= text.length();
+		}
+
+		private void skipWhitespace() {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+		}
+
+		private String describe(String found) {
+			return found.isEmpty() ? (position >= text.length() ? "the end of the query" : quote(text.substring(position, position + 1)))
+					: quote(found);
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at position " + position);
+		}
+	}
+}
@@ -31,47 +31,98 @@
  */
 package se.hirt.openjdk.helper.census;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.*;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 @Path("/census")
 public class CensusResource {
+	private static final String GZIP = "gzip";
+
 	@Inject
 	OpenjdkCensusScraper census;
 
+	@Inject
+	CensusResponseCache responseCache;
+
+	@Inject
+	CensusHistory history;
+
+	@Inject
+	CensusChangeBroadcaster changeBroadcaster;
+
 	@GET
 	@Path("/people")
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, CensusFormat.CBOR_TYPE, CensusFormat.SMILE_TYPE})
 	public Response getPeople(
 			@QueryParam("userid")
 			@Parameter(description = "Lists the person with the userid, or all people in OpenJDK if userid isn't provided.", example = "hirt")
-			String userId) {
-		Map<String, Person> allPeople = census.getPeople();
-		Collection<Person> people = null;
+			String userId,
+			@QueryParam("role")
+			@Parameter(description = "Only lists people having this role (Lead, Reviewer, Committer, Author or Member), and only the affiliations in which they have it.", example = "Lead")
+			String role,
+			@QueryParam("asOf")
+			@Parameter(description = "Answers from the census as it was at this time, if census history is enabled. Either an ISO date (meaning the end of that day, UTC) or an ISO instant.", example = "2024-03-31")
+			String asOf,
+			@Context HttpHeaders headers) {
+		CensusView snapshot = resolveCensus(asOf);
+		RoleIndex roleIndex = snapshot.getRoleIndex();
+		boolean hasRole = role != null && !role.trim().isEmpty();
 		if (userId == null || userId.trim().isEmpty()) {
-			people = allPeople.values();
-		} else {
-			people = new HashSet<>();
-			Person person = allPeople.get(userId.trim());
-			if (person == null) {
-				return Response.status(Response.Status.NOT_FOUND).entity("{\"error\": \"Could not find person with userid " + userId + "\"}").build();
+			if (hasRole) {
+				Map<String, Object> result = new HashMap<>();
+				result.put("userid", null);
+				result.put("role", role);
+				result.put("results", roleIndex.getAffiliations(role).entrySet().stream()
+						.map(entry -> personToMap(snapshot.getPeople().get(entry.getKey()), entry.getValue())).collect(Collectors.toList()));
+				return documentResponse(snapshot.getVersion(), headers, result);
 			}
-			people.add(person);
+			return encodedResponse(snapshot, "people", headers, () -> {
+				Map<String, Object> result = new HashMap<>();
+				result.put("userid", null);
+				result.put("results", snapshot.getPeople().values().stream().map(CensusResource::personToMap).collect(Collectors.toList()));
+				return result;
+			});
+		}
+
+		Person person = snapshot.getPeople().get(userId.trim());
+		if (person == null) {
+			return Response.status(Response.Status.NOT_FOUND).entity("{\"error\": \"Could not find person with userid " + userId + "\"}").type(MediaType.APPLICATION_JSON)
+					.header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
 		}
 
 		Map<String, Object> result = new HashMap<>();
 		result.put("userid", userId);
-		result.put("results", people.stream().map(CensusResource::personToMap).collect(Collectors.toList()));
-		return Response.ok(result).build();
+		if (hasRole) {
+			result.put("role", role);
+			result.put("results", List.of(personToMap(person, roleIndex.getAffiliations(role, person.getUserid()))));
+		} else {
+			result.put("results", List.of(personToMap(person)));
+		}
+		return documentResponse(snapshot.getVersion(), headers, result);
 	}
 
 	@GET
@@ -80,41 +131,70 @@ public class CensusResource {
 	public Response searchPeople(
 			@QueryParam("query")
 			@Parameter(description = "Search query for people using a regular expression. Searches through both userid and full names.", example = ".*Hirt")
-			String query) {
+			String query,
+			@Context HttpHeaders headers) {
 		if (query == null || query.trim().isEmpty()) {
 			return Response.status(Response.Status.BAD_REQUEST).entity("{\"error\": \"Query parameter is required\"}").build();
 		}
 
-		Set<Person> people = census.findPeople(query);
+		CensusView snapshot = resolveCensus(null);
+		if (isNotModified(snapshot.getVersion(), headers)) {
+			return notModifiedResponse(snapshot.getVersion(), "");
+		}
+		Set<Person> people = snapshot.findPeople(query);
 		Map<String, Object> result = new HashMap<>();
 		result.put("query", query);
 		result.put("results", people.stream().map(CensusResource::personToMap).collect(Collectors.toList()));
 
-		return Response.ok(result).build();
+		return taggedResponse(snapshot.getVersion(), headers, result);
 	}
 
 	@GET
 	@Path("/projects")
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, CensusFormat.CBOR_TYPE, CensusFormat.SMILE_TYPE})
 	public Response getProjects(
-			@QueryParam("projectid") @Parameter(description = "Lists the project for the projectid, or all projects if not provided.", example = "jmc") String projectId) {
-		Map<String, Project> allProjects = census.getProjects();
-		Collection<Project> projects = null;
+			@QueryParam("projectid") @Parameter(description = "Lists the project for the projectid, or all projects if not provided.", example = "jmc") String projectId,
+			@QueryParam("role")
+			@Parameter(description = "Only lists the members having this role (Lead, Reviewer, Committer or Author). Without a projectid, only projects having such members are listed.", example = "Reviewer")
+			String role,
+			@QueryParam("asOf")
+			@Parameter(description = "Answers from the census as it was at this time, if census history is enabled. Either an ISO date (meaning the end of that day, UTC) or an ISO instant.", example = "2024-03-31")
+			String asOf,
+			@Context HttpHeaders headers) {
+		CensusView snapshot = resolveCensus(asOf);
+		RoleIndex roleIndex = snapshot.getRoleIndex();
+		boolean hasRole = role != null && !role.trim().isEmpty();
 		if (projectId == null || projectId.trim().isEmpty()) {
-			projects = allProjects.values();
-		} else {
-			projects = new HashSet<>();
-			Project project = allProjects.get(projectId.trim());
-			if (project == null) {
-				return Response.status(Response.Status.NOT_FOUND).entity("{\"error\": \"Could not find project with projectid " + projectId + "\"}").build();
+			if (hasRole) {
+				Map<String, Object> result = new HashMap<>();
+				result.put("projectid", null);
+				result.put("role", role);
+				result.put("results", withRole(snapshot.getProjects().values(), roleIndex, role));
+				return documentResponse(snapshot.getVersion(), headers, result);
 			}
-			projects.add(project);
+			return encodedResponse(snapshot, "projects", headers, () -> {
+				Map<String, Object> result = new HashMap<>();
+				result.put("projectid", null);
+				result.put("results", snapshot.getProjects().values().stream().map(CensusResource::projectToMap).collect(Collectors.toList()));
+				return result;
+			});
+		}
+
+		Project project = snapshot.getProjects().get(projectId.trim());
+		if (project == null) {
+			return Response.status(Response.Status.NOT_FOUND).entity("{\"error\": \"Could not find project with projectid " + projectId + "\"}").type(MediaType.APPLICATION_JSON)
+					.header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
 		}
 
 		Map<String, Object> result = new HashMap<>();
 		result.put("projectid", projectId);
-		result.put("results", projects.stream().map(CensusResource::projectToMap).collect(Collectors.toList()));
-		return Response.ok(result).build();
+		if (hasRole) {
+			result.put("role", role);
+			result.put("results", List.of(affiliationToMap(project, roleIndex.getMembers(project, role))));
+		} else {
+			result.put("results", List.of(projectToMap(project)));
+		}
+		return documentResponse(snapshot.getVersion(), headers, result);
 	}
 
 	@GET
@@ -123,41 +203,70 @@ public class CensusResource {
 	public Response searchProjects(
 			@QueryParam("query")
 			@Parameter(description = "Search query for projects using a regular expression. Searches both projectid and project names.", example = ".*Mission.*")
-			String query) {
+			String query,
+			@Context HttpHeaders headers) {
 		if (query == null || query.trim().isEmpty()) {
 			return Response.status(Response.Status.BAD_REQUEST).entity("{\"error\": \"Query parameter is required\"}").build();
 		}
 
-		Set<Project> projects = census.findProjects(query);
+		CensusView snapshot = resolveCensus(null);
+		if (isNotModified(snapshot.getVersion(), headers)) {
+			return notModifiedResponse(snapshot.getVersion(), "");
+		}
+		Set<Project> projects = snapshot.findProjects(query);
 		Map<String, Object> result = new HashMap<>();
 		result.put("query", query);
 		result.put("results", projects.stream().map(CensusResource::projectToMap).collect(Collectors.toList()));
-		return Response.ok(result).build();
+		return taggedResponse(snapshot.getVersion(), headers, result);
 	}
 
 	@GET
 	@Path("/groups")
-	@Produces(MediaType.APPLICATION_JSON)
+	@Produces({MediaType.APPLICATION_JSON, CensusFormat.CBOR_TYPE, CensusFormat.SMILE_TYPE})
 	public Response getGroups(
-			@QueryParam("groupid") @Parameter(description = "Lists the group for the groupid, or all if not provided.", example = "vulnerability") String groupId) {
-		Map<String, Group> allGroups = census.getGroups();
-		Collection<Group> groups = null;
+			@QueryParam("groupid") @Parameter(description = "Lists the group for the groupid, or all if not provided.", example = "vulnerability") String groupId,
+			@QueryParam("role")
+			@Parameter(description = "Only lists the members having this role (Lead or Member). Without a groupid, only groups having such members are listed.", example = "Lead")
+			String role,
+			@QueryParam("asOf")
+			@Parameter(description = "Answers from the census as it was at this time, if census history is enabled. Either an ISO date (meaning the end of that day, UTC) or an ISO instant.", example = "2024-03-31")
+			String asOf,
+			@Context HttpHeaders headers) {
+		CensusView snapshot = resolveCensus(asOf);
+		RoleIndex roleIndex = snapshot.getRoleIndex();
+		boolean hasRole = role != null && !role.trim().isEmpty();
 		if (groupId == null || groupId.trim().isEmpty()) {
-			groups = allGroups.values();
-		} else {
-			groups = new HashSet<>();
-			Group group = allGroups.get(groupId.trim());
-			if (group == null) {
-				return Response.status(Response.Status.NOT_FOUND).entity("{\"error\": \"Could not find group with groupid " + groupId + "\"}").build();
+			if (hasRole) {
+				Map<String, Object> result = new HashMap<>();
+				result.put("groupid", null);
+				result.put("role", role);
+				result.put("results", withRole(snapshot.getGroups().values(), roleIndex, role));
+				return documentResponse(snapshot.getVersion(), headers, result);
 			}
-			groups.add(group);
+			return encodedResponse(snapshot, "groups", headers, () -> {
+				Map<String, Object> result = new HashMap<>();
+				result.put("groupid", null);
+				result.put("results", snapshot.getGroups().values().stream().map(CensusResource::groupToMap).collect(Collectors.toList()));
+				return result;
+			});
+		}
+
+		Group group = snapshot.getGroups().get(groupId.trim());
+		if (group == null) {
+			return Response.status(Response.Status.NOT_FOUND).entity("{\"error\": \"Could not find group with groupid " + groupId + "\"}").type(MediaType.APPLICATION_JSON)
+					.header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
 		}
 
 		Map<String, Object> result = new HashMap<>();
 		result.put("groupid", groupId);
-		result.put("results", groups.stream().map(CensusResource::groupToMap).collect(Collectors.toList()));
+		if (hasRole) {
+			result.put("role", role);
+			result.put("results", List.of(affiliationToMap(group, roleIndex.getMembers(group, role))));
+		} else {
+			result.put("results", List.of(groupToMap(group)));
+		}
 
-		return Response.ok(result).build();
+		return documentResponse(snapshot.getVersion(), headers, result);
 	}
 
 	@GET
@@ -166,20 +275,384 @@ public class CensusResource {
 	public Response searchGroups(
 			@QueryParam("query")
 			@Parameter(description = "Search query for groups using a regular expression. Searches both groupid and group names.", example = ".*uln.*")
-			String query) {
+			String query,
+			@Context HttpHeaders headers) {
 		if (query == null || query.trim().isEmpty()) {
 			return Response.status(Response.Status.BAD_REQUEST).entity("{\"error\": \"Query parameter is required\"}").build();
 		}
 
-		Set<Group> groups = census.findGroups(query);
+		CensusView snapshot = resolveCensus(null);
+		if (isNotModified(snapshot.getVersion(), headers)) {
+			return notModifiedResponse(snapshot.getVersion(), "");
+		}
+		Set<Group> groups = snapshot.findGroups(query);
 		Map<String, Object> result = new HashMap<>();
 		result.put("query", query);
 		result.put("results", groups.stream().map(CensusResource::groupToMap).collect(Collectors.toList()));
 
-		return Response.ok(result).build();
+		return taggedResponse(snapshot.getVersion(), headers, result);
+	}
+
+	@GET
+	@Path("/stats")
+	@Produces({MediaType.APPLICATION_JSON, CensusFormat.CBOR_TYPE, CensusFormat.SMILE_TYPE})
+	public Response getStats(
+			@QueryParam("top") @Parameter(description = "The length of the rankings of the largest projects and groups, and of the people with the most affiliations.", example = "10")
+			@DefaultValue("10") int top,
+			@QueryParam("role")
+			@Parameter(description = "Ranks the projects and groups by the number of members having this role, rather than by all members.", example = "Committer")
+			String role,
+			@Context HttpHeaders headers) {
+		if (top < 0) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("{\"error\": \"Invalid top: " + top + "\"}").build();
+		}
+		CensusView snapshot = resolveCensus(null);
+		CensusStats stats = snapshot.getStats();
+		String rankingRole = role == null || role.trim().isEmpty() ? null : role.trim();
+		// Only depends on the snapshot, top and role, so it is encoded once for each
+		return encodedResponse(snapshot, "stats?top=" + top + "&role=" + (rankingRole == null ? "" : rankingRole), headers, () -> {
+			Map<String, Object> result = new HashMap<>();
+			result.put("people", stats.getPeople());
+			result.put("groups", stats.getGroups().size());
+			result.put("projects", stats.getProjects().size());
+			result.put("memberships", stats.getMemberships());
+			result.put("roles", Map.of("groups", stats.getGroupRoles(), "projects", stats.getProjectRoles()));
+			result.put("affiliationsPerPerson", stats.getAffiliationsPerPerson());
+			result.put("groupStats", stats.getGroups().values().stream().map(CensusResource::affiliationStatsToMap).collect(Collectors.toList()));
+			result.put("projectStats", stats.getProjects().values().stream().map(CensusResource::affiliationStatsToMap).collect(Collectors.toList()));
+
+			Map<String, Object> rankings = new HashMap<>();
+			if (rankingRole != null) {
+				rankings.put("role", rankingRole);
+			}
+			rankings.put("groups", stats.getLargestGroups(rankingRole, top).stream().map(CensusResource::affiliationStatsToMap).collect(Collectors.toList()));
+			rankings.put("projects", stats.getLargestProjects(rankingRole, top).stream().map(CensusResource::affiliationStatsToMap).collect(Collectors.toList()));
+			rankings.put("people", stats.getMostAffiliatedPeople(top).stream().map(person -> {
+				Map<String, Object> personMap = new HashMap<>();
+				personMap.put("userId", person.getUserId());
+				personMap.put("fullName", person.getFullName());
+				personMap.put("affiliations", person.getAffiliations());
+				return personMap;
+			}).collect(Collectors.toList()));
+			result.put("top", rankings);
+			return result;
+		});
+	}
+
+	@GET
+	@Path("/query")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response query(
+			@QueryParam("q") @Parameter(description = "The query, listing people, projects or groups with an optional filter.", example = "people where project=jmc and role=Reviewer")
+			String query,
+			@QueryParam("limit") @Parameter(description = "The maximum number of results to return.", example = "100")
+			@DefaultValue("100") int limit,
+			@QueryParam("asOf")
+			@Parameter(description = "Answers from the census as it was at this time, if census history is enabled. Either an ISO date (meaning the end of that day, UTC) or an ISO instant.", example = "2024-03-31")
+			String asOf,
+			@Context HttpHeaders headers) {
+		if (query == null || query.trim().isEmpty()) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("{\"error\": \"Query parameter is required\"}").build();
+		}
+		if (limit < 0) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("{\"error\": \"Invalid limit: " + limit + "\"}").build();
+		}
+		CensusQuery censusQuery;
+		try {
+			censusQuery = CensusQuery.parse(query.trim());
+		} catch (IllegalArgumentException e) {
+			return Response.status(Response.Status.BAD_REQUEST).entity(Map.of("error", e.getMessage())).build();
+		}
+		CensusView snapshot = resolveCensus(asOf);
+		if (isNotModified(snapshot.getVersion(), headers)) {
+			return notModifiedResponse(snapshot.getVersion(), "");
+		}
+
+		CensusQuery.Result queryResult = censusQuery.execute(snapshot, limit);
+		Map<String, Object> result = new HashMap<>();
+		result.put("query", censusQuery.toString());
+		result.put("plan", queryResult.getPlan());
+		result.put("truncated", queryResult.isTruncated());
+		result.put("results", queryResult.getMatches().stream().map(match -> {
+			if (match instanceof Person) {
+				return personToMap((Person) match);
+			}
+			return match instanceof Project ? projectToMap((Project) match) : groupToMap((Group) match);
+		}).collect(Collectors.toList()));
+		return taggedResponse(snapshot.getVersion(), headers, result);
+	}
+
+	@GET
+	@Path("/export")
+	@Produces({MediaType.APPLICATION_JSON, CensusFormat.CBOR_TYPE, CensusFormat.SMILE_TYPE, CensusFormat.NDJSON_TYPE})
+	public Response exportCensus(
+			@QueryParam("format")
+			@Parameter(description = "The format to export in (json, cbor, smile or ndjson), instead of the one negotiated from the Accept header.", example = "ndjson")
+			String formatName,
+			@QueryParam("asOf")
+			@Parameter(description = "Exports the census as it was at this time, if census history is enabled. Either an ISO date (meaning the end of that day, UTC) or an ISO instant.", example = "2024-03-31")
+			String asOf,
+			@Context HttpHeaders headers) {
+		CensusFormat format;
+		if (formatName == null || formatName.trim().isEmpty()) {
+			format = CensusFormat.negotiate(headers.getAcceptableMediaTypes(), EnumSet.allOf(CensusFormat.class));
+		} else {
+			format = CensusFormat.forName(formatName.trim());
+			if (format == null) {
+				return Response.status(Response.Status.BAD_REQUEST).entity("{\"error\": \"Unknown format " + formatName + "\"}")
+						.type(MediaType.APPLICATION_JSON).build();
+			}
+		}
+		CensusView snapshot = resolveCensus(asOf);
+		boolean gzip = acceptsGzip(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+		String suffix = format.getSuffix() + (gzip ? "-" + GZIP : "");
+		String vary = HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING;
+		if (isNotModified(snapshot.getVersion(), format, headers)) {
+			return notModifiedResponse(snapshot.getVersion(), suffix, vary);
+		}
+		StreamingOutput output = out -> {
+			if (gzip) {
+				try (GZIPOutputStream gzipOut = new GZIPOutputStream(out, 8192)) {
+					CensusExporter.export(snapshot, format, gzipOut);
+				}
+			} else {
+				CensusExporter.export(snapshot, format, out);
+			}
+		};
+		Response.ResponseBuilder builder = Response.ok(output, format.getMediaType())
+				.header(HttpHeaders.ETAG, etag(snapshot.getVersion(), suffix))
+				.header(HttpHeaders.VARY, vary);
+		if (gzip) {
+			builder.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+		}
+		return builder.build();
+	}
+
+	@GET
+	@Path("/changes")
+	@Produces(MediaType.SERVER_SENT_EVENTS)
+	public void streamChanges(@Context SseEventSink sink, @Context Sse sse) {
+		changeBroadcaster.subscribe(sink, sse, () -> resolveCensus(null));
+	}
+
+	@GET
+	@Path("/people/{userid}/history")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getPersonHistory(
+			@PathParam("userid") @Parameter(description = "The userid of the person to list the recorded census changes for.", example = "hirt") String userId,
+			@Context HttpHeaders headers) {
+		if (!history.isEnabled()) {
+			return Response.status(Response.Status.NOT_FOUND).entity("{\"error\": \"Census history is not enabled\"}").build();
+		}
+		List<CensusHistory.Change> changes = history.getChanges(userId.trim());
+		if (changes.isEmpty()) {
+			return Response.status(Response.Status.NOT_FOUND).entity("{\"error\": \"No census history for userid " + userId + "\"}").build();
+		}
+
+		Map<String, Object> result = new HashMap<>();
+		result.put("userid", userId);
+		result.put("since", history.getStart().toString());
+		result.put("history", changes.stream().map(CensusResource::changeToMap).collect(Collectors.toList()));
+		return taggedResponse(resolveCensus(null).getVersion(), headers, result);
+	}
+
+	/**
+	 * @return the current census, mapped or scraped, or the snapshot at the time given by asOf.
+	 */
+	private CensusView resolveCensus(String asOf) {
+		if (asOf == null || asOf.trim().isEmpty()) {
+			CensusView current = census.getCensus();
+			if (current == null) {
+				throw new WebApplicationException(
+						Response.status(Response.Status.SERVICE_UNAVAILABLE).entity("{\"error\": \"The census has not been written yet\"}").build());
+			}
+			return current;
+		}
+		if (!history.isEnabled()) {
+			throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND).entity("{\"error\": \"Census history is not enabled\"}").build());
+		}
+		Instant time;
+		try {
+			time = parseTime(asOf.trim());
+		} catch (DateTimeParseException e) {
+			throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity("{\"error\": \"Invalid asOf: " + asOf + "\"}").build());
+		}
+		try {
+			CensusSnapshot snapshot = history.getSnapshot(time);
+			if (snapshot == null) {
+				throw new WebApplicationException(Response.status(Response.Status.NOT_FOUND)
+						.entity("{\"error\": \"The census history starts at " + history.getStart() + "\"}").build());
+			}
+			return snapshot;
+		} catch (IOException e) {
+			throw new WebApplicationException(
+					Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("{\"error\": \"Could not read the census history\"}").build());
+		}
+	}
+
+	private static Instant parseTime(String time) {
+		try {
+			return LocalDate.parse(time).atTime(LocalTime.MAX).toInstant(ZoneOffset.UTC);
+		} catch (DateTimeParseException e) {
+			return OffsetDateTime.parse(time).toInstant();
+		}
+	}
+
+	/**
+	 * Responds with the pre-serialized body for the full listing, in the negotiated format, and in
+	 * gzip form if the client accepts it. The ETag differs between the representations.
+	 */
+	private Response encodedResponse(CensusView snapshot, String key, HttpHeaders headers, Supplier<Object> entity) {
+		if (snapshot != census.getCensus()) {
+			// Historical snapshots are not kept encoded
+			return documentResponse(snapshot.getVersion(), headers, entity.get());
+		}
+		return encodedResponse(snapshot.getVersion(), key, headers, entity);
+	}
+
+	private Response encodedResponse(String version, String key, HttpHeaders headers, Supplier<Object> entity) {
+		CensusFormat format = documentFormat(headers);
+		boolean gzip = acceptsGzip(headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+		String suffix = format.getSuffix() + (gzip ? "-" + GZIP : "");
+		String vary = HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING;
+		if (isNotModified(version, format, headers)) {
+			return notModifiedResponse(version, suffix, vary);
+		}
+		EncodedBody body = responseCache.get(version, key, format, entity);
+		Response.ResponseBuilder builder = Response.ok(gzip ? body.getGzip() : body.getIdentity(), format.getMediaType())
+				.header(HttpHeaders.ETAG, etag(version, suffix))
+				.header(HttpHeaders.VARY, vary);
+		if (gzip) {
+			builder.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Same as {@link #taggedResponse(String, HttpHeaders, Object)}, but in the format negotiated
+	 * for the census documents. Since the format depends on the Accept header, so does every
+	 * response, JSON included.
+	 */
+	private static Response documentResponse(String version, HttpHeaders headers, Object entity) {
+		CensusFormat format = documentFormat(headers);
+		if (isNotModified(version, format, headers)) {
+			return notModifiedResponse(version, format.getSuffix(), HttpHeaders.ACCEPT);
+		}
+		try {
+			return Response.ok(format == CensusFormat.JSON ? entity : format.write(entity), format.getMediaType())
+					.header(HttpHeaders.ETAG, etag(version, format.getSuffix())).header(HttpHeaders.VARY, HttpHeaders.ACCEPT).build();
+		} catch (JsonProcessingException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static CensusFormat documentFormat(HttpHeaders headers) {
+		return CensusFormat.negotiate(headers.getAcceptableMediaTypes(), CensusFormat.DOCUMENT_FORMATS);
+	}
+
+	private static Response taggedResponse(String version, HttpHeaders headers, Object entity) {
+		if (isNotModified(version, headers)) {
+			return notModifiedResponse(version, "");
+		}
+		return Response.ok(entity, MediaType.APPLICATION_JSON).header(HttpHeaders.ETAG, etag(version, "")).build();
+	}
+
+	private static Response notModifiedResponse(String version, String suffix) {
+		return Response.notModified().header(HttpHeaders.ETAG, etag(version, suffix)).build();
+	}
+
+	/**
+	 * @param vary
+	 *            the Vary header of the 200 response, which a 304 has to repeat.
+	 */
+	private static Response notModifiedResponse(String version, String suffix, String vary) {
+		return Response.notModified().header(HttpHeaders.ETAG, etag(version, suffix)).header(HttpHeaders.VARY, vary).build();
+	}
+
+	private static String etag(String version, String suffix) {
+		return "\"" + version + suffix + "\"";
+	}
+
+	/**
+	 * Same as {@link #isNotModified(String, CensusFormat, HttpHeaders)} for JSON.
+	 */
+	static boolean isNotModified(String version, HttpHeaders headers) {
+		return isNotModified(version, CensusFormat.JSON, headers);
+	}
+
+	/**
+	 * Since the ETag is derived from the snapshot version and the format, a tag matches if it is
+	 * for the current version in the format about to be sent. The encoding does not matter, as
+	 * the gzip and identity forms decode to the same bytes, and neither does weakness.
+	 */
+	static boolean isNotModified(String version, CensusFormat format, HttpHeaders headers) {
+		String ifNoneMatch = headers.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*")) {
+				return true;
+			}
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			tag = tag.replace("\"", "");
+			if (tag.endsWith("-" + GZIP)) {
+				tag = tag.substring(0, tag.length() - GZIP.length() - 1);
+			}
+			if (tag.equals(version + format.getSuffix())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.trim().split(";");
+			String name = parts[0].trim();
+			if (name.equalsIgnoreCase(GZIP) || name.equals("*")) {
+				return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
+	}
+
+	private static Map<String, Object> changeToMap(CensusHistory.Change change) {
+		Map<String, Object> changeMap = new HashMap<>();
+		changeMap.put("timestamp", change.getTimestamp().toString());
+		changeMap.put("change", change.getType());
+		changeMap.put("kind", change.getKind());
+		changeMap.put("id", change.getId());
+		String valueName = change.getKind().equals("person") ? "name" : "role";
+		changeMap.put(valueName, change.getValue());
+		if (change.getPreviousValue() != null) {
+			changeMap.put("previous" + Character.toUpperCase(valueName.charAt(0)) + valueName.substring(1), change.getPreviousValue());
+		}
+		return changeMap;
+	}
+
+	private static List<Map<String, Object>> withRole(Collection<? extends Affiliation> affiliations, RoleIndex roleIndex, String role) {
+		List<Map<String, Object>> results = new ArrayList<>();
+		for (Affiliation affiliation : affiliations) {
+			Map<String, String> members = roleIndex.getMembers(affiliation, role);
+			if (!members.isEmpty()) {
+				results.add(affiliationToMap(affiliation, members));
+			}
+		}
+		return results;
 	}
 
 	private static Map<String, Object> personToMap(Person person) {
+		return personToMap(person, person.getAffiliations().values());
+	}
+
+	private static Map<String, Object> personToMap(Person person, Collection<Affiliation> personAffiliations) {
 		Map<String, Object> personMap = new HashMap<>();
 		personMap.put("userId", person.getUserid());
 		personMap.put("fullName", person.getFullName());
@@ -188,8 +661,7 @@ public class CensusResource {
 		affiliations.put("groups", new ArrayList<>());
 		affiliations.put("projects", new ArrayList<>());
 
-		for (Map.Entry<String, Affiliation> entry : person.getAffiliations().entrySet()) {
-			Affiliation affiliation = entry.getValue();
+		for (Affiliation affiliation : personAffiliations) {
 			Map<String, String> affiliationMap = new HashMap<>();
 			affiliationMap.put("id", affiliation.getId());
 			affiliationMap.put("name", affiliation.getFullName());
@@ -205,29 +677,33 @@ public class CensusResource {
 		return personMap;
 	}
 
+	private static Map<String, Object> affiliationStatsToMap(CensusStats.AffiliationStats stats) {
+		Map<String, Object> statsMap = new HashMap<>();
+		statsMap.put("id", stats.getId());
+		statsMap.put("name", stats.getName());
+		statsMap.put("members", stats.getMembers());
+		statsMap.put("roles", stats.getRoles());
+		return statsMap;
+	}
+
 	private static Map<String, Object> projectToMap(Project project) {
-		Map<String, Object> projectMap = new HashMap<>();
-		projectMap.put("id", project.getId());
-		projectMap.put("name", project.getFullName());
-		projectMap.put("members", project.getMembers().entrySet().stream().map(entry -> {
-			Map<String, String> memberMap = new HashMap<>();
-			memberMap.put("userId", entry.getKey());
-			memberMap.put("role", entry.getValue());
-			return memberMap;
-		}).collect(Collectors.toList()));
-		return projectMap;
+		return affiliationToMap(project, project.getMembers());
 	}
 
 	private static Map<String, Object> groupToMap(Group group) {
-		Map<String, Object> groupMap = new HashMap<>();
-		groupMap.put("id", group.getId());
-		groupMap.put("name", group.getFullName());
-		groupMap.put("members", group.getMembers().entrySet().stream().map(entry -> {
+		return affiliationToMap(group, group.getMembers());
+	}
+
+	private static Map<String, Object> affiliationToMap(Affiliation affiliation, Map<String, String> members) {
+		Map<String, Object> affiliationMap = new HashMap<>();
+		affiliationMap.put("id", affiliation.getId());
+		affiliationMap.put("name", affiliation.getFullName());
+		affiliationMap.put("members", members.entrySet().stream().map(entry -> {
 			Map<String, String> memberMap = new HashMap<>();
 			memberMap.put("userId", entry.getKey());
 			memberMap.put("role", entry.getValue());
 			return memberMap;
 		}).collect(Collectors.toList()));
-		return groupMap;
+		return affiliationMap;
 	}
 }
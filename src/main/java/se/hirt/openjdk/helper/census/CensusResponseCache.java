@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the serialized (and compressed) bodies of the large census responses, per format, so that
+ * they are only computed once per snapshot version rather than once per request. Since the keys
+ * may come from request parameters, at most {@link #MAX_BODIES} bodies are kept; beyond that,
+ * bodies are encoded for the request only.
+ */
+@ApplicationScoped
+public class CensusResponseCache {
+	static final int MAX_BODIES = 256;
+
+	private final Map<String, EncodedBody> bodies = new ConcurrentHashMap<>();
+
+	@Inject
+	ObjectMapper objectMapper;
+
+	EncodedBody get(String version, String key, CensusFormat format, Supplier<Object> entity) {
+		String formatKey = key + format.getSuffix();
+		EncodedBody body = bodies.get(formatKey);
+		if (body != null && body.getVersion().equals(version)) {
+			return body;
+		}
+		try {
+			body = EncodedBody.encode(version, format == CensusFormat.JSON ? objectMapper.writeValueAsBytes(entity.get()) : format.write(entity.get()));
+		} catch (JsonProcessingException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (!bodies.containsKey(formatKey) && bodies.size() >= MAX_BODIES) {
+			String current = version;
+			bodies.values().removeIf(cached -> !cached.getVersion().equals(current));
+			if (bodies.size() >= MAX_BODIES) {
+				return body;
+			}
+		}
+		// Racing requests may both encode; last one wins, and both results are equivalent.
+		bodies.put(formatKey, body);
+		return body;
+	}
+
+	/**
+	 * @return the bytes held by the cached bodies, plain and compressed.
+	 */
+	long estimateSize() {
+		return bodies.values().stream().mapToLong(body -> body.getIdentity().length + body.getGzip().length).sum();
+	}
+}
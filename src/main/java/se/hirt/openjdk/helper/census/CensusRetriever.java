@@ -1,48 +1,273 @@
 package se.hirt.openjdk.helper.census;
 
+import java.io.FilterInputStream;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import io.quarkus.logging.Log;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import se.hirt.openjdk.helper.AdaptiveConcurrencyLimit;
 
 @ApplicationScoped
 public class CensusRetriever {
-	private static final String CENSUS_URL = "https://openjdk.org/census";
+	public static final String DEFAULT_CENSUS_URL = "https://openjdk.org/census";
 	private static final Duration TIMEOUT = Duration.ofSeconds(30);
+	private static final Duration DEFAULT_FETCH_DEADLINE = Duration.ofSeconds(120);
+	private static final ScheduledExecutorService DEADLINES = Executors.newSingleThreadScheduledExecutor(task -> {
+		Thread thread = new Thread(task, "census-fetch-deadline");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private final HttpClient httpClient;
+	private final String censusUrl;
+	private final Duration fetchDeadline;
+	// One fetch at a time is plenty; a second one is only let through while the first is fast
+	private final AdaptiveConcurrencyLimit concurrencyLimit = new AdaptiveConcurrencyLimit("census", 1, 2, TIMEOUT);
 
 	public CensusRetriever() {
+		this(DEFAULT_CENSUS_URL);
+	}
+
+	public CensusRetriever(String censusUrl) {
+		this(censusUrl, DEFAULT_FETCH_DEADLINE);
+	}
+
+	@Inject
+	public CensusRetriever(@ConfigProperty(name = "openjdk.census.url", defaultValue = DEFAULT_CENSUS_URL) String censusUrl,
+			@ConfigProperty(name = "openjdk.census.fetch-deadline", defaultValue = "120s") Duration fetchDeadline) {
+		this.censusUrl = censusUrl;
+		this.fetchDeadline = fetchDeadline;
 		this.httpClient = HttpClient.newBuilder()
 				.connectTimeout(TIMEOUT)
 				.build();
 	}
 
-	public String retrieveCensusContent() throws IOException, InterruptedException {
+	/**
+	 * Reads the census as it is being downloaded.
+	 */
+	@FunctionalInterface
+	public interface CensusReader<T> {
+		/**
+		 * @param in      the census page, decompressed if it was sent compressed.
+		 * @param charset the charset of the page, if given by the server, else null.
+		 */
+		T read(InputStream in, String charset) throws IOException;
+	}
+
+	/**
+	 * Retrieves the census, asking for it to be gzip compressed, and hands the body to the reader
+	 * as it arrives, decompressing on the fly. The whole page is never held in memory here.
+	 * <p>
+	 * Fails fast, rather than queueing, if the census server is already busy with our earlier
+	 * fetches, and gives up on a fetch, headers and body, that has not completed within the fetch deadline.
+	 */
+	public <T> T retrieveCensus(CensusReader<T> reader) throws IOException, InterruptedException {
+		long start = concurrencyLimit.tryAcquire();
+		if (start < 0) {
+			concurrencyLimit.onRejected();
+			throw new IOException("Census fetch rejected, " + concurrencyLimit.getInFlight() + " fetches already in flight");
+		}
+		boolean dropped = true;
+		try {
+			T result = fetch(reader);
+			dropped = false;
+			return result;
+		} finally {
+			concurrencyLimit.release(start, dropped);
+		}
+	}
+
+	private <T> T fetch(CensusReader<T> reader) throws IOException, InterruptedException {
+		if (censusUrl.startsWith("file:")) {
+			// A census page captured earlier, such as the one used for the training run of the container image
+			Log.info("Reading OpenJDK census data from " + censusUrl);
+			try (InputStream in = Files.newInputStream(Path.of(URI.create(censusUrl)))) {
+				return reader.read(in, StandardCharsets.UTF_8.name());
+			}
+		}
 		Log.info("Retrieving OpenJDK census data...");
 		HttpRequest request = HttpRequest.newBuilder()
-				.uri(URI.create(CENSUS_URL))
+				.uri(URI.create(censusUrl))
 				.timeout(TIMEOUT)
+				.header("Accept-Encoding", "gzip")
 				.GET()
 				.build();
 
-		try {
-			HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-			if (response.statusCode() == 200) {
+		CensusFetchEvent event = new CensusFetchEvent();
+		event.begin();
+		try (FetchDeadline deadline = new FetchDeadline(fetchDeadline)) {
+			HttpResponse<InputStream> response;
+			try {
+				response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+			} catch (InterruptedException e) {
+				if (deadline.isExpired()) {
+					throw new IOException("Census fetch exceeded its deadline before the response arrived");
+				}
+				throw e;
+			}
+			CountingInputStream body = new CountingInputStream(response.body(), deadline);
+			deadline.watch(body);
+			try (body) {
+				if (response.statusCode() != 200) {
+					Log.error("Failed to retrieve OpenJDK census data. Status code: " + response.statusCode());
+					throw new IOException("Failed to retrieve census data. Status code: " + response.statusCode());
+				}
+				boolean gzip = response.headers().firstValue("Content-Encoding").map(encoding -> encoding.trim().equalsIgnoreCase("gzip")).orElse(false);
+				T result = reader.read(gzip ? new GZIPInputStream(body, 64 * 1024) : body, charset(response));
 				Log.info("Successfully retrieved OpenJDK census data");
-				return response.body();
-			} else {
-				Log.error("Failed to retrieve OpenJDK census data. Status code: " + response.statusCode());
-				throw new IOException("Failed to retrieve census data. Status code: " + response.statusCode());
+				return result;
+			} catch (IOException e) {
+				if (deadline.isExpired()) {
+					throw new IOException("Census fetch exceeded its deadline after " + body.getCount() + " bytes", e);
+				}
+				throw e;
+			} finally {
+				if (event.shouldCommit()) {
+					event.url = censusUrl;
+					event.status = response.statusCode();
+					event.bytes = body.getCount();
+					event.commit();
+				}
 			}
 		} catch (IOException | InterruptedException e) {
 			Log.error("Error while retrieving OpenJDK census data", e);
 			throw e;
 		}
 	}
+
+	/**
+	 * @return the limit guarding the outbound census fetches.
+	 */
+	public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	/**
+	 * @return the census page as a string. Prefer {@link #retrieveCensus(CensusReader)}, which
+	 *         does not need to hold the whole page.
+	 */
+	public String retrieveCensusContent() throws IOException, InterruptedException {
+		return retrieveCensus((in, charset) -> new String(in.readAllBytes(), charset != null ? Charset.forName(charset) : StandardCharsets.UTF_8));
+	}
+
+	private static String charset(HttpResponse<?> response) {
+		for (String parameter : response.headers().firstValue("Content-Type").orElse("").split(";")) {
+			String[] pair = parameter.trim().split("=", 2);
+			if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+				return pair[1].trim().replace("\"", "");
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Ends the fetch at the deadline, whatever it is doing: closes the body and interrupts the
+	 * fetching thread, so that a server sending nothing, or a trickle, cannot hold on to it.
+	 */
+	private static final class FetchDeadline implements AutoCloseable {
+		private final Thread thread = Thread.currentThread();
+		private final ScheduledFuture<?> task;
+		private InputStream body;
+		private boolean done;
+		private boolean expired;
+
+		FetchDeadline(Duration deadline) {
+			task = DEADLINES.schedule(this::expire, deadline.toNanos(), TimeUnit.NANOSECONDS);
+		}
+
+		synchronized void watch(InputStream body) {
+			this.body = body;
+		}
+
+		synchronized boolean isExpired() {
+			return expired;
+		}
+
+		private synchronized void expire() {
+			if (done) {
+				return;
+			}
+			expired = true;
+			if (body != null) {
+				try {
+					body.close();
+				} catch (IOException e) {
+					// Closing is only to unblock the reader
+				}
+			}
+			thread.interrupt();
+		}
+
+		@Override
+		public void close() {
+			task.cancel(false);
+			synchronized (this) {
+				done = true;
+				if (expired) {
+					// Do not leave the interrupt for whatever the thread does next
+					Thread.interrupted();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the bytes received, before any decompression, and fails reads past the deadline.
+	 */
+	private static final class CountingInputStream extends FilterInputStream {
+		private final FetchDeadline deadline;
+		private long count;
+
+		CountingInputStream(InputStream in, FetchDeadline deadline) {
+			super(in);
+			this.deadline = deadline;
+		}
+
+		@Override
+		public int read() throws IOException {
+			checkDeadline();
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkDeadline();
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count += read;
+			}
+			return read;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		private void checkDeadline() throws IOException {
+			if (deadline.isExpired()) {
+				throw new IOException("Census fetch exceeded its deadline after " + count + " bytes");
+			}
+		}
+	}
 }
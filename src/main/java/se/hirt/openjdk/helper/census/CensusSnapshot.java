@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * An immutable view of the census as produced by one refresh. The version is a digest of the
+ * content, so refreshing an unchanged census yields a snapshot with the same version.
+ */
+public final class CensusSnapshot implements CensusView {
+	public static final CensusSnapshot EMPTY = new CensusSnapshot(Collections.emptySet(), Collections.emptyMap(), Collections.emptyMap(),
+			Collections.emptyMap());
+
+	private final String version;
+	private final Instant timestamp;
+	private final Set<String> userIds;
+	private final Map<String, Group> groups;
+	private final Map<String, Project> projects;
+	private final Map<String, Person> people;
+	private final RoleIndex roleIndex;
+	private final CensusStats stats;
+
+	public CensusSnapshot(Set<String> userIds, Map<String, Group> groups, Map<String, Project> projects, Map<String, Person> people) {
+		this(userIds, groups, projects, people, Instant.now());
+	}
+
+	public CensusSnapshot(Set<String> userIds, Map<String, Group> groups, Map<String, Project> projects, Map<String, Person> people,
+			Instant timestamp) {
+		this.userIds = Collections.unmodifiableSet(userIds);
+		this.groups = Collections.unmodifiableMap(groups);
+		this.projects = Collections.unmodifiableMap(projects);
+		this.people = Collections.unmodifiableMap(people);
+		this.version = computeVersion(groups, projects, people);
+		this.roleIndex = new RoleIndex(groups.values(), projects.values());
+		this.stats = CensusStats.of(groups, projects, people);
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return a short hex digest of the census content.
+	 */
+	@Override
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return when this snapshot was created.
+	 */
+	@Override
+	public Instant getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public Set<String> getUserIds() {
+		return userIds;
+	}
+
+	@Override
+	public Map<String, Group> getGroups() {
+		return groups;
+	}
+
+	@Override
+	public Map<String, Project> getProjects() {
+		return projects;
+	}
+
+	@Override
+	public Map<String, Person> getPeople() {
+		return people;
+	}
+
+	@Override
+	public RoleIndex getRoleIndex() {
+		return roleIndex;
+	}
+
+	@Override
+	public CensusStats getStats() {
+		return stats;
+	}
+
+	@Override
+	public Set<Person> findPeople(String regexp) {
+		Pattern pattern = Pattern.compile(regexp);
+		Predicate<Person> predicate = person ->  pattern.matcher(person.getFullName()).find() || pattern.matcher(person.getUserid()).find();
+		return search("people", regexp, people.values(), predicate);
+	}
+
+	@Override
+	public Set<Project> findProjects(String regexp) {
+		Pattern pattern = Pattern.compile(regexp);
+		Predicate<Project> predicate = project ->  pattern.matcher(project.getFullName()).find() || pattern.matcher(project.getId()).find();
+		return search("projects", regexp, projects.values(), predicate);
+	}
+
+	@Override
+	public Set<Group> findGroups(String regexp) {
+		Pattern pattern = Pattern.compile(regexp);
+		Predicate<Group> predicate = group ->  pattern.matcher(group.getFullName()).find() || pattern.matcher(group.getId()).find();
+		return search("groups", regexp, groups.values(), predicate);
+	}
+
+	private static <T> Set<T> search(String kind, String regexp, Collection<T> candidates, Predicate<T> predicate) {
+		CensusSearchEvent event = new CensusSearchEvent();
+		event.begin();
+		Set<T> hits = candidates.stream().filter(predicate).collect(Collectors.toSet());
+		if (event.shouldCommit()) {
+			event.kind = kind;
+			event.pattern = regexp;
+			event.candidates = candidates.size();
+			event.hits = hits.size();
+			event.commit();
+		}
+		return hits;
+	}
+
+	private static String computeVersion(Map<String, Group> groups, Map<String, Project> projects, Map<String, Person> people) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+		// Iterate in sorted order, so that the version does not depend on hash map ordering.
+		for (Affiliation affiliation : new TreeMap<>(groups).values()) {
+			update(digest, affiliation);
+		}
+		for (Affiliation affiliation : new TreeMap<>(projects).values()) {
+			update(digest, affiliation);
+		}
+		for (Person person : new TreeMap<>(people).values()) {
+			update(digest, "P", person.getUserid(), person.getFullName());
+		}
+		byte[] hash = digest.digest();
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 8; i++) {
+			builder.append(String.format("%02x", hash[i]));
+		}
+		return builder.toString();
+	}
+
+	private static void update(MessageDigest digest, Affiliation affiliation) {
+		update(digest, affiliation.getClass().getSimpleName(), affiliation.getId(), affiliation.getFullName());
+		for (Map.Entry<String, String> member : new TreeMap<>(affiliation.getMembers()).entrySet()) {
+			update(digest, "M", member.getKey(), member.getValue());
+		}
+	}
+
+	private static void update(MessageDigest digest, String... values) {
+		for (String value : values) {
+			digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CensusSnapshot " + version + " (" + groups.size() + " groups, " + projects.size() + " projects, " + people.size() + " people)";
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.io.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Reads and writes census snapshots in a compact binary form, so that a snapshot can be parsed
+ * once and embedded in the application at build time.
+ * <p>
+ * The {@link #main(String...)} method is run by the <code>embed-census</code> Maven profile. It
+ * must not use Quarkus APIs (like <code>Log</code>), since it runs outside of Quarkus.
+ */
+public final class CensusSnapshotCodec {
+	public static final String EMBEDDED_RESOURCE = "census-snapshot.bin";
+
+	private static final int MAGIC = 0x434e5331; // CNS1
+	private static final byte GROUP = 0;
+	private static final byte PROJECT = 1;
+
+	private CensusSnapshotCodec() {
+	}
+
+	public static void write(CensusSnapshot snapshot, OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeLong(snapshot.getTimestamp().toEpochMilli());
+		writeAffiliations(data, snapshot.getGroups().values());
+		writeAffiliations(data, snapshot.getProjects().values());
+		data.writeInt(snapshot.getUserIds().size());
+		for (String userId : snapshot.getUserIds()) {
+			data.writeUTF(userId);
+		}
+		data.writeInt(snapshot.getPeople().size());
+		for (Person person : snapshot.getPeople().values()) {
+			data.writeUTF(person.getUserid());
+			writeNullable(data, person.getFullName());
+			data.writeInt(person.getAffiliations().size());
+			for (Map.Entry<String, Affiliation> entry : person.getAffiliations().entrySet()) {
+				data.writeByte(entry.getValue() instanceof Group ? GROUP : PROJECT);
+				data.writeUTF(entry.getKey());
+				data.writeUTF(entry.getValue().getId());
+			}
+		}
+		data.flush();
+	}
+
+	public static CensusSnapshot read(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != MAGIC) {
+			throw new IOException("Not a census snapshot");
+		}
+		Instant timestamp = Instant.ofEpochMilli(data.readLong());
+		Map<String, Group> groups = new HashMap<>();
+		readAffiliations(data, groups, Group::new);
+		Map<String, Project> projects = new HashMap<>();
+		readAffiliations(data, projects, Project::new);
+		int userIdCount = data.readInt();
+		Set<String> userIds = new HashSet<>();
+		for (int i = 0; i < userIdCount; i++) {
+			userIds.add(data.readUTF());
+		}
+		int peopleCount = data.readInt();
+		Map<String, Person> people = new HashMap<>();
+		for (int i = 0; i < peopleCount; i++) {
+			Person person = new Person(data.readUTF(), readNullable(data));
+			int affiliationCount = data.readInt();
+			for (int j = 0; j < affiliationCount; j++) {
+				byte kind = data.readByte();
+				String key = data.readUTF();
+				String id = data.readUTF();
+				Affiliation affiliation = kind == GROUP ? groups.get(id) : projects.get(id);
+				if (affiliation == null) {
+					throw new IOException("Unknown affiliation " + id + " for " + person.getUserid());
+				}
+				person.addAffiliation(key, affiliation);
+			}
+			people.put(person.getUserid(), person);
+		}
+		return new CensusSnapshot(userIds, groups, projects, people, timestamp);
+	}
+
+	private static void writeAffiliations(DataOutputStream data, Collection<? extends Affiliation> affiliations) throws IOException {
+		data.writeInt(affiliations.size());
+		for (Affiliation affiliation : affiliations) {
+			data.writeUTF(affiliation.getId());
+			writeNullable(data, affiliation.getFullName());
+			data.writeInt(affiliation.getMembers().size());
+			for (Map.Entry<String, String> member : affiliation.getMembers().entrySet()) {
+				data.writeUTF(member.getKey());
+				data.writeUTF(member.getValue());
+			}
+		}
+	}
+
+	private static <T extends Affiliation> void readAffiliations(DataInputStream data, Map<String, T> affiliations, Function<String, T> factory)
+			throws IOException {
+		int count = data.readInt();
+		for (int i = 0; i < count; i++) {
+			T affiliation = factory.apply(data.readUTF());
+			affiliation.setFullName(readNullable(data));
+			int memberCount = data.readInt();
+			for (int j = 0; j < memberCount; j++) {
+				affiliation.addMember(data.readUTF(), data.readUTF());
+			}
+			affiliations.put(affiliation.getId(), affiliation);
+		}
+	}
+
+	private static void writeNullable(DataOutputStream data, String value) throws IOException {
+		data.writeBoolean(value != null);
+		if (value != null) {
+			data.writeUTF(value);
+		}
+	}
+
+	private static String readNullable(DataInputStream data) throws IOException {
+		return data.readBoolean() ? data.readUTF() : null;
+	}
+
+	/**
+	 * Parses the census and writes the resulting snapshot.
+	 *
+	 * @param args the census source (an http(s) URL or a file with captured census HTML), and the
+	 *             file to write the snapshot to.
+	 */
+	public static void main(String... args) throws IOException, InterruptedException {
+		if (args.length != 2) {
+			System.err.println("Usage: CensusSnapshotCodec <census URL or HTML file> <output file>");
+			System.exit(2);
+		}
+		CensusSnapshot snapshot;
+		if (args[0].startsWith("http://") || args[0].startsWith("https://")) {
+			HttpResponse<InputStream> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(URI.create(args[0])).GET().build(),
+					HttpResponse.BodyHandlers.ofInputStream());
+			try (InputStream in = response.body()) {
+				if (response.statusCode() != 200) {
+					throw new IOException("Failed to retrieve census data. Status code: " + response.statusCode());
+				}
+				snapshot = OpenjdkCensusScraper.parse(in, null);
+			}
+		} else {
+			try (InputStream in = Files.newInputStream(Path.of(args[0]))) {
+				snapshot = OpenjdkCensusScraper.parse(in, StandardCharsets.UTF_8.name());
+			}
+		}
+		Path output = Path.of(args[1]);
+		Files.createDirectories(output.toAbsolutePath().getParent());
+		try (OutputStream out = Files.newOutputStream(output)) {
+			write(snapshot, out);
+		}
+		System.out.println("Embedded census snapshot " + snapshot.getVersion() + " written to " + output + " (" + Files.size(output) + " bytes)");
+	}
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.util.*;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Aggregates over a census snapshot, computed once per snapshot so that statistics queries do
+ * not have to count over all memberships: member counts per role for every project and group,
+ * the distribution of affiliations per person, and rankings by size. Rankings by role match the
+ * role case insensitively.
+ */
+public final class CensusStats {
+	private final int people;
+	private final int memberships;
+	private final Map<String, AffiliationStats> groups;
+	private final Map<String, AffiliationStats> projects;
+	private final Map<String, Integer> groupRoles;
+	private final Map<String, Integer> projectRoles;
+	private final SortedMap<Integer, Integer> affiliationsPerPerson;
+	private final List<AffiliationStats> groupsBySize;
+	private final List<AffiliationStats> projectsBySize;
+	private final Map<String, List<AffiliationStats>> groupsByRole;
+	private final Map<String, List<AffiliationStats>> projectsByRole;
+	private final List<PersonStats> peopleByAffiliations;
+
+	/**
+	 * The member counts of a project or group.
+	 */
+	public static final class AffiliationStats {
+		private final String id;
+		private final String name;
+		private final Map<String, Integer> roles = new TreeMap<>();
+		private int members;
+
+		private AffiliationStats(String id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getMembers() {
+			return members;
+		}
+
+		/**
+		 * @return the number of members per role, with the roles as written in the census.
+		 */
+		public Map<String, Integer> getRoles() {
+			return Collections.unmodifiableMap(roles);
+		}
+
+		private int getMembers(String role) {
+			for (Map.Entry<String, Integer> entry : roles.entrySet()) {
+				if (entry.getKey().equalsIgnoreCase(role)) {
+					return entry.getValue();
+				}
+			}
+			return 0;
+		}
+	}
+
+	public static final class PersonStats {
+		private final String userId;
+		private final String fullName;
+		private final int affiliations;
+
+		private PersonStats(String userId, String fullName, int affiliations) {
+			this.userId = userId;
+			this.fullName = fullName;
+			this.affiliations = affiliations;
+		}
+
+		public String getUserId() {
+			return userId;
+		}
+
+		public String getFullName() {
+			return fullName;
+		}
+
+		public int getAffiliations() {
+			return affiliations;
+		}
+	}
+
+	/**
+	 * Collects the census content, from whatever form the census is kept in.
+	 */
+	static final class Builder {
+		private final Map<String, AffiliationStats> groups = new TreeMap<>();
+		private final Map<String, AffiliationStats> projects = new TreeMap<>();
+		private final List<PersonStats> people = new ArrayList<>();
+		private int memberships;
+
+		void addAffiliation(boolean group, String id, String name) {
+			(group ? groups : projects).put(id, new AffiliationStats(id, name));
+		}
+
+		void addMember(boolean group, String affiliationId, String role) {
+			AffiliationStats stats = (group ? groups : projects).get(affiliationId);
+			stats.members++;
+			stats.roles.merge(role, 1, Integer::sum);
+			memberships++;
+		}
+
+		void addPerson(String userId, String fullName, int affiliations) {
+			people.add(new PersonStats(userId, fullName, affiliations));
+		}
+
+		CensusStats build() {
+			return new CensusStats(this);
+		}
+	}
+
+	private CensusStats(Builder builder) {
+		people = builder.people.size();
+		memberships = builder.memberships;
+		groups = Collections.unmodifiableMap(builder.groups);
+		projects = Collections.unmodifiableMap(builder.projects);
+		groupRoles = totalRoles(groups.values());
+		projectRoles = totalRoles(projects.values());
+		groupsBySize = rank(groups.values(), AffiliationStats::getMembers);
+		projectsBySize = rank(projects.values(), AffiliationStats::getMembers);
+		groupsByRole = rankByRole(groups.values(), groupRoles.keySet());
+		projectsByRole = rankByRole(projects.values(), projectRoles.keySet());
+
+		SortedMap<Integer, Integer> distribution = new TreeMap<>();
+		for (PersonStats person : builder.people) {
+			distribution.merge(person.affiliations, 1, Integer::sum);
+		}
+		affiliationsPerPerson = Collections.unmodifiableSortedMap(distribution);
+		List<PersonStats> sortedPeople = new ArrayList<>(builder.people);
+		sortedPeople.sort(Comparator.comparingInt(PersonStats::getAffiliations).reversed().thenComparing(PersonStats::getUserId));
+		peopleByAffiliations = Collections.unmodifiableList(sortedPeople);
+	}
+
+	static CensusStats of(Map<String, Group> groups, Map<String, Project> projects, Map<String, Person> people) {
+		Builder builder = new Builder();
+		add(builder, true, groups.values());
+		add(builder, false, projects.values());
+		for (Person person : people.values()) {
+			builder.addPerson(person.getUserid(), person.getFullName(), person.getAffiliations().size());
+		}
+		return builder.build();
+	}
+
+	private static void add(Builder builder, boolean group, Collection<? extends Affiliation> affiliations) {
+		for (Affiliation affiliation : affiliations) {
+			builder.addAffiliation(group, affiliation.getId(), affiliation.getFullName());
+			for (String role : affiliation.getMembers().values()) {
+				builder.addMember(group, affiliation.getId(), role);
+			}
+		}
+	}
+
+	public int getPeople() {
+		return people;
+	}
+
+	public int getMemberships() {
+		return memberships;
+	}
+
+	/**
+	 * @return the stats per group, by group id.
+	 */
+	public Map<String, AffiliationStats> getGroups() {
+		return groups;
+	}
+
+	/**
+	 * @return the stats per project, by project id.
+	 */
+	public Map<String, AffiliationStats> getProjects() {
+		return projects;
+	}
+
+	/**
+	 * @return the number of group memberships per role.
+	 */
+	public Map<String, Integer> getGroupRoles() {
+		return groupRoles;
+	}
+
+	/**
+	 * @return the number of project memberships per role.
+	 */
+	public Map<String, Integer> getProjectRoles() {
+		return projectRoles;
+	}
+
+	/**
+	 * @return the number of people per number of affiliations held.
+	 */
+	public SortedMap<Integer, Integer> getAffiliationsPerPerson() {
+		return affiliationsPerPerson;
+	}
+
+	/**
+	 * @return the groups with the most members (with the role, if given), largest first.
+	 */
+	public List<AffiliationStats> getLargestGroups(String role, int count) {
+		return top(role == null ? groupsBySize : groupsByRole.getOrDefault(normalize(role), Collections.emptyList()), count);
+	}
+
+	/**
+	 * @return the projects with the most members (with the role, if given), largest first.
+	 */
+	public List<AffiliationStats> getLargestProjects(String role, int count) {
+		return top(role == null ? projectsBySize : projectsByRole.getOrDefault(normalize(role), Collections.emptyList()), count);
+	}
+
+	/**
+	 * @return the people with the most affiliations, most first.
+	 */
+	public List<PersonStats> getMostAffiliatedPeople(int count) {
+		return top(peopleByAffiliations, count);
+	}
+
+	long estimateSize(HeapEstimator estimator) {
+		long size = estimator.object(10, 8);
+		for (Map<String, AffiliationStats> affiliations : List.of(groups, projects)) {
+			size += estimator.wrapper() + estimator.treeMap(affiliations.size());
+			for (AffiliationStats affiliation : affiliations.values()) {
+				size += estimator.object(3, 4) + estimator.string(affiliation.id) + estimator.string(affiliation.name)
+						+ estimator.treeMap(affiliation.roles.size());
+				for (Map.Entry<String, Integer> role : affiliation.roles.entrySet()) {
+					size += estimator.string(role.getKey()) + estimator.boxedInteger(role.getValue());
+				}
+			}
+		}
+		for (Map<String, Integer> roles : List.of(groupRoles, projectRoles)) {
+			size += estimator.wrapper() + estimator.treeMap(roles.size());
+			for (Map.Entry<String, Integer> role : roles.entrySet()) {
+				size += estimator.string(role.getKey()) + estimator.boxedInteger(role.getValue());
+			}
+		}
+		size += estimator.wrapper() + estimator.treeMap(affiliationsPerPerson.size());
+		for (Map.Entry<Integer, Integer> entry : affiliationsPerPerson.entrySet()) {
+			size += estimator.boxedInteger(entry.getKey()) + estimator.boxedInteger(entry.getValue());
+		}
+		size += 2 * estimator.wrapper() + estimator.arrayList(groupsBySize.size()) + estimator.arrayList(projectsBySize.size());
+		for (Map<String, List<AffiliationStats>> rankings : List.of(groupsByRole, projectsByRole)) {
+			size += estimator.hashMap(rankings.size());
+			for (Map.Entry<String, List<AffiliationStats>> ranking : rankings.entrySet()) {
+				size += estimator.string(ranking.getKey()) + estimator.wrapper() + estimator.arrayList(ranking.getValue().size());
+			}
+		}
+		size += estimator.wrapper() + estimator.arrayList(peopleByAffiliations.size());
+		for (PersonStats person : peopleByAffiliations) {
+			size += estimator.object(2, 4) + estimator.string(person.userId) + estimator.string(person.fullName);
+		}
+		return size;
+	}
+
+	private static <T> List<T> top(List<T> ranking, int count) {
+		return ranking.subList(0, Math.max(0, Math.min(count, ranking.size())));
+	}
+
+	private static Map<String, Integer> totalRoles(Collection<AffiliationStats> affiliations) {
+		Map<String, Integer> totals = new TreeMap<>();
+		for (AffiliationStats affiliation : affiliations) {
+			affiliation.roles.forEach((role, count) -> totals.merge(role, count, Integer::sum));
+		}
+		return Collections.unmodifiableMap(totals);
+	}
+
+	private static List<AffiliationStats> rank(Collection<AffiliationStats> affiliations, ToIntFunction<AffiliationStats> size) {
+		return Collections.unmodifiableList(affiliations.stream().filter(affiliation -> size.applyAsInt(affiliation) > 0)
+				.sorted(Comparator.comparingInt(size).reversed().thenComparing(AffiliationStats::getId)).collect(Collectors.toList()));
+	}
+
+	private static Map<String, List<AffiliationStats>> rankByRole(Collection<AffiliationStats> affiliations, Set<String> roles) {
+		Map<String, List<AffiliationStats>> rankings = new HashMap<>();
+		for (String role : roles) {
+			rankings.putIfAbsent(normalize(role), rank(affiliations, affiliation -> affiliation.getMembers(role)));
+		}
+		return rankings;
+	}
+
+	private static String normalize(String role) {
+		return role.trim().toLowerCase(Locale.ROOT);
+	}
+}
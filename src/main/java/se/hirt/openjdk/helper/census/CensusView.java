@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What the census is read through, whether held on the heap as a {@link CensusSnapshot}, or read
+ * from a {@link MappedCensus}. The maps are unmodifiable.
+ */
+public interface CensusView {
+	/**
+	 * @return a short hex digest of the census content.
+	 */
+	String getVersion();
+
+	/**
+	 * @return when the census was created.
+	 */
+	Instant getTimestamp();
+
+	Set<String> getUserIds();
+
+	Map<String, Group> getGroups();
+
+	Map<String, Project> getProjects();
+
+	Map<String, Person> getPeople();
+
+	RoleIndex getRoleIndex();
+
+	CensusStats getStats();
+
+	/**
+	 * @return the people whose userid or full name matches the regular expression.
+	 */
+	Set<Person> findPeople(String regexp);
+
+	/**
+	 * @return the projects whose id or name matches the regular expression.
+	 */
+	Set<Project> findProjects(String regexp);
+
+	/**
+	 * @return the groups whose id or name matches the regular expression.
+	 */
+	Set<Group> findGroups(String regexp);
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Estimates the retained heap of the census data structures from their shapes, assuming a 64-bit
+ * JVM with compressed oops and class pointers (12 byte object headers, 4 byte references, 8 byte
+ * alignment) and compact strings. Strings are only counted the first time they are seen, so that
+ * the userids and affiliation ids shared between the structures are attributed to the first
+ * component that holds them.
+ */
+final class HeapEstimator {
+	private static final int HEADER = 12;
+	private static final int ARRAY_HEADER = 16;
+	private static final int REFERENCE = 4;
+
+	private final Set<String> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * @return the size of an object with the given number of reference fields and bytes of
+	 *         primitive fields.
+	 */
+	long object(int references, int primitiveBytes) {
+		return align(HEADER + references * REFERENCE + primitiveBytes);
+	}
+
+	long string(String value) {
+		if (value == null || !seen.add(value)) {
+			return 0;
+		}
+		boolean latin1 = value.chars().allMatch(c -> c < 256);
+		return object(1, 6) + align(ARRAY_HEADER + (latin1 ? value.length() : value.length() * 2));
+	}
+
+	/**
+	 * @return the size of a HashMap or HashSet with the given number of entries, not including the
+	 *         keys and values.
+	 */
+	long hashMap(int size) {
+		long table = size == 0 ? 0 : align(ARRAY_HEADER + (long) tableSize(size) * REFERENCE);
+		return object(4, 16) + table + size * object(3, 4);
+	}
+
+	long hashSet(int size) {
+		return object(1, 0) + hashMap(size);
+	}
+
+	/**
+	 * @return the size of a TreeMap with the given number of entries, not including the keys and
+	 *         values.
+	 */
+	long treeMap(int size) {
+		return object(4, 8) + size * object(5, 1);
+	}
+
+	/**
+	 * @return the size of an ArrayList with the given number of elements, not including the
+	 *         elements.
+	 */
+	long arrayList(int size) {
+		return object(1, 8) + align(ARRAY_HEADER + (long) size * REFERENCE);
+	}
+
+	/**
+	 * @return the size of an unmodifiable wrapper, e.g. from {@link Collections#unmodifiableMap}.
+	 */
+	long wrapper() {
+		return object(4, 0);
+	}
+
+	/**
+	 * @return the size of a boxed integer, which is zero for the cached small values.
+	 */
+	long boxedInteger(int value) {
+		return value >= -128 && value <= 127 ? 0 : object(0, 4);
+	}
+
+	private static int tableSize(int size) {
+		int capacity = Integer.highestOneBit(Math.max(1, (int) Math.ceil(size / 0.75)) - 1) << 1;
+		return Math.max(16, capacity);
+	}
+
+	private static long align(long size) {
+		return (size + 7) & ~7L;
+	}
+}
@@ -0,0 +1,730 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A census snapshot in a flat binary format, meant to be written by one process and mapped
+ * read-only by any number of others. All lookups and searches read directly from the mapped
+ * buffer. As a {@link CensusView}, the people and affiliations are handed out as lightweight
+ * {@link Person} and {@link Affiliation} objects, created as they are accessed and reading their
+ * memberships from the buffer; none of them are kept.
+ * <p>
+ * The file starts with a fixed size header, followed by a string table and int records referring
+ * to strings and to each other by index. Strings are stored as UTF-16 chars, so that they can be
+ * matched against without decoding. People and affiliations are sorted by id, for binary search.
+ */
+public final class MappedCensus implements CensusView {
+	public static final int GROUP = 0;
+	public static final int PROJECT = 1;
+
+	private static final int MAGIC = 0x434e4d31; // CNM1
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int NO_STRING = -1;
+
+	// People and affiliations: id, name, first membership, membership count
+	private static final int ENTITY_SIZE = 16;
+	// Memberships of a person: kind, affiliation, role
+	private static final int PERSON_MEMBERSHIP_SIZE = 12;
+	// Members of an affiliation: userid, role
+	private static final int AFFILIATION_MEMBER_SIZE = 8;
+
+	private final ByteBuffer buffer;
+	private final String version;
+	private final Instant timestamp;
+	private final int stringOffsets;
+	private final int stringData;
+	private final int peopleCount;
+	private final int people;
+	private final int[] affiliationCounts = new int[2];
+	private final int[] affiliations = new int[2];
+	private final int personMemberships;
+	private final int affiliationMembers;
+	private final Map<String, Person> peopleView;
+	private final Map<String, Group> groupsView;
+	private final Map<String, Project> projectsView;
+	private volatile CensusStats stats;
+	private volatile RoleIndex roleIndex;
+
+	private MappedCensus(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a mapped census");
+		}
+		if (buffer.getInt(4) != FORMAT_VERSION) {
+			throw new IOException("Unsupported mapped census format " + buffer.getInt(4));
+		}
+		timestamp = Instant.ofEpochMilli(buffer.getLong(8));
+		stringOffsets = buffer.getInt(24);
+		stringData = buffer.getInt(28);
+		peopleCount = buffer.getInt(32);
+		people = buffer.getInt(36);
+		affiliationCounts[GROUP] = buffer.getInt(40);
+		affiliations[GROUP] = buffer.getInt(44);
+		affiliationCounts[PROJECT] = buffer.getInt(48);
+		affiliations[PROJECT] = buffer.getInt(52);
+		personMemberships = buffer.getInt(56);
+		affiliationMembers = buffer.getInt(60);
+		version = string(buffer.getInt(16));
+		peopleView = new EntityMap<>(people, peopleCount, MappedPerson::new);
+		groupsView = new EntityMap<>(affiliations[GROUP], affiliationCounts[GROUP], MappedGroup::new);
+		projectsView = new EntityMap<>(affiliations[PROJECT], affiliationCounts[PROJECT], MappedProject::new);
+	}
+
+	/**
+	 * Maps the file read-only. The mapping stays valid after the file has been replaced, so a new
+	 * version should be published by writing a new file and renaming it into place.
+	 */
+	public static MappedCensus open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new MappedCensus(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Writes the snapshot to the file, atomically replacing any previous file.
+	 */
+	public static void write(CensusSnapshot snapshot, Path file) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer encoded = encode(snapshot);
+			while (encoded.hasRemaining()) {
+				channel.write(encoded);
+			}
+			channel.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	@Override
+	public String getVersion() {
+		return version;
+	}
+
+	@Override
+	public Instant getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public Set<String> getUserIds() {
+		return peopleView.keySet();
+	}
+
+	@Override
+	public Map<String, Group> getGroups() {
+		return groupsView;
+	}
+
+	@Override
+	public Map<String, Project> getProjects() {
+		return projectsView;
+	}
+
+	@Override
+	public Map<String, Person> getPeople() {
+		return peopleView;
+	}
+
+	public int getPeopleCount() {
+		return peopleCount;
+	}
+
+	/**
+	 * @return the index of the person, or -1 if there is no such person.
+	 */
+	public int findPerson(String userId) {
+		return binarySearch(people, peopleCount, ENTITY_SIZE, userId);
+	}
+
+	public String getUserId(int person) {
+		return string(buffer.getInt(people + person * ENTITY_SIZE));
+	}
+
+	public String getFullName(int person) {
+		return string(buffer.getInt(people + person * ENTITY_SIZE + 4));
+	}
+
+	public int getMembershipCount(int person) {
+		return buffer.getInt(people + person * ENTITY_SIZE + 12);
+	}
+
+	/**
+	 * @return {@link #GROUP} or {@link #PROJECT}.
+	 */
+	public int getMembershipKind(int person, int membership) {
+		return buffer.getInt(personMembership(person, membership));
+	}
+
+	/**
+	 * @return the index of the affiliation, of the kind given by {@link #getMembershipKind}.
+	 */
+	public int getMembershipAffiliation(int person, int membership) {
+		return buffer.getInt(personMembership(person, membership) + 4);
+	}
+
+	public String getMembershipRole(int person, int membership) {
+		return string(buffer.getInt(personMembership(person, membership) + 8));
+	}
+
+	public int getAffiliationCount(int kind) {
+		return affiliationCounts[kind];
+	}
+
+	/**
+	 * @return the index of the group or project, or -1 if there is no such affiliation.
+	 */
+	public int findAffiliation(int kind, String id) {
+		return binarySearch(affiliations[kind], affiliationCounts[kind], ENTITY_SIZE, id);
+	}
+
+	public String getAffiliationId(int kind, int affiliation) {
+		return string(buffer.getInt(affiliations[kind] + affiliation * ENTITY_SIZE));
+	}
+
+	public String getAffiliationName(int kind, int affiliation) {
+		return string(buffer.getInt(affiliations[kind] + affiliation * ENTITY_SIZE + 4));
+	}
+
+	public int getMemberCount(int kind, int affiliation) {
+		return buffer.getInt(affiliations[kind] + affiliation * ENTITY_SIZE + 12);
+	}
+
+	public String getMemberUserId(int kind, int affiliation, int member) {
+		return string(buffer.getInt(affiliationMember(kind, affiliation, member)));
+	}
+
+	public String getMemberRole(int kind, int affiliation, int member) {
+		return string(buffer.getInt(affiliationMember(kind, affiliation, member) + 4));
+	}
+
+	/**
+	 * @return the aggregates over this census, computed on first use. Unlike everything else, these
+	 *         are kept on the heap.
+	 */
+	@Override
+	public CensusStats getStats() {
+		CensusStats result = stats;
+		if (result == null) {
+			CensusStats.Builder builder = new CensusStats.Builder();
+			for (int kind : new int[] {GROUP, PROJECT}) {
+				for (int affiliation = 0; affiliation < affiliationCounts[kind]; affiliation++) {
+					String id = getAffiliationId(kind, affiliation);
+					builder.addAffiliation(kind == GROUP, id, getAffiliationName(kind, affiliation));
+					for (int member = 0; member < getMemberCount(kind, affiliation); member++) {
+						builder.addMember(kind == GROUP, id, getMemberRole(kind, affiliation, member));
+					}
+				}
+			}
+			for (int person = 0; person < peopleCount; person++) {
+				builder.addPerson(getUserId(person), getFullName(person), getMembershipCount(person));
+			}
+			result = builder.build();
+			stats = result;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the role index over this census, built on first use. Like the aggregates, it is kept
+	 *         on the heap.
+	 */
+	@Override
+	public RoleIndex getRoleIndex() {
+		RoleIndex result = roleIndex;
+		if (result == null) {
+			result = new RoleIndex(groupsView.values(), projectsView.values());
+			roleIndex = result;
+		}
+		return result;
+	}
+
+	@Override
+	public Set<Person> findPeople(String regexp) {
+		return toSet(searchPeople(regexp), MappedPerson::new);
+	}
+
+	@Override
+	public Set<Project> findProjects(String regexp) {
+		return toSet(searchAffiliations(PROJECT, regexp), MappedProject::new);
+	}
+
+	@Override
+	public Set<Group> findGroups(String regexp) {
+		return toSet(searchAffiliations(GROUP, regexp), MappedGroup::new);
+	}
+
+	private static <T> Set<T> toSet(int[] indices, IntFunction<T> factory) {
+		Set<T> set = new LinkedHashSet<>();
+		for (int index : indices) {
+			set.add(factory.apply(index));
+		}
+		return set;
+	}
+
+	/**
+	 * @return the indices of the people whose userid or full name matches the regular expression.
+	 */
+	public int[] searchPeople(String regexp) {
+		return search("people", regexp, people, peopleCount);
+	}
+
+	/**
+	 * @return the indices of the groups or projects whose id or name matches the regular expression.
+	 */
+	public int[] searchAffiliations(int kind, String regexp) {
+		return search(kind == GROUP ? "groups" : "projects", regexp, affiliations[kind], affiliationCounts[kind]);
+	}
+
+	private int[] search(String kind, String regexp, int table, int count) {
+		CensusSearchEvent event = new CensusSearchEvent();
+		event.begin();
+		Matcher matcher = Pattern.compile(regexp).matcher("");
+		StringView view = new StringView();
+		int[] hits = new int[count];
+		int hitCount = 0;
+		for (int i = 0; i < count; i++) {
+			int entity = table + i * ENTITY_SIZE;
+			if (view.at(buffer.getInt(entity + 4)) && matcher.reset(view).find() || view.at(buffer.getInt(entity)) && matcher.reset(view).find()) {
+				hits[hitCount++] = i;
+			}
+		}
+		if (event.shouldCommit()) {
+			event.kind = kind;
+			event.pattern = regexp;
+			event.candidates = count;
+			event.hits = hitCount;
+			event.commit();
+		}
+		return Arrays.copyOf(hits, hitCount);
+	}
+
+	private int binarySearch(int table, int count, int recordSize, String id) {
+		StringView view = new StringView();
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			view.at(buffer.getInt(table + middle * recordSize));
+			int comparison = CharSequence.compare(view, id);
+			if (comparison < 0) {
+				low = middle + 1;
+			} else if (comparison > 0) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private int personMembership(int person, int membership) {
+		return personMemberships + (buffer.getInt(people + person * ENTITY_SIZE + 8) + membership) * PERSON_MEMBERSHIP_SIZE;
+	}
+
+	private int affiliationMember(int kind, int affiliation, int member) {
+		return affiliationMembers + (buffer.getInt(affiliations[kind] + affiliation * ENTITY_SIZE + 8) + member) * AFFILIATION_MEMBER_SIZE;
+	}
+
+	private String string(int index) {
+		if (index == NO_STRING) {
+			return null;
+		}
+		StringView view = new StringView();
+		view.at(index);
+		return view.toString();
+	}
+
+	/**
+	 * A reusable view of a string in the mapped buffer.
+	 */
+	private final class StringView implements CharSequence {
+		private int offset;
+		private int length;
+
+		/**
+		 * @return false for a missing (null) string.
+		 */
+		boolean at(int index) {
+			if (index == NO_STRING) {
+				return false;
+			}
+			int start = buffer.getInt(stringOffsets + index * 4);
+			offset = stringData + start * 2;
+			length = buffer.getInt(stringOffsets + index * 4 + 4) - start;
+			return true;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return buffer.getChar(offset + index * 2);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = charAt(i);
+			}
+			return new String(chars);
+		}
+	}
+
+	/**
+	 * The people, groups or projects, by id, read from their table in id order.
+	 */
+	private final class EntityMap<T> extends AbstractMap<String, T> {
+		private final int table;
+		private final int count;
+		private final IntFunction<T> factory;
+
+		EntityMap(int table, int count, IntFunction<T> factory) {
+			this.table = table;
+			this.count = count;
+			this.factory = factory;
+		}
+
+		@Override
+		public T get(Object key) {
+			int index = key instanceof String ? binarySearch(table, count, ENTITY_SIZE, (String) key) : -1;
+			return index < 0 ? null : factory.apply(index);
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof String && binarySearch(table, count, ENTITY_SIZE, (String) key) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+
+		@Override
+		public Set<Map.Entry<String, T>> entrySet() {
+			return new AbstractSet<>() {
+				@Override
+				public Iterator<Map.Entry<String, T>> iterator() {
+					return new Iterator<>() {
+						private int index;
+
+						@Override
+						public boolean hasNext() {
+							return index < count;
+						}
+
+						@Override
+						public Map.Entry<String, T> next() {
+							if (index >= count) {
+								throw new NoSuchElementException();
+							}
+							int entity = index++;
+							return new AbstractMap.SimpleImmutableEntry<>(string(buffer.getInt(table + entity * ENTITY_SIZE)), factory.apply(entity));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return count;
+				}
+			};
+		}
+	}
+
+	/**
+	 * The members of an affiliation, userid to role, read from the buffer in userid order.
+	 */
+	private final class MemberMap extends AbstractMap<String, String> {
+		private final int table;
+		private final int count;
+
+		MemberMap(int kind, int affiliation) {
+			table = affiliationMember(kind, affiliation, 0);
+			count = getMemberCount(kind, affiliation);
+		}
+
+		@Override
+		public String get(Object key) {
+			int member = key instanceof String ? binarySearch(table, count, AFFILIATION_MEMBER_SIZE, (String) key) : -1;
+			return member < 0 ? null : string(buffer.getInt(table + member * AFFILIATION_MEMBER_SIZE + 4));
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof String && binarySearch(table, count, AFFILIATION_MEMBER_SIZE, (String) key) >= 0;
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+
+		@Override
+		public Set<Map.Entry<String, String>> entrySet() {
+			return new AbstractSet<>() {
+				@Override
+				public Iterator<Map.Entry<String, String>> iterator() {
+					return new Iterator<>() {
+						private int member;
+
+						@Override
+						public boolean hasNext() {
+							return member < count;
+						}
+
+						@Override
+						public Map.Entry<String, String> next() {
+							if (member >= count) {
+								throw new NoSuchElementException();
+							}
+							int record = table + member++ * AFFILIATION_MEMBER_SIZE;
+							return new AbstractMap.SimpleImmutableEntry<>(string(buffer.getInt(record)), string(buffer.getInt(record + 4)));
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return count;
+				}
+			};
+		}
+	}
+
+	private final class MappedPerson extends Person {
+		private final int index;
+
+		MappedPerson(int index) {
+			super(MappedCensus.this.getUserId(index), MappedCensus.this.getFullName(index));
+			this.index = index;
+		}
+
+		@Override
+		public Map<String, Affiliation> getAffiliations() {
+			Map<String, Affiliation> affiliations = new LinkedHashMap<>();
+			for (int membership = 0; membership < getMembershipCount(index); membership++) {
+				int kind = getMembershipKind(index, membership);
+				int affiliation = getMembershipAffiliation(index, membership);
+				affiliations.put(getAffiliationId(kind, affiliation), kind == GROUP ? new MappedGroup(affiliation) : new MappedProject(affiliation));
+			}
+			return Collections.unmodifiableMap(affiliations);
+		}
+	}
+
+	private final class MappedGroup extends Group {
+		private final int index;
+
+		MappedGroup(int index) {
+			super(getAffiliationId(GROUP, index));
+			this.index = index;
+			setFullName(getAffiliationName(GROUP, index));
+		}
+
+		@Override
+		public Map<String, String> getMembers() {
+			return new MemberMap(GROUP, index);
+		}
+	}
+
+	private final class MappedProject extends Project {
+		private final int index;
+
+		MappedProject(int index) {
+			super(getAffiliationId(PROJECT, index));
+			this.index = index;
+			setFullName(getAffiliationName(PROJECT, index));
+		}
+
+		@Override
+		public Map<String, String> getMembers() {
+			return new MemberMap(PROJECT, index);
+		}
+	}
+
+	private static ByteBuffer encode(CensusSnapshot snapshot) {
+		StringTable strings = new StringTable();
+		int versionString = strings.add(snapshot.getVersion());
+
+		List<Person> sortedPeople = new ArrayList<>(new TreeMap<>(snapshot.getPeople()).values());
+		List<List<? extends Affiliation>> sortedAffiliations = List.of(new ArrayList<>(new TreeMap<>(snapshot.getGroups()).values()),
+				new ArrayList<>(new TreeMap<>(snapshot.getProjects()).values()));
+		List<Map<String, Integer>> affiliationIndices = new ArrayList<>();
+		for (List<? extends Affiliation> sorted : sortedAffiliations) {
+			Map<String, Integer> indices = new HashMap<>();
+			for (Affiliation affiliation : sorted) {
+				indices.put(affiliation.getId(), indices.size());
+			}
+			affiliationIndices.add(indices);
+		}
+
+		IntList peopleRecords = new IntList();
+		IntList membershipRecords = new IntList();
+		for (Person person : sortedPeople) {
+			int first = membershipRecords.size() / 3;
+			for (Affiliation affiliation : new TreeMap<>(person.getAffiliations()).values()) {
+				int kind = affiliation instanceof Group ? GROUP : PROJECT;
+				Integer index = affiliationIndices.get(kind).get(affiliation.getId());
+				if (index != null) {
+					membershipRecords.add(kind, index, strings.add(affiliation.getMembers().get(person.getUserid())));
+				}
+			}
+			peopleRecords.add(strings.add(person.getUserid()), strings.add(person.getFullName()), first, membershipRecords.size() / 3 - first);
+		}
+
+		List<IntList> affiliationRecords = new ArrayList<>();
+		IntList memberRecords = new IntList();
+		for (List<? extends Affiliation> sorted : sortedAffiliations) {
+			IntList records = new IntList();
+			for (Affiliation affiliation : sorted) {
+				int first = memberRecords.size() / 2;
+				for (Map.Entry<String, String> member : new TreeMap<>(affiliation.getMembers()).entrySet()) {
+					memberRecords.add(strings.add(member.getKey()), strings.add(member.getValue()));
+				}
+				records.add(strings.add(affiliation.getId()), strings.add(affiliation.getFullName()), first, memberRecords.size() / 2 - first);
+			}
+			affiliationRecords.add(records);
+		}
+
+		int stringOffsets = HEADER_SIZE;
+		int stringData = stringOffsets + (strings.size() + 1) * 4;
+		int people = stringData + strings.chars() * 2;
+		int groups = people + peopleRecords.size() * 4;
+		int projects = groups + affiliationRecords.get(GROUP).size() * 4;
+		int personMemberships = projects + affiliationRecords.get(PROJECT).size() * 4;
+		int affiliationMembers = personMemberships + membershipRecords.size() * 4;
+		ByteBuffer buffer = ByteBuffer.allocate(affiliationMembers + memberRecords.size() * 4);
+
+		buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(snapshot.getTimestamp().toEpochMilli()).putInt(versionString).putInt(strings.size())
+				.putInt(stringOffsets).putInt(stringData).putInt(sortedPeople.size()).putInt(people).putInt(sortedAffiliations.get(GROUP).size())
+				.putInt(groups).putInt(sortedAffiliations.get(PROJECT).size()).putInt(projects).putInt(personMemberships).putInt(affiliationMembers);
+		strings.writeTo(buffer);
+		peopleRecords.writeTo(buffer);
+		affiliationRecords.get(GROUP).writeTo(buffer);
+		affiliationRecords.get(PROJECT).writeTo(buffer);
+		membershipRecords.writeTo(buffer);
+		memberRecords.writeTo(buffer);
+		return buffer.flip();
+	}
+
+	private static final class StringTable {
+		private final Map<String, Integer> indices = new HashMap<>();
+		private final List<String> strings = new ArrayList<>();
+		private int chars;
+
+		int add(String string) {
+			if (string == null) {
+				return NO_STRING;
+			}
+			return indices.computeIfAbsent(string, s -> {
+				strings.add(s);
+				chars += s.length();
+				return strings.size() - 1;
+			});
+		}
+
+		int size() {
+			return strings.size();
+		}
+
+		int chars() {
+			return chars;
+		}
+
+		void writeTo(ByteBuffer buffer) {
+			int offset = 0;
+			for (String string : strings) {
+				buffer.putInt(offset);
+				offset += string.length();
+			}
+			buffer.putInt(offset);
+			for (String string : strings) {
+				for (int i = 0; i < string.length(); i++) {
+					buffer.putChar(string.charAt(i));
+				}
+			}
+		}
+	}
+
+	private static final class IntList {
+		private int[] values = new int[256];
+		private int size;
+
+		void add(int... added) {
+			if (size + added.length > values.length) {
+				values = Arrays.copyOf(values, Math.max(values.length * 2, size + added.length));
+			}
+			System.arraycopy(added, 0, values, size, added.length);
+			size += added.length;
+		}
+
+		int size() {
+			return size;
+		}
+
+		void writeTo(ByteBuffer buffer) {
+			for (int i = 0; i < size; i++) {
+				buffer.putInt(values[i]);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MappedCensus " + version + " (" + affiliationCounts[GROUP] + " groups, " + affiliationCounts[PROJECT] + " projects, " + peopleCount
+				+ " people, " + buffer.limit() + " bytes)";
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import io.quarkus.logging.Log;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the census between instances on the same host through a {@link MappedCensus} file,
+ * configured with <code>openjdk.census.mapped.file</code>. In <code>write</code> mode (the
+ * default), every published snapshot is written to the file. In <code>read</code> mode, the
+ * instance does not scrape the census at all, and serves it from the mapped file instead. The file
+ * is checked for a new version every second, in the background, and every newly mapped census is
+ * fired as an event.
+ */
+@ApplicationScoped
+public class MappedCensusStore {
+	private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+	@ConfigProperty(name = "openjdk.census.mapped.file")
+	Optional<String> file;
+
+	@ConfigProperty(name = "openjdk.census.mapped.mode", defaultValue = "write")
+	String mode;
+
+	@Inject
+	CensusCoordinator coordinator;
+
+	@Inject
+	Event<MappedCensus> censusMapped;
+
+	private volatile MappedCensus census;
+	// Only used by the check, which runs on the scheduler after the first one
+	private FileTime mappedModified;
+	private ScheduledExecutorService scheduler;
+
+	@PostConstruct
+	void initialize() {
+		if (!isReader()) {
+			return;
+		}
+		remapIfModified();
+		scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "mapped-census-check");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleWithFixedDelay(this::remapIfModified, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+	}
+
+	public boolean isEnabled() {
+		return file.isPresent();
+	}
+
+	/**
+	 * @return true if the census should be served from the mapped file rather than be scraped.
+	 */
+	public boolean isReader() {
+		return isEnabled() && mode.trim().equalsIgnoreCase("read");
+	}
+
+	void onSnapshot(@Observes CensusSnapshot snapshot) {
+		// With coordinated replicas, every replica publishes the snapshot, but only the fetcher writes it
+		if (isEnabled() && !isReader() && (!coordinator.isEnabled() || coordinator.isFetcher())) {
+			try {
+				MappedCensus.write(snapshot, Path.of(file.get()));
+			} catch (IOException e) {
+				Log.error("Could not write the mapped census to " + file.get(), e);
+			}
+		}
+	}
+
+	/**
+	 * @return the mapped census, or null if not reading one, or if none has been written yet. The
+	 *         file is remapped in the background when it has been replaced.
+	 */
+	public MappedCensus getCensus() {
+		return isReader() ? census : null;
+	}
+
+	private void remapIfModified() {
+		Path path = Path.of(file.get());
+		try {
+			FileTime modified = Files.getLastModifiedTime(path);
+			if (modified.equals(mappedModified)) {
+				return;
+			}
+			MappedCensus mapped = MappedCensus.open(path);
+			census = mapped;
+			mappedModified = modified;
+			Log.info("Mapped " + mapped);
+			censusMapped.fire(mapped);
+		} catch (NoSuchFileException e) {
+			Log.debug("No mapped census at " + path + " yet");
+		} catch (IOException e) {
+			Log.error("Could not map the census in " + path, e);
+		} catch (RuntimeException e) {
+			// Must not propagate, or the scheduled check would stop
+			Log.error("Could not publish the census mapped from " + path, e);
+		}
+	}
+}
@@ -34,6 +34,7 @@ package se.hirt.openjdk.helper.census;
 import io.quarkus.logging.Log;
 import io.quarkus.runtime.Startup;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -41,12 +42,12 @@ import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -55,38 +56,74 @@ import java.util.stream.Collectors;
 @Startup
 @ApplicationScoped
 public class OpenjdkCensusScraper {
-	private volatile Set<String> userIds;
-	private volatile Map<String, Group> groups;
-	private volatile Map<String, Project> projects;
-	private volatile Map<String, Person> people;
+	private volatile CensusSnapshot snapshot = CensusSnapshot.EMPTY;
 	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
 	private final CensusRetriever censusRetriever;
+	private final Event<CensusSnapshot> snapshotPublished;
+	private final CensusCoordinator coordinator;
+	private final MappedCensusStore mappedCensus;
+	private final int refreshIntervalInSeconds;
 
+	/**
+	 * @param snapshotPublished fired with every snapshot published, for observers like the
+	 *                          {@link CensusHistory}.
+	 * @param mappedCensus      if reading the census from a mapped file, nothing is scraped.
+	 * @param coordinator       if enabled, only the elected replica fetches the census.
+	 */
 	@Inject
-	public OpenjdkCensusScraper(CensusRetriever censusRetriever) {
-		this(censusRetriever, 3600);
+	public OpenjdkCensusScraper(CensusRetriever censusRetriever, Event<CensusSnapshot> snapshotPublished, MappedCensusStore mappedCensus,
+			CensusCoordinator coordinator) {
+		this(censusRetriever, 3600, mappedCensus.isReader() ? null : readEmbeddedSnapshot(), snapshotPublished, mappedCensus,
+				coordinator.isEnabled() ? coordinator : null);
 	}
 
 	public OpenjdkCensusScraper(CensusRetriever censusRetriever, int refreshIntervalInSeconds) {
-		Log.info("Scraper Instantiated with a " + refreshIntervalInSeconds + " second interval refresh");
-		// Immediately download and initialize.
+		this(censusRetriever, refreshIntervalInSeconds, null, null, null, null);
+	}
+
+	/**
+	 * Creates a scraper coordinating with the other replicas sharing the coordinator directory.
+	 */
+	public OpenjdkCensusScraper(CensusRetriever censusRetriever, int refreshIntervalInSeconds, CensusCoordinator coordinator) {
+		this(censusRetriever, refreshIntervalInSeconds, null, null, null, coordinator);
+	}
+
+	private OpenjdkCensusScraper(CensusRetriever censusRetriever, int refreshIntervalInSeconds, CensusSnapshot embeddedSnapshot,
+			Event<CensusSnapshot> snapshotPublished, MappedCensusStore mappedCensus, CensusCoordinator coordinator) {
 		this.censusRetriever = censusRetriever;
-		try {
-			String html = censusRetriever.retrieveCensusContent();
-			initialize(html);
-		} catch (IOException | InterruptedException e) {
-			Log.error(e);
+		this.snapshotPublished = snapshotPublished;
+		this.coordinator = coordinator;
+		this.mappedCensus = mappedCensus;
+		this.refreshIntervalInSeconds = refreshIntervalInSeconds;
+		if (mappedCensus != null && mappedCensus.isReader()) {
+			Log.info("Scraper disabled, the census is read from the mapped census file");
+			return;
 		}
-
-		scheduler.scheduleAtFixedRate(() -> {
-			try {
-				String html = censusRetriever.retrieveCensusContent();
-				initialize(html);
-			} catch (IOException | InterruptedException e) {
-				Log.error(e);
+		Log.info("Scraper Instantiated with a " + refreshIntervalInSeconds + " second interval refresh");
+		long initialDelay = refreshIntervalInSeconds;
+		if (coordinator != null) {
+			startWatching();
+			CensusSnapshot sharedSnapshot = coordinator.readShared();
+			if (sharedSnapshot != null) {
+				embeddedSnapshot = sharedSnapshot;
 			}
-		}, refreshIntervalInSeconds, refreshIntervalInSeconds, TimeUnit.SECONDS);
+		}
+		if (embeddedSnapshot != null) {
+			// Serve the snapshot baked in at build time (or shared by the fetching replica), and refresh from the live census in the background.
+			Log.info("Using the " + (coordinator != null ? "shared" : "embedded") + " census snapshot until the live census has been retrieved");
+			publish(embeddedSnapshot);
+			initialDelay = 0;
+		} else {
+			// Immediately download and initialize.
+			refresh();
+		}
+		scheduler.scheduleAtFixedRate(this::refresh, initialDelay, refreshIntervalInSeconds, TimeUnit.SECONDS);
+		if (coordinator != null) {
+			// Take over soon after the fetcher goes away, rather than at the next refresh
+			long pollMillis = coordinator.getLockPollInterval().toMillis();
+			scheduler.scheduleWithFixedDelay(this::pollFetcherLock, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+		}
 	}
 
 	/**
@@ -96,67 +133,186 @@ public class OpenjdkCensusScraper {
 	 */
 	public OpenjdkCensusScraper(String html) {
 		censusRetriever = new CensusRetriever();
+		snapshotPublished = null;
+		coordinator = null;
+		mappedCensus = null;
+		refreshIntervalInSeconds = 0;
 		initialize(html);
 	}
 
+	private void refresh() {
+		try {
+			if (coordinator != null) {
+				if (!coordinator.tryBecomeFetcher()) {
+					// Another replica fetches, new snapshots arrive through the shared directory
+					return;
+				}
+				if (snapshot != CensusSnapshot.EMPTY && snapshot.getTimestamp().isAfter(Instant.now().minusSeconds(refreshIntervalInSeconds / 2))) {
+					// Recently fetched, e.g. by the previous fetcher
+					return;
+				}
+			}
+			publish(censusRetriever.retrieveCensus(OpenjdkCensusScraper::parse));
+			if (coordinator != null) {
+				coordinator.share(snapshot);
+			}
+		} catch (IOException | InterruptedException e) {
+			Log.error(e);
+		} catch (RuntimeException e) {
+			// Must not propagate, or the scheduled refresh would stop
+			Log.error("Failed to refresh the census", e);
+		}
+	}
+
+	private void pollFetcherLock() {
+		if (!coordinator.isFetcher() && coordinator.tryBecomeFetcher()) {
+			// Fetches unless the previous fetcher recently did
+			refresh();
+		}
+	}
+
+	private void startWatching() {
+		try {
+			coordinator.watch(this::receive);
+		} catch (IOException e) {
+			Log.error("Could not watch for shared census snapshots, will only see the snapshots fetched by this replica", e);
+		}
+	}
+
+	/**
+	 * Publishes a snapshot shared by the fetching replica, unless already published.
+	 */
+	private synchronized void receive(CensusSnapshot sharedSnapshot) {
+		if (!sharedSnapshot.getVersion().equals(snapshot.getVersion()) && !sharedSnapshot.getTimestamp().isBefore(snapshot.getTimestamp())) {
+			Log.info("Loading census snapshot " + sharedSnapshot.getVersion() + " shared by the fetching replica");
+			publish(sharedSnapshot);
+		}
+	}
+
 	private void initialize(String html) {
-		Document doc = Jsoup.parse(html);
+		publish(parse(html));
+	}
+
+	private synchronized void publish(CensusSnapshot newSnapshot) {
+		CensusSnapshotEvent event = new CensusSnapshotEvent();
+		CensusSnapshot previousSnapshot = snapshot;
+		snapshot = newSnapshot;
+		if (event.shouldCommit()) {
+			event.previousVersion = previousSnapshot.getVersion();
+			event.version = newSnapshot.getVersion();
+			event.changed = !previousSnapshot.getVersion().equals(newSnapshot.getVersion());
+			event.commit();
+		}
+		if (snapshotPublished != null) {
+			snapshotPublished.fire(newSnapshot);
+		}
+		// Print results
+		Log.info("OpenJDK census snapshot version: " + newSnapshot.getVersion());
+		Log.info("OpenJDK groups found: " + newSnapshot.getGroups().size());
+		Log.info("OpenJDK projects found: " + newSnapshot.getProjects().size());
+		Log.info("OpenJDK people found: " + newSnapshot.getUserIds().size());
+	}
+
+	/**
+	 * Parses the census HTML. Does not log, so that it can be used outside of Quarkus, e.g. at
+	 * build time.
+	 */
+	static CensusSnapshot parse(String html) {
+		return parse(html, true);
+	}
+
+	/**
+	 * @param parallel
+	 *            false to parse the people one after the other, e.g. to verify the parallel
+	 *            parsing against.
+	 */
+	static CensusSnapshot parse(String html, boolean parallel) {
+		CensusParseEvent event = new CensusParseEvent();
+		event.begin();
+		return parse(Jsoup.parse(html), event, parallel);
+	}
 
+	/**
+	 * Parses the census HTML as it is read from the stream, without first reading it all.
+	 *
+	 * @param charset the charset, or null to detect it from the page.
+	 */
+	static CensusSnapshot parse(InputStream in, String charset) throws IOException {
+		CensusParseEvent event = new CensusParseEvent();
+		event.begin();
+		return parse(Jsoup.parse(in, charset, ""), event, true);
+	}
+
+	private static CensusSnapshot parse(Document doc, CensusParseEvent event, boolean parallel) {
 		Set<String> newUserIds = extractUserIds(doc);
 		Map<String, Group> newGroups = extractGroups(doc);
 		Map<String, Project> newProjects = extractProjects(doc);
-		Map<String, Person> newPeople = extractPeople(doc, newGroups, newProjects);
+		Map<String, Person> newPeople = extractPeople(doc, newGroups, newProjects, parallel);
 
-		synchronized (this) {
-			userIds = newUserIds;
-			groups = newGroups;
-			projects = newProjects;
-			people = newPeople;
+		CensusSnapshot newSnapshot = new CensusSnapshot(newUserIds, newGroups, newProjects, newPeople);
+		if (event.shouldCommit()) {
+			event.groups = newGroups.size();
+			event.projects = newProjects.size();
+			event.people = newPeople.size();
+			event.version = newSnapshot.getVersion();
+			event.commit();
 		}
-		// Print results
-		Log.info("OpenJDK groups found: " + groups.size());
-		Log.info("OpenJDK projects found: " + projects.size());
-		Log.info("OpenJDK people found: " + userIds.size());
+		return newSnapshot;
 	}
 
-	public synchronized Set<String> getUserIds() {
-		return new HashSet<>(userIds);
+	private static CensusSnapshot readEmbeddedSnapshot() {
+		try (InputStream in = OpenjdkCensusScraper.class.getClassLoader().getResourceAsStream(CensusSnapshotCodec.EMBEDDED_RESOURCE)) {
+			if (in == null) {
+				return null;
+			}
+			return CensusSnapshotCodec.read(in);
+		} catch (IOException e) {
+			Log.warn("Could not read the embedded census snapshot", e);
+			return null;
+		}
 	}
 
-	public synchronized Map<String, Group> getGroups() {
-		return new HashMap<>(groups);
+	/**
+	 * @return the currently published snapshot. All data read from one snapshot is consistent.
+	 */
+	public CensusSnapshot getSnapshot() {
+		return snapshot;
 	}
 
-	public synchronized Map<String, Project> getProjects() {
-		return new HashMap<>(projects);
+	/**
+	 * @return the census to answer from: the mapped census when reading one, else the currently
+	 *         published snapshot. Null if the mapped census has not been written yet.
+	 */
+	public CensusView getCensus() {
+		return mappedCensus != null && mappedCensus.isReader() ? mappedCensus.getCensus() : snapshot;
+	}
+
+	public Set<String> getUserIds() {
+		return new HashSet<>(snapshot.getUserIds());
+	}
+
+	public Map<String, Group> getGroups() {
+		return new HashMap<>(snapshot.getGroups());
 	}
 
-	public synchronized Map<String, Person> getPeople() {
-		return new HashMap<>(people);
+	public Map<String, Project> getProjects() {
+		return new HashMap<>(snapshot.getProjects());
+	}
+
+	public Map<String, Person> getPeople() {
+		return new HashMap<>(snapshot.getPeople());
 	}
 
 	public Set<Person> findPeople(String regexp) {
-		Pattern pattern = Pattern.compile(regexp);
-		Predicate<Person> predicate = person ->  pattern.matcher(person.getFullName()).find() || pattern.matcher(person.getUserid()).find();
-		synchronized (this) {
-			return people.values().stream().filter(predicate).collect(Collectors.toSet());
-		}
+		return snapshot.findPeople(regexp);
 	}
 
 	public Set<Project> findProjects(String regexp) {
-		Pattern pattern = Pattern.compile(regexp);
-		Predicate<Project> predicate = project ->  pattern.matcher(project.getFullName()).find() || pattern.matcher(project.getId()).find();
-		synchronized (this) {
-			return projects.values().stream().filter(predicate).collect(Collectors.toSet());
-		}
+		return snapshot.findProjects(regexp);
 	}
 
 	public Set<Group> findGroups(String regexp) {
-		Pattern pattern = Pattern.compile(regexp);
-		Predicate<Group> predicate = group ->  pattern.matcher(group.getFullName()).find() || pattern.matcher(group.getId()).find();
-		synchronized (this) {
-			return groups.values().stream().filter(predicate).collect(Collectors.toSet());
-		}
+		return snapshot.findGroups(regexp);
 	}
 
 
@@ -214,7 +370,13 @@ public class OpenjdkCensusScraper {
 		return projects;
 	}
 
-	private static Map<String, Person> extractPeople(Document doc, Map<String, Group> groups, Map<String, Project> projects) {
+	/**
+	 * Extracts the people in two passes. The rows of each person are first split into blocks,
+	 * which are then parsed in parallel, since that is where most of the time goes. The parsed
+	 * blocks are merged into the groups and projects in document order, so the result is the same
+	 * as when parsing sequentially.
+	 */
+	private static Map<String, Person> extractPeople(Document doc, Map<String, Group> groups, Map<String, Project> projects, boolean parallel) {
 		Map<String, Person> people = new HashMap<>();
 
 		Element peopleSection = doc.select("tr.part#people").first();
@@ -222,51 +384,93 @@ public class OpenjdkCensusScraper {
 			return people; // Return empty map if people section not found
 		}
 
-		Element current = peopleSection.nextElementSibling();
-		while (current != null && !current.hasClass("part")) {
-			if (current.hasClass("section")) {
-				String userId = current.id();
-				String fullName = current.select("td > span").get(1).text();
-				Person person = new Person(userId, fullName);
-				people.put(userId, person);
-
-				current = current.nextElementSibling();
-				while (current != null && !current.hasClass("section") && !current.hasClass("part")) {
-					if (current.hasClass("role")) {
-						String role = current.select("td").get(1).text();
-						current = current.nextElementSibling();
-						while (current != null && !current.hasClass("role") && !current.hasClass("section") && !current.hasClass("part")) {
-							Element linkElement = current.select("td > a").first();
-							if (linkElement != null) {
-								String affiliationId = linkElement.attr("href").substring(1);
-								String entityRole = current.select("td").get(1).text();
-								String[] parts = entityRole.split("–");
-								String affiliationName = parts[0].trim();
-								String roleName = parts.length > 1 ? parts[1].trim() : "Member";
-
-
-								Affiliation affiliation = null;
-								if (role.equals("Groups")) {
-									affiliation = groups.get(affiliationId);
-								} else if (role.equals("Projects")) {
-									affiliation = projects.get(affiliationId);
-								}
-								updateAffiliation(affiliation, affiliationName, userId, roleName);
-								person.addAffiliation(affiliationId, affiliation);
-							}
-							current = current.nextElementSibling();
-						}
-					} else {
-						current = current.nextElementSibling();
-					}
+		List<List<Element>> blocks = splitPersonBlocks(peopleSection);
+		List<PersonEntry> entries = (parallel ? blocks.parallelStream() : blocks.stream()).map(OpenjdkCensusScraper::parsePersonBlock)
+				.collect(Collectors.toList());
+
+		for (PersonEntry entry : entries) {
+			Person person = new Person(entry.userId, entry.fullName);
+			people.put(entry.userId, person);
+			for (MembershipEntry membership : entry.memberships) {
+				Affiliation affiliation = null;
+				if (membership.kind.equals("Groups")) {
+					affiliation = groups.get(membership.affiliationId);
+				} else if (membership.kind.equals("Projects")) {
+					affiliation = projects.get(membership.affiliationId);
 				}
-			} else {
-				current = current.nextElementSibling();
+				updateAffiliation(affiliation, membership.affiliationName, entry.userId, membership.role);
+				person.addAffiliation(membership.affiliationId, affiliation);
 			}
 		}
 		return people;
 	}
 
+	/**
+	 * Walks the siblings of the people section and groups them per person, the section row first.
+	 * Done up front so that the parallel parsing never has to navigate between rows.
+	 */
+	private static List<List<Element>> splitPersonBlocks(Element peopleSection) {
+		List<List<Element>> blocks = new ArrayList<>();
+		List<Element> block = null;
+		for (Element current = peopleSection.nextElementSibling(); current != null && !current.hasClass("part"); current = current.nextElementSibling()) {
+			if (current.hasClass("section")) {
+				block = new ArrayList<>();
+				blocks.add(block);
+			}
+			if (block != null) {
+				block.add(current);
+			}
+		}
+		return blocks;
+	}
+
+	private static PersonEntry parsePersonBlock(List<Element> rows) {
+		Element section = rows.get(0);
+		PersonEntry entry = new PersonEntry(section.id(), section.select("td > span").get(1).text());
+		String kind = null;
+		for (Element row : rows.subList(1, rows.size())) {
+			if (row.hasClass("role")) {
+				kind = row.select("td").get(1).text();
+			} else if (kind != null) {
+				Element linkElement = row.select("td > a").first();
+				if (linkElement != null) {
+					String affiliationId = linkElement.attr("href").substring(1);
+					String entityRole = row.select("td").get(1).text();
+					String[] parts = entityRole.split("–");
+					String affiliationName = parts[0].trim();
+					String roleName = parts.length > 1 ? parts[1].trim() : "Member";
+					entry.memberships.add(new MembershipEntry(kind, affiliationId, affiliationName, roleName));
+				}
+			}
+		}
+		return entry;
+	}
+
+	private static final class PersonEntry {
+		private final String userId;
+		private final String fullName;
+		private final List<MembershipEntry> memberships = new ArrayList<>();
+
+		PersonEntry(String userId, String fullName) {
+			this.userId = userId;
+			this.fullName = fullName;
+		}
+	}
+
+	private static final class MembershipEntry {
+		private final String kind;
+		private final String affiliationId;
+		private final String affiliationName;
+		private final String role;
+
+		MembershipEntry(String kind, String affiliationId, String affiliationName, String role) {
+			this.kind = kind;
+			this.affiliationId = affiliationId;
+			this.affiliationName = affiliationName;
+			this.role = role;
+		}
+	}
+
 	private static void updateAffiliation(Affiliation affiliation, String fullName, String userId, String role) {
 		affiliation.addMember(userId, role);
 
@@ -278,5 +482,8 @@ public class OpenjdkCensusScraper {
 	public void shutdown() {
 		Log.info("Shutting down census updater...");
 		scheduler.shutdown();
+		if (coordinator != null) {
+			coordinator.close();
+		}
 	}
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import java.util.*;
+
+/**
+ * Secondary indexes over the roles in a snapshot, so that role queries do not have to scan all
+ * affiliations. Roles are matched case insensitively.
+ */
+public final class RoleIndex {
+	// affiliation -> role -> userid -> role as written in the census
+	private final Map<Affiliation, Map<String, Map<String, String>>> membersByRole = new HashMap<>();
+	// role -> userid -> affiliations in which the person has the role
+	private final Map<String, Map<String, List<Affiliation>>> affiliationsByRole = new HashMap<>();
+	// userid -> affiliation -> role
+	private final Map<String, Map<Affiliation, String>> rolesByPerson = new HashMap<>();
+
+	RoleIndex(Collection<Group> groups, Collection<Project> projects) {
+		add(groups);
+		add(projects);
+		// The lists are handed out as they are, inside the views returned by getAffiliations
+		for (Map<String, List<Affiliation>> people : affiliationsByRole.values()) {
+			people.replaceAll((userId, affiliations) -> Collections.unmodifiableList(affiliations));
+		}
+	}
+
+	private void add(Collection<? extends Affiliation> affiliations) {
+		for (Affiliation affiliation : affiliations) {
+			for (Map.Entry<String, String> member : affiliation.getMembers().entrySet()) {
+				String userId = member.getKey();
+				String key = normalize(member.getValue());
+				membersByRole.computeIfAbsent(affiliation, a -> new HashMap<>()).computeIfAbsent(key, r -> new HashMap<>())
+						.put(userId, member.getValue());
+				affiliationsByRole.computeIfAbsent(key, r -> new HashMap<>()).computeIfAbsent(userId, u -> new ArrayList<>()).add(affiliation);
+				rolesByPerson.computeIfAbsent(userId, u -> new HashMap<>()).put(affiliation, member.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return the members of the affiliation having the role, mapped to their role.
+	 */
+	public Map<String, String> getMembers(Affiliation affiliation, String role) {
+		return Collections.unmodifiableMap(
+				membersByRole.getOrDefault(affiliation, Collections.emptyMap()).getOrDefault(normalize(role), Collections.emptyMap()));
+	}
+
+	/**
+	 * @return the people having the role in at least one affiliation, mapped to the affiliations
+	 *         in which they have it.
+	 */
+	public Map<String, List<Affiliation>> getAffiliations(String role) {
+		return Collections.unmodifiableMap(affiliationsByRole.getOrDefault(normalize(role), Collections.emptyMap()));
+	}
+
+	/**
+	 * @return the affiliations in which the person has the role.
+	 */
+	public List<Affiliation> getAffiliations(String role, String userId) {
+		return getAffiliations(role).getOrDefault(userId, Collections.emptyList());
+	}
+
+	/**
+	 * @return the roles of a person, per affiliation.
+	 */
+	public Map<Affiliation, String> getRoles(String userId) {
+		return Collections.unmodifiableMap(rolesByPerson.getOrDefault(userId, Collections.emptyMap()));
+	}
+
+	/**
+	 * @return all roles found in the census, in lower case.
+	 */
+	public Set<String> getRoleNames() {
+		return Collections.unmodifiableSet(affiliationsByRole.keySet());
+	}
+
+	private static String normalize(String role) {
+		return role.trim().toLowerCase(Locale.ROOT);
+	}
+
+	long estimateSize(HeapEstimator estimator) {
+		long size = estimator.object(3, 0) + estimator.hashMap(membersByRole.size());
+		for (Map<String, Map<String, String>> roles : membersByRole.values()) {
+			size += estimator.hashMap(roles.size());
+			for (Map.Entry<String, Map<String, String>> role : roles.entrySet()) {
+				size += estimator.string(role.getKey()) + estimator.hashMap(role.getValue().size());
+			}
+		}
+		size += estimator.hashMap(affiliationsByRole.size());
+		for (Map.Entry<String, Map<String, List<Affiliation>>> role : affiliationsByRole.entrySet()) {
+			size += estimator.string(role.getKey()) + estimator.hashMap(role.getValue().size());
+			for (List<Affiliation> affiliations : role.getValue().values()) {
+				size += estimator.arrayList(affiliations.size());
+			}
+		}
+		size += estimator.hashMap(rolesByPerson.size());
+		for (Map<Affiliation, String> roles : rolesByPerson.values()) {
+			size += estimator.hashMap(roles.size());
+		}
+		return size;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.github;
+
+import io.quarkus.logging.Log;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import se.hirt.openjdk.helper.AdaptiveConcurrencyLimit;
+import se.hirt.openjdk.helper.ConcurrencyLimitExceededException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * All outbound GitHub requests go through here. Keeps track of the rate limit budget reported in
+ * the response headers, and limits the number of concurrent requests with an
+ * {@link AdaptiveConcurrencyLimit}, which backs off when GitHub gets slow or fails. When requests
+ * have to wait, interactive ones go before bulk ones, and none waits longer than
+ * <code>github.scheduler.max-wait</code> before being refused. When the remaining budget drops to the reserve,
+ * bulk requests are refused, so that the rest of the budget is kept for interactive use. Once the
+ * budget is exhausted, all requests are refused until it resets, without asking GitHub.
+ */
+@ApplicationScoped
+public class GitHubRequestScheduler {
+	public enum Priority {
+		/**
+		 * A cheap request a user is waiting for, e.g. one of the first pages of a listing, until its maxresults is met.
+		 */
+		INTERACTIVE,
+		/**
+		 * Part of a larger crawl, e.g. for analytics or for keeping the stored pull requests in sync, or the pages of a listing beyond the first few.
+		 */
+		BULK
+	}
+
+	private static final long UNKNOWN = -1;
+
+	@ConfigProperty(name = "github.scheduler.max-concurrent", defaultValue = "8")
+	int maxConcurrent;
+
+	@ConfigProperty(name = "github.scheduler.bulk-reserve", defaultValue = "0.2")
+	double bulkReserve;
+
+	@ConfigProperty(name = "github.scheduler.max-wait", defaultValue = "1s")
+	Duration maxWait;
+
+	@ConfigProperty(name = "github.scheduler.latency-threshold", defaultValue = "5s")
+	Duration latencyThreshold;
+
+	private AdaptiveConcurrencyLimit concurrencyLimit;
+	private int waitingInteractive;
+	private long limit = UNKNOWN;
+	private long remaining = UNKNOWN;
+	private long resetEpochSeconds = UNKNOWN;
+	private long blockedUntilMillis;
+
+	@PostConstruct
+	void initialize() {
+		concurrencyLimit = new AdaptiveConcurrencyLimit("github", maxConcurrent, maxConcurrent, latencyThreshold);
+	}
+
+	/**
+	 * Reads a response while the request still holds its share of the concurrency limit.
+	 */
+	@FunctionalInterface
+	public interface ResponseHandler<T> {
+		T handle(Response response) throws IOException;
+	}
+
+	/**
+	 * Executes the request when the budget and concurrency allow, and hands the response to the
+	 * handler. The request counts against the concurrency limit until the handler is done with the
+	 * entity, since that is when GitHub is done sending it, and the response is closed after.
+	 *
+	 * @throws RateLimitedException if the budget is exhausted, or too low for bulk requests; also
+	 *                              if GitHub responds that the rate limit has been exceeded.
+	 * @throws ConcurrencyLimitExceededException if the request could not start within the
+	 *                              maximum wait.
+	 * @throws IOException if the handler could not read the response.
+	 */
+	public <T> T execute(Priority priority, Supplier<Response> request, ResponseHandler<T> handler)
+			throws RateLimitedException, ConcurrencyLimitExceededException, InterruptedException, IOException {
+		long start = acquire(priority);
+		Response response = null;
+		boolean handled = false;
+		try {
+			response = request.get();
+			update(response);
+			if (isRateLimited(response)) {
+				throw new RateLimitedException("GitHub API rate limit exceeded", secondsUntil(blockedUntilMillis));
+			}
+			T result = handler.handle(response);
+			handled = true;
+			return result;
+		} finally {
+			if (response != null) {
+				response.close();
+			}
+			// Failures, including timeouts while reading the entity, and overloaded responses make the
+			// limit back off; error responses the handler refuses do not
+			release(start, response == null || response.getStatus() >= 500 || (!handled && response.getStatus() < 300));
+		}
+	}
+
+	/**
+	 * @return the remaining budget as last reported by GitHub, less the requests made since, or
+	 *         -1 if not known.
+	 */
+	public synchronized long getRemaining() {
+		return remaining;
+	}
+
+	public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	/**
+	 * @return the start time of the request.
+	 */
+	private synchronized long acquire(Priority priority) throws RateLimitedException, ConcurrencyLimitExceededException, InterruptedException {
+		checkBudget(priority);
+		long deadline = System.nanoTime() + maxWait.toNanos();
+		if (priority == Priority.INTERACTIVE) {
+			waitingInteractive++;
+			try {
+				while (!concurrencyLimit.hasCapacity()) {
+					awaitCapacity(deadline);
+				}
+			} finally {
+				waitingInteractive--;
+			}
+		} else {
+			while (!concurrencyLimit.hasCapacity() || waitingInteractive > 0) {
+				awaitCapacity(deadline);
+				// The budget may have been used up while waiting
+				checkBudget(priority);
+			}
+		}
+		long start = concurrencyLimit.tryAcquire();
+		if (remaining > 0) {
+			// Count the request now, so that concurrent requests do not all see the same budget
+			remaining--;
+		}
+		return start;
+	}
+
+	private void awaitCapacity(long deadline) throws ConcurrencyLimitExceededException, InterruptedException {
+		long remainingNanos = deadline - System.nanoTime();
+		if (remainingNanos <= 0) {
+			concurrencyLimit.onRejected();
+			notifyAll();
+			throw new ConcurrencyLimitExceededException(
+					"Too many concurrent GitHub requests (limit " + concurrencyLimit.getLimit() + ")");
+		}
+		TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+	}
+
+	private synchronized void release(long start, boolean dropped) {
+		concurrencyLimit.release(start, dropped);
+		notifyAll();
+	}
+
+	private void checkBudget(Priority priority) throws RateLimitedException {
+		long now = System.currentTimeMillis();
+		if (now < blockedUntilMillis) {
+			throw new RateLimitedException("GitHub API rate limit exhausted", secondsUntil(blockedUntilMillis));
+		}
+		if (resetEpochSeconds != UNKNOWN && now >= resetEpochSeconds * 1000) {
+			// A new window, the budget is unknown until the next response
+			remaining = UNKNOWN;
+			resetEpochSeconds = UNKNOWN;
+		}
+		if (priority == Priority.BULK && remaining != UNKNOWN && limit != UNKNOWN && remaining <= limit * bulkReserve) {
+			throw new RateLimitedException("GitHub API rate limit budget reserved for interactive requests", secondsUntil(resetEpochSeconds * 1000));
+		}
+	}
+
+	private synchronized void update(Response response) {
+		long reportedLimit = parseHeader(response, "X-RateLimit-Limit");
+		long reportedRemaining = parseHeader(response, "X-RateLimit-Remaining");
+		long reportedReset = parseHeader(response, "X-RateLimit-Reset");
+		if (reportedLimit != UNKNOWN) {
+			limit = reportedLimit;
+		}
+		if (reportedRemaining != UNKNOWN) {
+			// Responses to concurrent requests may arrive out of order, so within a window, keep the lowest
+			remaining = reportedReset != resetEpochSeconds || remaining == UNKNOWN ? reportedRemaining : Math.min(remaining, reportedRemaining);
+		}
+		if (reportedReset != UNKNOWN) {
+			resetEpochSeconds = reportedReset;
+		}
+		if (isRateLimited(response)) {
+			long retryAfter = parseHeader(response, "Retry-After");
+			if (retryAfter != UNKNOWN) {
+				blockedUntilMillis = System.currentTimeMillis() + retryAfter * 1000;
+			} else if (resetEpochSeconds != UNKNOWN) {
+				blockedUntilMillis = resetEpochSeconds * 1000;
+			} else {
+				blockedUntilMillis = System.currentTimeMillis() + 60_000;
+			}
+			Log.warn("GitHub API rate limit exceeded, holding all requests for " + secondsUntil(blockedUntilMillis) + " seconds");
+		} else if (remaining == 0 && resetEpochSeconds != UNKNOWN) {
+			blockedUntilMillis = resetEpochSeconds * 1000;
+		}
+	}
+
+	/**
+	 * GitHub responds with 403 or 429 when the primary or a secondary rate limit is exceeded.
+	 */
+	private static boolean isRateLimited(Response response) {
+		int status = response.getStatus();
+		return (status == 403 || status == 429)
+				&& (response.getHeaderString("Retry-After") != null || "0".equals(response.getHeaderString("X-RateLimit-Remaining")));
+	}
+
+	private static long secondsUntil(long millis) {
+		return (millis - System.currentTimeMillis() + 999) / 1000;
+	}
+
+	static long parseHeader(Response response, String name) {
+		String value = response.getHeaderString(name);
+		if (value == null) {
+			return UNKNOWN;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return UNKNOWN;
+		}
+	}
+}
@@ -31,63 +31,171 @@
  */
 package se.hirt.openjdk.helper.github;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.quarkus.logging.Log;
+import io.vertx.core.http.HttpServerRequest;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.ClientBuilder;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+import se.hirt.openjdk.helper.ConcurrencyLimitExceededException;
+import se.hirt.openjdk.helper.InboundRateLimiter;
 
-import java.util.List;
-import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Path("/github")
 public class GitHubResource {
-	private static final String GITHUB_API_BASE_URL = "https://api.github.com/";
-	private static final String GITHUB_API_BASE_USER_URL = GITHUB_API_BASE_URL + "users/";
-	private final Client client = ClientBuilder.newClient();
+	private static final List<String> REPO_FIELDS = List.of("name", "description", "stars", "created_at", "pushed_at", "updated_at");
+	private static final List<String> PULL_FIELDS = List.of("state", "number", "title", "created_at", "updated_at", "closed_at", "merged_at",
+			"body", "user");
+	private static final List<String> DEFAULT_PULL_FIELDS = List.of("state", "number", "title", "created_at", "updated_at", "body", "user");
+	// Pages of a listing that are fetched as interactive requests, while the caller's maxresults is unmet
+	private static final int INTERACTIVE_PAGES = 3;
+
+	@ConfigProperty(name = "github.api.url", defaultValue = "https://api.github.com/")
+	String gitHubApiBaseUrl;
+
+	@ConfigProperty(name = "github.request-timeout", defaultValue = "10s")
+	Duration requestTimeout;
+
+	@Inject
+	GitHubRequestScheduler scheduler;
+
+	@ConfigProperty(name = "github.fan-out.parallelism", defaultValue = "8")
+	int fanOutParallelism;
+
+	@ConfigProperty(name = "github.fan-out.per-request", defaultValue = "4")
+	int fanOutPerRequest;
+
+	@ConfigProperty(name = "github.fan-out.deadline", defaultValue = "30s")
+	Duration fanOutDeadline;
+
+	@ConfigProperty(name = "github.fan-out.max-repos", defaultValue = "50")
+	int fanOutMaxRepos;
+
+	@ConfigProperty(name = "github.webhook.secret")
+	Optional<String> webhookSecret;
+
+	@ConfigProperty(name = "github.webhook.resync-interval", defaultValue = "24h")
+	Duration resyncInterval;
+
+	@Inject
+	PullRequestAnalytics analytics;
+
+	@Inject
+	PullRequestStore pullStore;
+
+	@Inject
+	InboundRateLimiter rateLimiter;
+
+	private Client client;
+	private ExecutorService fanOutExecutor;
+	private ExecutorService syncExecutor;
 	private final ObjectMapper objectMapper = new ObjectMapper();
 
+	@PostConstruct
+	void initialize() {
+		// Every call has a deadline, so that a slow GitHub cannot hold on to our threads
+		client = ClientBuilder.newBuilder().connectTimeout(requestTimeout.toMillis(), TimeUnit.MILLISECONDS)
+				.readTimeout(requestTimeout.toMillis(), TimeUnit.MILLISECONDS).build();
+		AtomicInteger threads = new AtomicInteger();
+		fanOutExecutor = Executors.newFixedThreadPool(fanOutParallelism, task -> {
+			Thread thread = new Thread(task, "github-fan-out-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		// One store crawl at a time, they are bulk anyway
+		syncExecutor = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "github-sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	void close() {
+		fanOutExecutor.shutdownNow();
+		syncExecutor.shutdownNow();
+	}
+
 	@GET
 	@Path("/repos")
 	@Produces(MediaType.APPLICATION_JSON)
 	public Response getRepositories(
 			@QueryParam("user") @Parameter(description = "The user for which to list the repositories.", example = "thegreystone")
-			String user) {
+			String user,
+			@QueryParam("fields") @Parameter(description = "Comma separated fields to include, out of name, description, stars, created_at, pushed_at and updated_at. Defaults to all.", example = "name,stars")
+			String fields,
+			@QueryParam("bodymax") @Parameter(description = "The maximum number of characters of the description to include. Defaults to -1, which means all of it.", example = "200")
+			@DefaultValue("-1") int bodyMax,
+			@Context HttpServerRequest request) {
+		InboundRateLimiter.GitHubCharge caller = rateLimiter.startGitHubCharge(request);
 		if (user == null || user.isEmpty()) {
 			return Response.status(Response.Status.BAD_REQUEST).entity("User parameter is required").build();
 		}
-
-		String apiUrl = GITHUB_API_BASE_USER_URL + user + "/repos";
-
+		Set<String> selectedFields;
 		try {
-			Response response = client.target(apiUrl).request(MediaType.APPLICATION_JSON).get();
-
-			if (response.getStatus() != 200) {
-				return Response.status(response.getStatus()).entity("Error fetching data from GitHub API").build();
-			}
+			selectedFields = parseFields(fields, REPO_FIELDS, REPO_FIELDS);
+		} catch (IllegalArgumentException e) {
+			return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+		}
 
-			String jsonResponse = response.readEntity(String.class);
-			@SuppressWarnings("unchecked") List<Map<String, Object>> repos = objectMapper.readValue(jsonResponse, List.class);
+		String apiUrl = gitHubApiBaseUrl + "users/" + user + "/repos";
 
+		try {
 			ArrayNode condensedRepos = objectMapper.createArrayNode();
-
-			for (Map<String, Object> repo : repos) {
-				ObjectNode condensedRepo = objectMapper.createObjectNode();
-				condensedRepo.put("name", (String) repo.get("name"));
-				condensedRepo.put("description", (String) repo.get("description"));
-				condensedRepo.put("stars", ((Integer) repo.get("stargazers_count")).intValue());
-				condensedRepo.put("created_at", (String) repo.get("created_at"));
-				condensedRepo.put("pushed_at", (String) repo.get("pushed_at"));
-				condensedRepo.put("updated_at", (String) repo.get("updated_at"));
-				condensedRepos.add(condensedRepo);
-			}
+			get(apiUrl, GitHubRequestScheduler.Priority.INTERACTIVE, caller, response -> forEachElement(response, repo -> {
+				condensedRepos.add(condenseRepository(repo, selectedFields, bodyMax));
+				return true;
+			}));
 
 			return Response.ok(condensedRepos.toString()).build();
 
+		} catch (UnexpectedStatusException e) {
+			return unexpectedStatusResponse(e);
+		} catch (RateLimitedException e) {
+			return rateLimitedResponse(e);
+		} catch (ConcurrencyLimitExceededException e) {
+			return overloadedResponse(e);
+		} catch (ProcessingException e) {
+			return unreachableResponse(e);
 		} catch (Exception e) {
 			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Error processing request: " + e.getMessage()).build();
 		}
@@ -106,10 +214,22 @@ public class GitHubResource {
 			@DefaultValue("created") String sort,
 			@QueryParam("direction") @Parameter(description = "The sort order, [asc|desc]", example = "desc")
 			@DefaultValue("desc") String direction,
-			@QueryParam("maxresults") @Parameter(description = "The maximum number of results. Defaults to -1 which means as many as we can get. Tips: to get the oldest PR, set maxresults to 1, sort to created and set the sort order to asc. To get the newest, set the sort order to desc.", example = "100") @DefaultValue("-1") int maxResults) {
+			@QueryParam("maxresults") @Parameter(description = "The maximum number of results. Defaults to -1 which means as many as we can get. Tips: to get the oldest PR, set maxresults to 1, sort to created and set the sort order to asc. To get the newest, set the sort order to desc.", example = "100") @DefaultValue("-1") int maxResults,
+			@QueryParam("fields") @Parameter(description = "Comma separated fields to include, out of state, number, title, created_at, updated_at, closed_at, merged_at, body and user. Defaults to all but closed_at and merged_at.", example = "number,title,user")
+			String fields,
+			@QueryParam("bodymax") @Parameter(description = "The maximum number of characters of each body to include; truncated bodies are marked with body_truncated. Defaults to -1, which means all of it. Use /github/pulls/{number} to get a full body.", example = "200")
+			@DefaultValue("-1") int bodyMax,
+			@Context HttpServerRequest request) {
+		InboundRateLimiter.GitHubCharge caller = rateLimiter.startGitHubCharge(request);
 		if (owner == null || owner.isEmpty() || repo == null || repo.isEmpty()) {
 			return Response.status(Response.Status.BAD_REQUEST).entity("Both owner and repo parameters are required").build();
 		}
+		Set<String> selectedFields;
+		try {
+			selectedFields = parseFields(fields, PULL_FIELDS, DEFAULT_PULL_FIELDS);
+		} catch (IllegalArgumentException e) {
+			return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+		}
 
 		if (state == null || state.isEmpty()) {
 			state = "open";
@@ -128,68 +248,709 @@ public class GitHubResource {
 			}
 		}
 		if (maxResults == -1) maxResults = Integer.MAX_VALUE;
+		int limit = maxResults;
+		String login = user == null || user.isEmpty() ? null : user.trim();
 
 		try {
 			ArrayNode condensedPulls = objectMapper.createArrayNode();
+			// GitHub's popularity and long-running orders cannot be reproduced from the stored fields
+			PullRequestStore.RepositoryPulls stored = sort.equals("created") || sort.equals("updated") ? pullStore.get(owner, repo) : null;
+			if (stored != null) {
+				syncPullRequests(owner, repo, stored);
+			}
+			// Until the store has been filled, GitHub answers
+			if (stored != null && stored.isSynced()) {
+				for (JsonNode pull : stored.list(state, login, sort + "_at", "asc".equals(direction), limit)) {
+					condensedPulls.add(condensePullRequest(pull, selectedFields, bodyMax, true));
+				}
+				return Response.ok(condensedPulls.toString()).build();
+			}
+
 			int page = 1;
-			int matchingEntries = 0;
-			List<Map<String, Object>> pulls;
+			int pageSize;
 
 			do {
-				String apiUrl = String.format("%srepos/%s/%s/pulls?state=%s&per_page=100&page=%d&sort=%s&direction=%s", GITHUB_API_BASE_URL, owner, repo, state,
+				String apiUrl = String.format("%srepos/%s/%s/pulls?state=%s&per_page=100&page=%d&sort=%s&direction=%s", gitHubApiBaseUrl, owner, repo, state,
 						page, sort, direction);
-				Response response = client.target(apiUrl).request(MediaType.APPLICATION_JSON).get();
-
-				if (response.getStatus() != 200) {
-					return Response.status(response.getStatus()).entity("Error fetching data from GitHub API").build();
+				pageSize = get(apiUrl, listingPriority(page), caller,
+						response -> forEachElement(response, pull -> {
+							analytics.record(owner, repo, pull);
+							if (login != null && pull.path("user").has("login") && !login.equals(pull.path("user").path("login").asText())) {
+								return true;
+							}
+							condensedPulls.add(condensePullRequest(pull, selectedFields, bodyMax, true));
+							return condensedPulls.size() < limit;
+						}));
+				if (condensedPulls.size() >= limit) {
+					break;
 				}
+				page++;
+			} while (pageSize == 100);
+
+			return Response.ok(condensedPulls.toString()).build();
+		} catch (UnexpectedStatusException e) {
+			return unexpectedStatusResponse(e);
+		} catch (RateLimitedException e) {
+			return rateLimitedResponse(e);
+		} catch (ConcurrencyLimitExceededException e) {
+			return overloadedResponse(e);
+		} catch (ProcessingException e) {
+			return unreachableResponse(e);
+		} catch (Exception e) {
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Error processing request: " + e.getMessage()).build();
+		}
+	}
+
+	@GET
+	@Path("/repos/pulls")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getPullRequestsAcrossRepositories(
+			@QueryParam("owner") @Parameter(description = "The owner of the repositories", example = "openjdk", required = true) String owner,
+			@QueryParam("repos") @Parameter(description = "Comma separated names of the repositories", example = "jdk,jmc,jmc-agent,skara") String repos,
+			@QueryParam("match") @Parameter(description = "A regular expression matching the names of the repositories of the owner to use, instead of repos", example = "^jmc")
+			String match,
+			@QueryParam("user") @Parameter(description = "The user opening the PR (optional)", example = "thegreystone") String user,
+			@QueryParam("state") @Parameter(description = "The state of the PRs to list, [open|closed|all]", example = "open")
+			@DefaultValue("open") String state,
+			@QueryParam("sort") @Parameter(description = "In what order to merge the results, [created|updated]", example = "created")
+			@DefaultValue("created") String sort,
+			@QueryParam("direction") @Parameter(description = "The sort order, [asc|desc]", example = "desc")
+			@DefaultValue("desc") String direction,
+			@QueryParam("maxresults") @Parameter(description = "The maximum number of results, from all the repositories together. Defaults to -1 which means as many as we can get.", example = "100")
+			@DefaultValue("-1") int maxResults,
+			@QueryParam("fields") @Parameter(description = "Comma separated fields to include, out of state, number, title, created_at, updated_at, closed_at, merged_at, body and user. Defaults to all but closed_at and merged_at. The repo is always included.", example = "number,title,user")
+			String fields,
+			@QueryParam("bodymax") @Parameter(description = "The maximum number of characters of each body to include; truncated bodies are marked with body_truncated. Defaults to -1, which means all of it.", example = "200")
+			@DefaultValue("-1") int bodyMax,
+			@Context HttpServerRequest request) {
+		InboundRateLimiter.GitHubCharge caller = rateLimiter.startGitHubCharge(request);
+		boolean hasRepos = repos != null && !repos.trim().isEmpty();
+		boolean hasMatch = match != null && !match.isEmpty();
+		if (owner == null || owner.isEmpty() || hasRepos == hasMatch) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("The owner parameter, and either repos or match, are required").build();
+		}
+		Set<String> selectedFields;
+		Pattern pattern;
+		try {
+			selectedFields = parseFields(fields, PULL_FIELDS, DEFAULT_PULL_FIELDS);
+			pattern = hasMatch ? Pattern.compile(match) : null;
+		} catch (IllegalArgumentException e) {
+			return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+		}
+		state = state == null || state.isEmpty() ? "open" : state.trim();
+		if (!(state.equals("open") || state.equals("closed") || state.equals("all"))) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("Invalid state: " + state).build();
+		}
+		// Only orders that can be compared across repositories
+		sort = sort == null || sort.isEmpty() ? "created" : sort.trim();
+		if (!(sort.equals("created") || sort.equals("updated"))) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("Invalid sort: " + sort + ", expected created or updated").build();
+		}
+		String login = user == null || user.isEmpty() ? null : user.trim();
+		String pullState = state;
+		String pullSort = sort;
+		MergedPullRequests merged = new MergedPullRequests(sort + "_at", "asc".equals(direction), maxResults == -1 ? Integer.MAX_VALUE : maxResults);
 
-				String jsonResponse = response.readEntity(String.class);
-				//noinspection unchecked
-				pulls = objectMapper.readValue(jsonResponse, List.class);
+		List<Future<Void>> crawls = new ArrayList<>();
+		try {
+			List<String> names = new ArrayList<>();
+			if (hasRepos) {
+				Arrays.stream(repos.split(",")).map(String::trim).filter(name -> !name.isEmpty()).distinct().forEach(names::add);
+			} else {
+				findRepositories(owner, pattern, caller, names);
+			}
+			if (names.size() > fanOutMaxRepos) {
+				return Response.status(Response.Status.BAD_REQUEST)
+						.entity("Too many repositories: " + names.size() + ", at most " + fanOutMaxRepos + " can be listed at once").build();
+			}
 
-				for (Map<String, Object> pull : pulls) {
-					ObjectNode condensedPull = objectMapper.createObjectNode();
+			// The repositories are crawled concurrently, a few at a time, so that one request cannot
+			// take all threads. No crawl outlives the request: the first failure, or the deadline,
+			// ends the request, and the finally block cancels whatever is still running
+			CompletionService<Void> completion = new ExecutorCompletionService<>(fanOutExecutor);
+			Function<String, Callable<Void>> crawl = name -> () -> {
+				mergePullRequests(owner, name, pullState, pullSort, direction, login, selectedFields, bodyMax, caller, merged);
+				return null;
+			};
+			Iterator<String> pending = names.iterator();
+			while (crawls.size() < fanOutPerRequest && pending.hasNext()) {
+				crawls.add(completion.submit(crawl.apply(pending.next())));
+			}
+			long deadline = System.nanoTime() + fanOutDeadline.toNanos();
+			for (int completed = 0; completed < names.size(); completed++) {
+				Future<Void> done = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (done == null) {
+					return Response.status(Response.Status.GATEWAY_TIMEOUT).entity("Could not list the pull requests of " + (names.size() - completed)
+							+ " of the repositories within " + fanOutDeadline.toSeconds() + " seconds").build();
+				}
+				done.get();
+				if (pending.hasNext()) {
+					crawls.add(completion.submit(crawl.apply(pending.next())));
+				}
+			}
 
-					condensedPull.put("state", (String) pull.get("state"));
-					condensedPull.put("number", (Integer) pull.get("number"));
-					condensedPull.put("title", (String) pull.get("title"));
-					condensedPull.put("created_at", (String) pull.get("created_at"));
-					condensedPull.put("updated_at", (String) pull.get("updated_at"));
+			ArrayNode condensedPulls = objectMapper.createArrayNode();
+			merged.getResults().forEach(condensedPulls::add);
+			return Response.ok(condensedPulls.toString()).build();
+		} catch (ExecutionException e) {
+			return crawlFailedResponse(e.getCause());
+		} catch (UnexpectedStatusException e) {
+			return unexpectedStatusResponse(e);
+		} catch (RateLimitedException e) {
+			return rateLimitedResponse(e);
+		} catch (ConcurrencyLimitExceededException e) {
+			return overloadedResponse(e);
+		} catch (ProcessingException e) {
+			return unreachableResponse(e);
+		} catch (Exception e) {
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Error processing request: " + e.getMessage()).build();
+		} finally {
+			crawls.forEach(crawl -> crawl.cancel(true));
+		}
+	}
 
-					String body = (String) pull.get("body");
-					if (body != null) {
-						int markerIndex = body.indexOf("<!--");
-						if (markerIndex != -1) {
-							body = body.substring(0, markerIndex).trim();
+	@GET
+	@Path("/pulls/{number}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getPullRequest(
+			@QueryParam("owner") @Parameter(description = "The owner of the repository", example = "openjdk", required = true) String owner,
+			@QueryParam("repo") @Parameter(description = "The name of the repository", example = "jmc", required = true) String repo,
+			@PathParam("number") @Parameter(description = "The number of the PR", example = "1") int number,
+			@QueryParam("fields") @Parameter(description = "Comma separated fields to include, out of state, number, title, created_at, updated_at, closed_at, merged_at, body and user. Defaults to all.", example = "title,body")
+			String fields,
+			@QueryParam("bodymax") @Parameter(description = "The maximum number of characters of the body to include. Defaults to -1, which means all of it.", example = "-1")
+			@DefaultValue("-1") int bodyMax,
+			@Context HttpServerRequest request) {
+		InboundRateLimiter.GitHubCharge caller = rateLimiter.startGitHubCharge(request);
+		if (owner == null || owner.isEmpty() || repo == null || repo.isEmpty()) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("Both owner and repo parameters are required").build();
+		}
+		Set<String> selectedFields;
+		try {
+			selectedFields = parseFields(fields, PULL_FIELDS, PULL_FIELDS);
+		} catch (IllegalArgumentException e) {
+			return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+		}
+
+		try {
+			JsonNode pull = get(String.format("%srepos/%s/%s/pulls/%d", gitHubApiBaseUrl, owner, repo, number), GitHubRequestScheduler.Priority.INTERACTIVE, caller,
+					response -> {
+						try (InputStream in = response.readEntity(InputStream.class)) {
+							return objectMapper.readTree(in);
 						}
-					}
-					condensedPull.put("body", body);
+					});
+			// The full body, including what is below the hidden marker
+			return Response.ok(condensePullRequest(pull, selectedFields, bodyMax, false).toString()).build();
+		} catch (UnexpectedStatusException e) {
+			if (e.getStatus() == 404) {
+				return Response.status(Response.Status.NOT_FOUND).entity("Could not find PR " + number + " in " + owner + "/" + repo).build();
+			}
+			return unexpectedStatusResponse(e);
+		} catch (RateLimitedException e) {
+			return rateLimitedResponse(e);
+		} catch (ConcurrencyLimitExceededException e) {
+			return overloadedResponse(e);
+		} catch (ProcessingException e) {
+			return unreachableResponse(e);
+		} catch (Exception e) {
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Error processing request: " + e.getMessage()).build();
+		}
+	}
 
-					@SuppressWarnings("unchecked") Map<String, Object> userMap = (Map<String, Object>) pull.get("user");
-					if (userMap != null) {
-						condensedPull.put("user", (String) userMap.get("login"));
-					}
-					if (user != null && !user.isEmpty()) {
-						if (userMap != null && !user.trim().equals(userMap.get("login"))) {
-							continue;
+	@GET
+	@Path("/analytics")
+	@Produces(MediaType.APPLICATION_JSON)
+	public Response getPullRequestAnalytics(
+			@QueryParam("owner") @Parameter(description = "The owner of the repositories", example = "openjdk", required = true) String owner,
+			@QueryParam("repo") @Parameter(description = "The name of the repository, or comma separated names of repositories to merge the statistics of", example = "jmc", required = true) String repo,
+			@QueryParam("top") @Parameter(description = "The length of the lists of the longest waiting PRs and of the authors with the most PRs.", example = "10")
+			@DefaultValue("10") int top,
+			@Context HttpServerRequest request) {
+		InboundRateLimiter.GitHubCharge caller = rateLimiter.startGitHubCharge(request);
+		if (owner == null || owner.isEmpty() || repo == null || repo.isEmpty()) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("Both owner and repo parameters are required").build();
+		}
+		if (top < 0) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("Invalid top: " + top).build();
+		}
+		List<String> repos = Arrays.stream(repo.split(",")).map(String::trim).filter(name -> !name.isEmpty()).distinct().collect(Collectors.toList());
+
+		try {
+			List<PullRequestAnalytics.RepositoryStats> stats = new ArrayList<>();
+			List<Map<String, Object>> updates = new ArrayList<>();
+			for (String name : repos) {
+				PullRequestAnalytics.RepositoryStats known = analytics.findStats(owner, name);
+				Instant through = known == null ? null : known.getUpdatedThrough();
+				Instant[] newest = {through};
+				int[] updated = {0};
+				boolean[] caughtUp = {false};
+				int page = 1;
+				int pageSize;
+				// Most recently updated first, so that only what changed since the last crawl is fetched
+				do {
+					String apiUrl = String.format("%srepos/%s/%s/pulls?state=all&per_page=100&page=%d&sort=updated&direction=desc", gitHubApiBaseUrl, owner,
+							name, page);
+					pageSize = get(apiUrl, GitHubRequestScheduler.Priority.BULK, caller,
+							response -> forEachElement(response, pull -> {
+								Instant updatedAt = PullRequestAnalytics.parseInstant(pull, "updated_at");
+								if (through != null && updatedAt != null && updatedAt.isBefore(through)) {
+									caughtUp[0] = true;
+									return false;
+								}
+								if (analytics.record(owner, name, pull)) {
+									updated[0]++;
+								}
+								if (updatedAt != null && (newest[0] == null || updatedAt.isAfter(newest[0]))) {
+									newest[0] = updatedAt;
+								}
+								return true;
+							}));
+					page++;
+				} while (pageSize == 100 && !caughtUp[0]);
+				// GitHub has answered for the repository, so it exists even if it has no pull requests
+				PullRequestAnalytics.RepositoryStats repositoryStats = analytics.getStats(owner, name);
+				// Only once everything up to it has been fetched
+				repositoryStats.setUpdatedThrough(newest[0]);
+				stats.add(repositoryStats);
+
+				Map<String, Object> update = new LinkedHashMap<>();
+				update.put("repo", name);
+				update.put("updated", updated[0]);
+				update.put("updatedThrough", newest[0] == null ? null : newest[0].toString());
+				updates.add(update);
+			}
+
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put("owner", owner);
+			result.put("repositories", updates);
+			result.putAll(PullRequestAnalytics.summarize(stats).toMap(Instant.now(), top));
+			return Response.ok(objectMapper.writeValueAsString(result)).build();
+		} catch (UnexpectedStatusException e) {
+			return unexpectedStatusResponse(e);
+		} catch (RateLimitedException e) {
+			return rateLimitedResponse(e);
+		} catch (ConcurrencyLimitExceededException e) {
+			return overloadedResponse(e);
+		} catch (ProcessingException e) {
+			return unreachableResponse(e);
+		} catch (Exception e) {
+			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Error processing request: " + e.getMessage()).build();
+		}
+	}
+
+	@POST
+	@Path("/webhook")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response receiveWebhook(
+			@HeaderParam("X-GitHub-Event") @Parameter(description = "The type of the event, of which pull_request and ping are handled", example = "pull_request") String event,
+			@HeaderParam("X-Hub-Signature-256") @Parameter(description = "sha256= followed by the hex HMAC-SHA256 of the payload, keyed with the webhook secret") String signature,
+			byte[] payload) {
+		if (webhookSecret.isEmpty()) {
+			return Response.status(Response.Status.NOT_FOUND).entity("Webhooks are not enabled").build();
+		}
+		GitHubWebhookEvent webhookEvent = new GitHubWebhookEvent();
+		webhookEvent.begin();
+		webhookEvent.event = event;
+		Response response = handleWebhook(event, signature, payload, webhookEvent);
+		webhookEvent.status = response.getStatus();
+		webhookEvent.commit();
+		return response;
+	}
+
+	private Response handleWebhook(String event, String signature, byte[] payload, GitHubWebhookEvent webhookEvent) {
+		if (!isValidSignature(webhookSecret.get(), payload, signature)) {
+			return Response.status(Response.Status.UNAUTHORIZED).entity("Invalid signature").build();
+		}
+		if ("ping".equals(event)) {
+			return Response.ok("pong").build();
+		}
+		if (!"pull_request".equals(event)) {
+			return Response.accepted("Ignored " + event + " event").build();
+		}
+		JsonNode root;
+		try {
+			root = objectMapper.readTree(payload);
+		} catch (IOException e) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("Invalid payload: " + e.getMessage()).build();
+		}
+		JsonNode pull = root.path("pull_request");
+		String[] fullName = root.path("repository").path("full_name").asText("").split("/");
+		if (!pull.path("number").isInt() || fullName.length != 2) {
+			return Response.status(Response.Status.BAD_REQUEST).entity("Expected a pull request and its repository").build();
+		}
+		webhookEvent.repository = fullName[0] + "/" + fullName[1];
+		webhookEvent.action = textOrNull(root, "action");
+		webhookEvent.number = pull.path("number").asInt();
+		webhookEvent.applied = pullStore.apply(fullName[0], fullName[1], pull);
+		analytics.record(fullName[0], fullName[1], pull);
+		return Response.ok((webhookEvent.applied ? "Applied" : "Ignored outdated") + " pull request " + webhookEvent.number).build();
+	}
+
+	/**
+	 * Adds the pull requests of one repository to the merge, in the sort order, until the rest of
+	 * them sort after the ones already merged. Answers from the store for repositories receiving
+	 * webhook events.
+	 */
+	private void mergePullRequests(String owner, String repo, String state, String sort, String direction, String login, Set<String> fields, int bodyMax,
+			InboundRateLimiter.GitHubCharge caller, MergedPullRequests merged) throws RateLimitedException, ConcurrencyLimitExceededException, InterruptedException, IOException {
+		PullRequestStore.RepositoryPulls stored = pullStore.get(owner, repo);
+		if (stored != null) {
+			syncPullRequests(owner, repo, stored);
+		}
+		if (stored != null && stored.isSynced()) {
+			for (JsonNode pull : stored.list(state, login, sort + "_at", "asc".equals(direction), merged.getLimit())) {
+				if (!merged.isWanted(repo, pull)) {
+					break;
+				}
+				merged.add(repo, pull, condensePullRequest(repo, pull, fields, bodyMax));
+			}
+			return;
+		}
+
+		boolean[] done = {false};
+		int page = 1;
+		int pageSize;
+		do {
+			String apiUrl = String.format("%srepos/%s/%s/pulls?state=%s&per_page=100&page=%d&sort=%s&direction=%s", gitHubApiBaseUrl, owner, repo, state, page,
+					sort, direction);
+			try {
+				pageSize = get(apiUrl, listingPriority(page), caller,
+						response -> forEachElement(response, pull -> {
+							analytics.record(owner, repo, pull);
+							if (Thread.currentThread().isInterrupted() || !merged.isWanted(repo, pull)) {
+								done[0] = true;
+								return false;
+							}
+							if (login != null && pull.path("user").has("login") && !login.equals(pull.path("user").path("login").asText())) {
+								return true;
+							}
+							merged.add(repo, pull, condensePullRequest(repo, pull, fields, bodyMax));
+							return true;
+						}));
+			} catch (UnexpectedStatusException e) {
+				throw new UnexpectedStatusException(e.getStatus(), e.getMessage() + " for " + owner + "/" + repo);
+			}
+			page++;
+		} while (pageSize == 100 && !done[0]);
+	}
+
+	private ObjectNode condensePullRequest(String repo, JsonNode pull, Set<String> fields, int bodyMax) {
+		ObjectNode condensedPull = objectMapper.createObjectNode();
+		condensedPull.put("repo", repo);
+		condensedPull.setAll(condensePullRequest(pull, fields, bodyMax, true));
+		return condensedPull;
+	}
+
+	/**
+	 * Adds the names of the repositories of the owner that the pattern finds a match in.
+	 */
+	private void findRepositories(String owner, Pattern pattern, InboundRateLimiter.GitHubCharge caller, List<String> names)
+			throws RateLimitedException, ConcurrencyLimitExceededException, InterruptedException, IOException {
+		int page = 1;
+		int pageSize;
+		do {
+			pageSize = get(String.format("%susers/%s/repos?per_page=100&page=%d", gitHubApiBaseUrl, owner, page), listingPriority(page), caller,
+					response -> forEachElement(response, repo -> {
+						String name = textOrNull(repo, "name");
+						if (name != null && pattern.matcher(name).find()) {
+							names.add(name);
 						}
-					}
-					condensedPulls.add(condensedPull);
-					matchingEntries++;
-					if (matchingEntries >= maxResults) {
-						break;
-					}
+						return true;
+					}));
+			page++;
+		} while (pageSize == 100);
+	}
+
+	private static Response crawlFailedResponse(Throwable cause) {
+		if (cause instanceof UnexpectedStatusException) {
+			return unexpectedStatusResponse((UnexpectedStatusException) cause);
+		}
+		if (cause instanceof RateLimitedException) {
+			return rateLimitedResponse((RateLimitedException) cause);
+		}
+		if (cause instanceof ConcurrencyLimitExceededException) {
+			return overloadedResponse((ConcurrencyLimitExceededException) cause);
+		}
+		if (cause instanceof ProcessingException) {
+			return unreachableResponse((ProcessingException) cause);
+		}
+		return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Error processing request: " + cause.getMessage()).build();
+	}
+
+	/**
+	 * Crawls all pull requests of the repository into the store in the background, if it has not
+	 * been crawled within the resync interval, so that no request waits for the crawl. Events
+	 * arriving during the crawl are kept, as the newer version of a pull request wins. A failed
+	 * crawl is retried with the next request for the repository.
+	 */
+	private void syncPullRequests(String owner, String repo, PullRequestStore.RepositoryPulls stored) {
+		Instant started = Instant.now();
+		if (!stored.startSync(started, resyncInterval)) {
+			return;
+		}
+		try {
+			syncExecutor.execute(() -> {
+				Instant completed = null;
+				try {
+					int page = 1;
+					int pageSize;
+					do {
+						String apiUrl = String.format("%srepos/%s/%s/pulls?state=all&per_page=100&page=%d&sort=created&direction=asc", gitHubApiBaseUrl, owner,
+								repo, page);
+						pageSize = get(apiUrl, GitHubRequestScheduler.Priority.BULK, null, response -> forEachElement(response, pull -> {
+							stored.put(pull);
+							analytics.record(owner, repo, pull);
+							return true;
+						}));
+						page++;
+					} while (pageSize == 100);
+					completed = started;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (Exception e) {
+					Log.warn("Could not sync the pull requests of " + owner + "/" + repo + ": " + e.getMessage());
+				} finally {
+					stored.endSync(completed);
 				}
-				if (matchingEntries >= maxResults) {
+			});
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+			stored.endSync(null);
+		}
+	}
+
+	static boolean isValidSignature(String secret, byte[] payload, String signature) {
+		if (signature == null || !signature.startsWith("sha256=")) {
+			return false;
+		}
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+			byte[] expected = mac.doFinal(payload == null ? new byte[0] : payload);
+			// Constant time, so that the signature cannot be guessed a byte at a time
+			return MessageDigest.isEqual(expected, HexFormat.of().parseHex(signature.substring("sha256=".length())));
+		} catch (GeneralSecurityException | IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the elements of the JSON array in the response one at a time, so that only one
+	 * element is held in memory before it has been condensed.
+	 *
+	 * @param consumer
+	 *            returns false to stop reading.
+	 * @return the number of elements read.
+	 */
+	private int forEachElement(Response response, Predicate<JsonNode> consumer) throws IOException {
+		int count = 0;
+		try (InputStream in = response.readEntity(InputStream.class); JsonParser parser = objectMapper.getFactory().createParser(in)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new IOException("Expected a JSON array from the GitHub API");
+			}
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				JsonNode element = objectMapper.readTree(parser);
+				count++;
+				if (!consumer.test(element)) {
 					break;
 				}
-				page++;
-			} while (pulls.size() == 100);
+			}
+		}
+		return count;
+	}
 
-			return Response.ok(condensedPulls.toString()).build();
-		} catch (Exception e) {
-			return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Error processing request: " + e.getMessage()).build();
+	private ObjectNode condenseRepository(JsonNode repo, Set<String> fields, int bodyMax) {
+		ObjectNode condensedRepo = objectMapper.createObjectNode();
+		for (String field : fields) {
+			switch (field) {
+			case "stars":
+				condensedRepo.put("stars", repo.path("stargazers_count").asInt());
+				break;
+			case "description":
+				putTruncated(condensedRepo, "description", textOrNull(repo, "description"), bodyMax);
+				break;
+			default:
+				condensedRepo.put(field, textOrNull(repo, field));
+			}
+		}
+		return condensedRepo;
+	}
+
+	/**
+	 * @param hideComments
+	 *            true to drop the part of the body from the first HTML comment, which the
+	 *            OpenJDK bots use to hide their checklists.
+	 */
+	private ObjectNode condensePullRequest(JsonNode pull, Set<String> fields, int bodyMax, boolean hideComments) {
+		ObjectNode condensedPull = objectMapper.createObjectNode();
+		for (String field : fields) {
+			switch (field) {
+			case "number":
+				condensedPull.put("number", pull.path("number").asInt());
+				break;
+			case "user":
+				if (pull.path("user").has("login")) {
+					condensedPull.put("user", pull.path("user").path("login").asText());
+				}
+				break;
+			case "body":
+				String body = textOrNull(pull, "body");
+				if (body != null && hideComments) {
+					int markerIndex = body.indexOf("<!--");
+					if (markerIndex != -1) {
+						body = body.substring(0, markerIndex).trim();
+					}
+				}
+				putTruncated(condensedPull, "body", body, bodyMax);
+				if (pull.path("body_truncated").asBoolean()) {
+					// Truncated when stored
+					condensedPull.put("body_truncated", true);
+				}
+				break;
+			default:
+				condensedPull.put(field, textOrNull(pull, field));
+			}
+		}
+		return condensedPull;
+	}
+
+	private static void putTruncated(ObjectNode node, String field, String value, int maxLength) {
+		if (value != null && maxLength >= 0 && value.length() > maxLength) {
+			node.put(field, value.substring(0, maxLength));
+			node.put(field + "_truncated", true);
+		} else {
+			node.put(field, value);
+		}
+	}
+
+	private static String textOrNull(JsonNode node, String field) {
+		JsonNode value = node.get(field);
+		return value == null || value.isNull() ? null : value.asText();
+	}
+
+	/**
+	 * @return the requested fields in the order of the available ones, or the defaults if none
+	 *         were requested.
+	 * @throws IllegalArgumentException
+	 *             if an unknown field was requested.
+	 */
+	private static Set<String> parseFields(String fields, List<String> available, List<String> defaults) {
+		if (fields == null || fields.trim().isEmpty()) {
+			return new LinkedHashSet<>(defaults);
+		}
+		Set<String> requested = new HashSet<>();
+		for (String field : fields.split(",")) {
+			String trimmed = field.trim();
+			if (!available.contains(trimmed)) {
+				throw new IllegalArgumentException("Invalid field: " + trimmed + ", expected one of " + String.join(", ", available));
+			}
+			requested.add(trimmed);
+		}
+		Set<String> selected = new LinkedHashSet<>(available);
+		selected.retainAll(requested);
+		return selected;
+	}
+
+	/**
+	 * Makes the request, and reads the response with the handler if GitHub answered with 200.
+	 *
+	 * @param caller
+	 *            the charge of the inbound request the request is made for, or null if made for no
+	 *            client in particular.
+	 * @throws RateLimitedException
+	 *             also if the caller cannot afford the request.
+	 * @throws UnexpectedStatusException
+	 *             if GitHub answered with another status.
+	 */
+	private <T> T get(String apiUrl, GitHubRequestScheduler.Priority priority, InboundRateLimiter.GitHubCharge caller, GitHubRequestScheduler.ResponseHandler<T> handler)
+			throws RateLimitedException, ConcurrencyLimitExceededException, InterruptedException, IOException {
+		if (caller != null) {
+			long retryAfter = caller.charge(apiUrl);
+			if (retryAfter > 0) {
+				throw new RateLimitedException("Rate limit exceeded", retryAfter);
+			}
+		}
+		GitHubRequestEvent event = new GitHubRequestEvent();
+		event.begin();
+		event.status = -1;
+		event.rateLimitRemaining = -1;
+		try {
+			return scheduler.execute(priority, () -> {
+				Response response = client.target(apiUrl).request(MediaType.APPLICATION_JSON).get();
+				event.status = response.getStatus();
+				event.rateLimitRemaining = parseRateLimitRemaining(response.getHeaderString("X-RateLimit-Remaining"));
+				return response;
+			}, response -> {
+				if (response.getStatus() != 200) {
+					throw new UnexpectedStatusException(response.getStatus(), "Error fetching data from GitHub API");
+				}
+				return handler.handle(response);
+			});
+		} catch (RateLimitedException | ConcurrencyLimitExceededException | InterruptedException | IOException | RuntimeException e) {
+			// Refused and failed requests are the interesting ones in a recording
+			event.failure = e.getClass().getName();
+			throw e;
+		} finally {
+			if (event.shouldCommit()) {
+				event.url = apiUrl;
+				event.priority = priority.name();
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Listings stop once maxresults is met, so the pages fetched are the ones the caller waits for,
+	 * up to the first few. Beyond that, the listing has turned into a crawl, and yields to the
+	 * interactive requests. Crawls for analytics and for the store are bulk from the first page.
+	 */
+	private static GitHubRequestScheduler.Priority listingPriority(int page) {
+		return page <= INTERACTIVE_PAGES ? GitHubRequestScheduler.Priority.INTERACTIVE : GitHubRequestScheduler.Priority.BULK;
+	}
+
+	private static Response rateLimitedResponse(RateLimitedException e) {
+		return Response.status(Response.Status.TOO_MANY_REQUESTS).header("Retry-After", e.getRetryAfterSeconds())
+				.entity(e.getMessage() + ", retry after " + e.getRetryAfterSeconds() + " seconds").build();
+	}
+
+	private static Response unexpectedStatusResponse(UnexpectedStatusException e) {
+		return Response.status(e.getStatus()).entity(e.getMessage()).build();
+	}
+
+	private static Response overloadedResponse(ConcurrencyLimitExceededException e) {
+		return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", 1).entity(e.getMessage() + ", retry after 1 second").build();
+	}
+
+	/**
+	 * @return 504 if the request to GitHub timed out, else 502, e.g. when the connection was refused
+	 *         or the host could not be resolved.
+	 */
+	private static Response unreachableResponse(ProcessingException e) {
+		if (isTimeout(e)) {
+			return Response.status(Response.Status.GATEWAY_TIMEOUT).entity("GitHub API did not respond in time: " + e.getMessage()).build();
+		}
+		return Response.status(Response.Status.BAD_GATEWAY).entity("Could not reach the GitHub API: " + e.getMessage()).build();
+	}
+
+	static boolean isTimeout(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+			// Also matches the timeouts of the Netty and Vert.x based client, e.g. ConnectTimeoutException
+			if (cause instanceof TimeoutException || cause instanceof SocketTimeoutException || cause.getClass().getSimpleName().contains("Timeout")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int parseRateLimitRemaining(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return -1;
 		}
 	}
 }
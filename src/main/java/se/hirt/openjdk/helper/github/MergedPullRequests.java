@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.github;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Merges the pull requests of several repositories, each crawled concurrently in the sort order,
+ * into the first limit of them in that order. Once limit pull requests have been merged, a crawl
+ * can stop at the first pull request sorting after all of them, since the rest of its repository
+ * sorts after it too. Ties are broken by repository and number, so that the result does not depend
+ * on which crawl came first.
+ */
+public final class MergedPullRequests {
+	private final String sortField;
+	private final Comparator<Entry> order;
+	private final int limit;
+	// The merged pull requests, last in order first, so that the one to drop is at hand
+	private final PriorityQueue<Entry> merged;
+
+	/**
+	 * @param sortField
+	 *            the field the repositories are crawled in the order of, created_at or
+	 *            updated_at.
+	 * @param limit
+	 *            the maximum number of pull requests, or {@link Integer#MAX_VALUE} for all.
+	 */
+	public MergedPullRequests(String sortField, boolean ascending, int limit) {
+		this.sortField = sortField;
+		Comparator<Entry> byKey = Comparator.comparing(entry -> entry.key);
+		this.order = (ascending ? byKey : byKey.reversed()).thenComparing(entry -> entry.repo).thenComparingInt(entry -> entry.number);
+		this.limit = limit;
+		this.merged = new PriorityQueue<>(order.reversed());
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @return false if the pull request sorts after the limit already merged, so that it, and the
+	 *         rest of its repository, need not be crawled.
+	 */
+	public synchronized boolean isWanted(String repo, JsonNode pull) {
+		if (merged.size() < limit) {
+			return true;
+		}
+		return !merged.isEmpty() && order.compare(entry(repo, pull, null), merged.peek()) < 0;
+	}
+
+	/**
+	 * @param result
+	 *            what to respond with for the pull request.
+	 */
+	public synchronized void add(String repo, JsonNode pull, JsonNode result) {
+		merged.add(entry(repo, pull, result));
+		if (merged.size() > limit) {
+			merged.poll();
+		}
+	}
+
+	/**
+	 * @return the results of the merged pull requests, in order.
+	 */
+	public synchronized List<JsonNode> getResults() {
+		return new ArrayList<>(merged).stream().sorted(order).map(entry -> entry.result).collect(Collectors.toList());
+	}
+
+	private Entry entry(String repo, JsonNode pull, JsonNode result) {
+		return new Entry(pull.path(sortField).asText(""), repo, pull.path("number").asInt(), result);
+	}
+
+	private static final class Entry {
+		final String key;
+		final String repo;
+		final int number;
+		final JsonNode result;
+
+		Entry(String key, String repo, int number, JsonNode result) {
+			this.key = key;
+			this.repo = repo;
+			this.number = number;
+			this.result = result;
+		}
+	}
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.github;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Pull request statistics per repository, updated incrementally from the pull requests fetched
+ * from GitHub, both by the analytics crawl and by <code>/github/pulls</code>. Times to close and
+ * to merge are kept in {@link QuantileSketch}es, so that their percentiles are available without
+ * keeping every pull request, and can be merged across repositories. Open pull requests are kept
+ * as they are, since their ages change over time. A pull request is counted once, however many
+ * times it is fetched, and a version of it older than the one recorded, e.g. from a page fetched
+ * before it was closed, is ignored. One that is reopened keeps its first time to close in the
+ * sketches.
+ * <p>
+ * Statistics are only kept for repositories that GitHub has answered for, and for at most
+ * {@value #MAX_REPOSITORIES} of them; the least recently used one is forgotten beyond that, and
+ * crawled anew when asked for again.
+ */
+@ApplicationScoped
+public class PullRequestAnalytics {
+	static final double RELATIVE_ACCURACY = 0.01;
+	static final int MAX_REPOSITORIES = 1_000;
+	private static final double[] PERCENTILES = {50, 75, 90, 99};
+
+	private final Map<String, RepositoryStats> repositories = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, RepositoryStats> eldest) {
+			return size() > MAX_REPOSITORIES;
+		}
+	};
+
+	/**
+	 * @return the statistics for the repository, or null if nothing has been recorded for it.
+	 */
+	public RepositoryStats findStats(String owner, String repo) {
+		synchronized (repositories) {
+			return repositories.get(owner + "/" + repo);
+		}
+	}
+
+	/**
+	 * Only to be called once GitHub has answered for the repository, so that no statistics are kept
+	 * for repositories that do not exist.
+	 *
+	 * @return the statistics for the repository, empty if nothing has been recorded for it yet.
+	 */
+	public RepositoryStats getStats(String owner, String repo) {
+		synchronized (repositories) {
+			return repositories.computeIfAbsent(owner + "/" + repo, RepositoryStats::new);
+		}
+	}
+
+	/**
+	 * Records a pull request, as returned by the GitHub API.
+	 *
+	 * @return true if the pull request was new, or its state changed.
+	 */
+	public boolean record(String owner, String repo, JsonNode pull) {
+		return getStats(owner, repo).record(pull);
+	}
+
+	/**
+	 * Merges the statistics of the repositories into one summary.
+	 */
+	public static Summary summarize(Collection<RepositoryStats> stats) {
+		Summary summary = new Summary();
+		for (RepositoryStats repository : stats) {
+			repository.addTo(summary);
+		}
+		return summary;
+	}
+
+	static Instant parseInstant(JsonNode node, String field) {
+		JsonNode value = node.path(field);
+		if (!value.isTextual()) {
+			return null;
+		}
+		try {
+			return Instant.parse(value.asText());
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	private static String weekOf(Instant instant) {
+		return LocalDate.ofInstant(instant, ZoneOffset.UTC).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).toString();
+	}
+
+	private static double seconds(Instant from, Instant to) {
+		return Math.max(0, Duration.between(from, to).toMillis() / 1000d);
+	}
+
+	private static double hours(double seconds) {
+		return Math.round(seconds / 36d) / 100d;
+	}
+
+	private static Map<String, Object> percentilesToMap(QuantileSketch sketch) {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("count", sketch.getCount());
+		if (sketch.getCount() > 0) {
+			for (double percentile : PERCENTILES) {
+				map.put("p" + (int) percentile, hours(sketch.getQuantile(percentile / 100)));
+			}
+			map.put("max", hours(sketch.getMax()));
+		}
+		return map;
+	}
+
+	/**
+	 * What is known about a pull request that has been recorded.
+	 */
+	private static final class RecordedPull {
+		Instant updatedAt;
+		boolean closeCounted;
+
+		RecordedPull(Instant updatedAt) {
+			this.updatedAt = updatedAt;
+		}
+	}
+
+	/**
+	 * A pull request that was open when last fetched.
+	 */
+	static final class OpenPull {
+		final int number;
+		final String title;
+		final String author;
+		final Instant createdAt;
+
+		OpenPull(int number, String title, String author, Instant createdAt) {
+			this.number = number;
+			this.title = title;
+			this.author = author;
+			this.createdAt = createdAt;
+		}
+	}
+
+	public static final class RepositoryStats {
+		private final String name;
+		private final Map<Integer, RecordedPull> pulls = new HashMap<>();
+		private final Map<Integer, OpenPull> open = new HashMap<>();
+		private final QuantileSketch timeToClose = new QuantileSketch(RELATIVE_ACCURACY);
+		private final QuantileSketch timeToMerge = new QuantileSketch(RELATIVE_ACCURACY);
+		private final Map<String, Long> authors = new HashMap<>();
+		private final Map<String, Long> openedPerWeek = new HashMap<>();
+		private final Map<String, Long> closedPerWeek = new HashMap<>();
+		private Instant updatedThrough;
+
+		RepositoryStats(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return true if the pull request was new, or its state changed.
+		 */
+		public synchronized boolean record(JsonNode pull) {
+			int number = pull.path("number").asInt(-1);
+			Instant createdAt = parseInstant(pull, "created_at");
+			if (number < 0 || createdAt == null) {
+				return false;
+			}
+			Instant updatedAt = parseInstant(pull, "updated_at");
+			Instant closedAt = parseInstant(pull, "closed_at");
+			String author = pull.path("user").path("login").asText("unknown");
+			boolean changed = false;
+			RecordedPull recorded = pulls.get(number);
+			if (recorded == null) {
+				recorded = new RecordedPull(updatedAt);
+				pulls.put(number, recorded);
+				authors.merge(author, 1L, Long::sum);
+				openedPerWeek.merge(weekOf(createdAt), 1L, Long::sum);
+				changed = true;
+			} else if (updatedAt != null && recorded.updatedAt != null && updatedAt.isBefore(recorded.updatedAt)) {
+				// An older version than the one recorded, e.g. from a page fetched before it closed
+				return false;
+			} else if (updatedAt != null) {
+				recorded.updatedAt = updatedAt;
+			}
+			if (closedAt == null) {
+				changed |= open.put(number, new OpenPull(number, pull.path("title").asText(""), author, createdAt)) == null;
+			} else {
+				changed |= open.remove(number) != null;
+				if (!recorded.closeCounted) {
+					recorded.closeCounted = true;
+					timeToClose.add(seconds(createdAt, closedAt));
+					closedPerWeek.merge(weekOf(closedAt), 1L, Long::sum);
+					Instant mergedAt = parseInstant(pull, "merged_at");
+					if (mergedAt != null) {
+						timeToMerge.add(seconds(createdAt, mergedAt));
+					}
+					changed = true;
+				}
+			}
+			return changed;
+		}
+
+		/**
+		 * @return the time up to which all updated pull requests have been fetched, or null if the
+		 *         repository has not been crawled yet.
+		 */
+		public synchronized Instant getUpdatedThrough() {
+			return updatedThrough;
+		}
+
+		public synchronized void setUpdatedThrough(Instant updatedThrough) {
+			if (updatedThrough != null && (this.updatedThrough == null || updatedThrough.isAfter(this.updatedThrough))) {
+				this.updatedThrough = updatedThrough;
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public synchronized int getPullRequestCount() {
+			return pulls.size();
+		}
+
+		private synchronized void addTo(Summary summary) {
+			summary.pullRequests += pulls.size();
+			summary.closed += pulls.size() - open.size();
+			summary.timeToClose.merge(timeToClose);
+			summary.timeToMerge.merge(timeToMerge);
+			summary.open.addAll(open.values());
+			authors.forEach((author, count) -> summary.authors.merge(author, count, Long::sum));
+			openedPerWeek.forEach((week, count) -> summary.openedPerWeek.merge(week, count, Long::sum));
+			closedPerWeek.forEach((week, count) -> summary.closedPerWeek.merge(week, count, Long::sum));
+		}
+	}
+
+	/**
+	 * The statistics of one or more repositories, merged.
+	 */
+	public static final class Summary {
+		private final QuantileSketch timeToClose = new QuantileSketch(RELATIVE_ACCURACY);
+		private final QuantileSketch timeToMerge = new QuantileSketch(RELATIVE_ACCURACY);
+		private final List<OpenPull> open = new ArrayList<>();
+		private final Map<String, Long> authors = new HashMap<>();
+		private final Map<String, Long> openedPerWeek = new HashMap<>();
+		private final Map<String, Long> closedPerWeek = new HashMap<>();
+		private int pullRequests;
+		private int closed;
+
+		public QuantileSketch getTimeToClose() {
+			return timeToClose;
+		}
+
+		public QuantileSketch getTimeToMerge() {
+			return timeToMerge;
+		}
+
+		/**
+		 * @return the ages of the open pull requests, in seconds, at the given time.
+		 */
+		public QuantileSketch getOpenAge(Instant now) {
+			QuantileSketch openAge = new QuantileSketch(RELATIVE_ACCURACY);
+			for (OpenPull pull : open) {
+				openAge.add(seconds(pull.createdAt, now));
+			}
+			return openAge;
+		}
+
+		public int getPullRequestCount() {
+			return pullRequests;
+		}
+
+		public int getOpenCount() {
+			return open.size();
+		}
+
+		/**
+		 * @param top
+		 *            the length of the lists of the longest waiting pull requests and of the most
+		 *            active authors.
+		 */
+		public Map<String, Object> toMap(Instant now, int top) {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("pullRequests", pullRequests);
+			map.put("open", open.size());
+			map.put("closed", closed);
+			map.put("merged", timeToMerge.getCount());
+			map.put("timeToCloseHours", percentilesToMap(timeToClose));
+			map.put("timeToMergeHours", percentilesToMap(timeToMerge));
+			map.put("openAgeHours", percentilesToMap(getOpenAge(now)));
+			map.put("longestWaiting", open.stream().sorted(Comparator.comparing((OpenPull pull) -> pull.createdAt).thenComparingInt(pull -> pull.number))
+					.limit(top).map(pull -> {
+						Map<String, Object> entry = new LinkedHashMap<>();
+						entry.put("number", pull.number);
+						entry.put("title", pull.title);
+						entry.put("user", pull.author);
+						entry.put("created_at", pull.createdAt.toString());
+						entry.put("ageHours", hours(seconds(pull.createdAt, now)));
+						return entry;
+					}).collect(Collectors.toList()));
+			map.put("authors", authors.entrySet().stream()
+					.sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey())).limit(top)
+					.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new)));
+			SortedSet<String> weeks = new TreeSet<>(openedPerWeek.keySet());
+			weeks.addAll(closedPerWeek.keySet());
+			map.put("weeks", weeks.stream().map(week -> {
+				Map<String, Object> entry = new LinkedHashMap<>();
+				entry.put("week", week);
+				entry.put("opened", openedPerWeek.getOrDefault(week, 0L));
+				entry.put("closed", closedPerWeek.getOrDefault(week, 0L));
+				return entry;
+			}).collect(Collectors.toList()));
+			return map;
+		}
+	}
+}
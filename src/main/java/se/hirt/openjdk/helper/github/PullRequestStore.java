@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.github;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * The pull requests of the repositories GitHub delivers webhook events for, kept current by the
+ * <code>pull_request</code> events, so that <code>/github/pulls</code> can answer for them without
+ * crawling GitHub. A repository starts being tracked with its first event. It is then filled by a
+ * full crawl in the background, and crawled again once the resync interval has passed, in case
+ * deliveries were missed. Only the fields served by <code>/github/pulls</code> are kept, and of the
+ * body, only what the listings show: the part before the hidden marker, and at most
+ * {@value #MAX_BODY_LENGTH} characters of it.
+ */
+@ApplicationScoped
+public class PullRequestStore {
+	public static final int MAX_BODY_LENGTH = 4096;
+	private static final List<String> KEPT_FIELDS = List.of("number", "state", "title", "created_at", "updated_at", "closed_at", "merged_at");
+
+	private final Map<String, RepositoryPulls> repositories = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the pull requests of the repository, or null if no webhook event has been received
+	 *         for it.
+	 */
+	public RepositoryPulls get(String owner, String repo) {
+		return repositories.get(key(owner, repo));
+	}
+
+	/**
+	 * Applies a pull request from a webhook event, and starts tracking the repository if it was
+	 * not tracked already.
+	 *
+	 * @return true if the pull request was stored, false if the stored one was newer.
+	 */
+	public boolean apply(String owner, String repo, JsonNode pull) {
+		return repositories.computeIfAbsent(key(owner, repo), key -> new RepositoryPulls()).put(pull);
+	}
+
+	private static String key(String owner, String repo) {
+		// Repository names are case insensitive on GitHub
+		return (owner + "/" + repo).toLowerCase(Locale.ROOT);
+	}
+
+	public static final class RepositoryPulls {
+		private final Map<Integer, JsonNode> pulls = new ConcurrentHashMap<>();
+		private final AtomicBoolean syncing = new AtomicBoolean();
+		private volatile Instant syncedAt;
+
+		/**
+		 * Stores the pull request, unless the stored one was updated later. Events may be
+		 * delivered out of order, and may race with a crawl.
+		 *
+		 * @return true if the pull request was stored.
+		 */
+		public boolean put(JsonNode pull) {
+			if (!pull.path("number").isInt()) {
+				return false;
+			}
+			ObjectNode kept = slim(pull);
+			boolean[] stored = {false};
+			pulls.compute(kept.path("number").asInt(), (number, previous) -> {
+				if (previous != null && previous.path("updated_at").asText("").compareTo(kept.path("updated_at").asText("")) > 0) {
+					return previous;
+				}
+				stored[0] = true;
+				return kept;
+			});
+			return stored[0];
+		}
+
+		/**
+		 * @return true once a crawl has completed, after which the store can answer for the
+		 *         repository.
+		 */
+		public boolean isSynced() {
+			return syncedAt != null;
+		}
+
+		/**
+		 * Claims the crawl of the repository, if it has not been crawled within the interval, and
+		 * no crawl is running.
+		 *
+		 * @return true if the caller is to crawl, and then call {@link #endSync(Instant)}.
+		 */
+		public boolean startSync(Instant now, Duration interval) {
+			Instant synced = syncedAt;
+			return (synced == null || synced.plus(interval).isBefore(now)) && syncing.compareAndSet(false, true);
+		}
+
+		/**
+		 * @param startedAt
+		 *            when the completed crawl started, or null if it failed.
+		 */
+		public void endSync(Instant startedAt) {
+			if (startedAt != null) {
+				syncedAt = startedAt;
+			}
+			syncing.set(false);
+		}
+
+		public int size() {
+			return pulls.size();
+		}
+
+		/**
+		 * @param state
+		 *            open, closed or all.
+		 * @param login
+		 *            the author to list the pull requests of, or null for all.
+		 * @param sortField
+		 *            created_at or updated_at.
+		 * @return the matching pull requests in order, at most limit of them.
+		 */
+		public List<JsonNode> list(String state, String login, String sortField, boolean ascending, int limit) {
+			Comparator<JsonNode> order = Comparator.<JsonNode, String> comparing(pull -> pull.path(sortField).asText(""))
+					.thenComparingInt(pull -> pull.path("number").asInt());
+			return pulls.values().stream()
+					.filter(pull -> state.equals("all") || state.equals(pull.path("state").asText()))
+					.filter(pull -> login == null || login.equals(pull.path("user").path("login").asText(null)))
+					.sorted(ascending ? order : order.reversed())
+					.limit(limit)
+					.collect(Collectors.toList());
+		}
+
+		private static ObjectNode slim(JsonNode pull) {
+			ObjectNode kept = JsonNodeFactory.instance.objectNode();
+			for (String field : KEPT_FIELDS) {
+				if (pull.has(field)) {
+					kept.set(field, pull.get(field));
+				}
+			}
+			String body = pull.path("body").textValue();
+			if (body != null) {
+				int markerIndex = body.indexOf("<!--");
+				if (markerIndex != -1) {
+					body = body.substring(0, markerIndex).trim();
+				}
+				if (body.length() > MAX_BODY_LENGTH) {
+					kept.put("body", body.substring(0, MAX_BODY_LENGTH));
+					kept.put("body_truncated", true);
+				} else {
+					kept.put("body", body);
+				}
+			}
+			if (pull.path("user").has("login")) {
+				kept.putObject("user").set("login", pull.path("user").get("login"));
+			}
+			return kept;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.github;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A quantile sketch for non-negative values, with a bounded relative error (in the manner of
+ * DDSketch). Values are counted in logarithmically sized buckets, so any quantile is answered
+ * within the relative accuracy of the true value, using memory that grows with the logarithm of
+ * the value range rather than with the number of values. Two sketches of the same accuracy can be
+ * merged without losing accuracy, so that sketches kept per repository can be combined.
+ * <p>
+ * Not thread safe.
+ */
+public final class QuantileSketch {
+	// Values below this are counted as zero
+	private static final double MIN_VALUE = 1e-9;
+
+	private final double relativeAccuracy;
+	private final double gamma;
+	private final double logGamma;
+	private final TreeMap<Integer, Long> buckets = new TreeMap<>();
+	private long zeroCount;
+	private long count;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * @param relativeAccuracy
+	 *            the maximum relative error of the quantiles, e.g. 0.01 for 1%.
+	 */
+	public QuantileSketch(double relativeAccuracy) {
+		if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+			throw new IllegalArgumentException("The relative accuracy must be between 0 and 1, was " + relativeAccuracy);
+		}
+		this.relativeAccuracy = relativeAccuracy;
+		this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+		this.logGamma = Math.log(gamma);
+	}
+
+	/**
+	 * Adds a value. Negative values are counted as zero.
+	 */
+	public void add(double value) {
+		if (value < MIN_VALUE) {
+			zeroCount++;
+			value = Math.max(0, value);
+		} else {
+			buckets.merge((int) Math.ceil(Math.log(value) / logGamma), 1L, Long::sum);
+		}
+		count++;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Adds all the values counted by the other sketch to this one.
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.relativeAccuracy != relativeAccuracy) {
+			throw new IllegalArgumentException("Cannot merge sketches of different accuracy");
+		}
+		for (Map.Entry<Integer, Long> entry : other.buckets.entrySet()) {
+			buckets.merge(entry.getKey(), entry.getValue(), Long::sum);
+		}
+		zeroCount += other.zeroCount;
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * @param quantile
+	 *            the quantile, between 0 and 1, e.g. 0.5 for the median.
+	 * @return the value at the quantile, or NaN if no values have been added.
+	 */
+	public double getQuantile(double quantile) {
+		if (quantile < 0 || quantile > 1) {
+			throw new IllegalArgumentException("The quantile must be between 0 and 1, was " + quantile);
+		}
+		if (count == 0) {
+			return Double.NaN;
+		}
+		long rank = (long) (quantile * (count - 1));
+		if (rank < zeroCount) {
+			return min;
+		}
+		if (rank == count - 1) {
+			return max;
+		}
+		long seen = zeroCount;
+		for (Map.Entry<Integer, Long> entry : buckets.entrySet()) {
+			seen += entry.getValue();
+			if (seen > rank) {
+				// The middle of the bucket, in the sense of the relative error
+				double value = 2 * Math.pow(gamma, entry.getKey()) / (gamma + 1);
+				return Math.max(min, Math.min(max, value));
+			}
+		}
+		return max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	public double getRelativeAccuracy() {
+		return relativeAccuracy;
+	}
+
+	/**
+	 * @return the number of buckets in use, which is what the memory used grows with.
+	 */
+	public int getBucketCount() {
+		return buckets.size();
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdaptiveConcurrencyLimitTest {
+
+	@Test
+	public void testRejectsWithoutCapacity() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", 2, 4, Duration.ofSeconds(10));
+		long first = limit.tryAcquire();
+		long second = limit.tryAcquire();
+		assertTrue(first >= 0);
+		assertTrue(second >= 0);
+		assertFalse(limit.hasCapacity());
+		assertEquals(-1, limit.tryAcquire());
+		limit.onRejected();
+		assertEquals(1, limit.getRejected());
+		assertEquals(2, limit.getInFlight());
+
+		limit.release(first, false);
+		assertTrue(limit.hasCapacity());
+		limit.release(second, false);
+		assertEquals(0, limit.getInFlight());
+	}
+
+	@Test
+	public void testGrowsWhileUsedUpToMax() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", 2, 4, Duration.ofSeconds(10));
+		for (int i = 0; i < 100; i++) {
+			long first = limit.tryAcquire();
+			long second = limit.tryAcquire();
+			limit.release(first, false);
+			limit.release(second, false);
+		}
+		assertEquals(4, limit.getLimit());
+
+		// Calls that leave most of the limit unused do not raise it
+		AdaptiveConcurrencyLimit idle = new AdaptiveConcurrencyLimit("idle", 4, 8, Duration.ofSeconds(10));
+		for (int i = 0; i < 100; i++) {
+			idle.release(idle.tryAcquire(), false);
+		}
+		assertEquals(4, idle.getLimit());
+	}
+
+	@Test
+	public void testBacksOffOncePerCongestion() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", 8, 8, Duration.ofSeconds(10));
+		long[] starts = new long[8];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = limit.tryAcquire();
+		}
+		// All calls in flight at the time fail, which is one congestion signal
+		for (long start : starts) {
+			limit.release(start, true);
+		}
+		assertEquals(6, limit.getLimit());
+
+		// A call started after the cut counts again
+		limit.release(limit.tryAcquire(), true);
+		assertEquals(4, limit.getLimit());
+	}
+
+	@Test
+	public void testSlowCallsCountAsCongestion() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", 4, 4, Duration.ofMillis(1));
+		long start = limit.tryAcquire();
+		Thread.sleep(10);
+		limit.release(start, false);
+		assertEquals(3, limit.getLimit());
+	}
+
+	@Test
+	public void testNeverBelowOne() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit("test", 2, 2, Duration.ofSeconds(10));
+		for (int i = 0; i < 20; i++) {
+			limit.release(limit.tryAcquire(), true);
+		}
+		assertEquals(1, limit.getLimit());
+		assertTrue(limit.hasCapacity());
+	}
+}
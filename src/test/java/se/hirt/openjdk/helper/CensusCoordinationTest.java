@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs several replicas, each in its own JVM, sharing a directory, and checks that only one of
+ * them fetches the census.
+ */
+public class CensusCoordinationTest {
+	private static final long TIMEOUT_SECONDS = 60;
+
+	private final StandInServers servers = new StandInServers();
+	private final List<Replica> replicas = new ArrayList<>();
+	private String censusUrl;
+	private Path directory;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		servers.init(Map.of());
+		censusUrl = servers.start().get("openjdk.census.url");
+		directory = Files.createTempDirectory("census-shared");
+	}
+
+	@AfterEach
+	public void tearDown() {
+		replicas.forEach(Replica::kill);
+		servers.stop();
+	}
+
+	@Test
+	public void testOnlyOneReplicaFetches() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			replicas.add(new Replica(directory, censusUrl, 3600, 3_600_000));
+		}
+		Set<String> versions = new HashSet<>();
+		for (Replica replica : replicas) {
+			versions.add(replica.awaitVersion());
+		}
+		assertEquals(1, versions.size());
+		assertEquals(1, servers.getCensusRequests());
+		assertEquals(1, replicas.stream().filter(Replica::isFetcher).count());
+		assertTrue(Files.exists(directory.resolve("census.snapshot")));
+	}
+
+	@Test
+	public void testAnotherReplicaTakesOver() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			replicas.add(new Replica(directory, censusUrl, 2, 3_600_000));
+		}
+		for (Replica replica : replicas) {
+			replica.awaitVersion();
+		}
+		Replica fetcher = replicas.stream().filter(Replica::isFetcher).findFirst().orElseThrow();
+		fetcher.kill();
+		replicas.remove(fetcher);
+		int requests = servers.getCensusRequests();
+
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+		while (replicas.stream().noneMatch(Replica::isFetcher) || servers.getCensusRequests() == requests) {
+			assertTrue(System.currentTimeMillis() < deadline, "No replica took over fetching the census");
+			Thread.sleep(100);
+		}
+		assertEquals(1, replicas.stream().filter(Replica::isFetcher).count());
+	}
+
+	@Test
+	public void testStandbyTakesOverBeforeRefreshing() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			replicas.add(new Replica(directory, censusUrl, 3600, 200));
+		}
+		for (Replica replica : replicas) {
+			replica.awaitVersion();
+		}
+		Replica fetcher = replicas.stream().filter(Replica::isFetcher).findFirst().orElseThrow();
+		fetcher.kill();
+		replicas.remove(fetcher);
+
+		// Long before the next hourly refresh
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+		while (replicas.stream().noneMatch(Replica::isFetcher)) {
+			assertTrue(System.currentTimeMillis() < deadline, "No replica took over the fetcher lock");
+			Thread.sleep(100);
+		}
+		assertEquals(1, replicas.stream().filter(Replica::isFetcher).count());
+		// The census was just fetched, so the new fetcher does not fetch it again
+		assertEquals(1, servers.getCensusRequests());
+	}
+
+	private static final class Replica {
+		private final Process process;
+		private final BlockingQueue<String> versions = new LinkedBlockingQueue<>();
+		private volatile boolean fetcher;
+
+		Replica(Path directory, String censusUrl, int refreshIntervalInSeconds, long lockPollMillis) throws IOException {
+			String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+			process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), CoordinatedReplica.class.getName(), directory.toString(),
+					censusUrl, String.valueOf(refreshIntervalInSeconds), String.valueOf(lockPollMillis)).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			Thread reader = new Thread(this::readOutput, "replica-" + process.pid());
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		private void readOutput() {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.equals(CoordinatedReplica.FETCHER)) {
+						fetcher = true;
+					} else if (line.startsWith(CoordinatedReplica.VERSION)) {
+						versions.add(line.substring(CoordinatedReplica.VERSION.length()));
+					}
+				}
+			} catch (IOException e) {
+				// The replica was killed
+			}
+		}
+
+		String awaitVersion() throws InterruptedException {
+			String version = versions.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			assertNotNull(version, "Replica " + process.pid() + " did not publish a census");
+			return version;
+		}
+
+		boolean isFetcher() {
+			return fetcher;
+		}
+
+		void kill() {
+			process.destroyForcibly();
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import se.hirt.openjdk.helper.census.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CensusHistoryTest {
+	private static final Instant START = Instant.parse("2024-01-01T00:00:00Z");
+
+	@TempDir
+	Path directory;
+
+	@Test
+	public void testTimeTravel() throws IOException {
+		CensusHistory history = recordHistory();
+		assertEquals(START, history.getStart());
+		assertNull(history.getSnapshot(START.minusSeconds(1)));
+		assertEquals("Committer", jmcRole(history.getSnapshot(START), "hirt"));
+		assertEquals("Reviewer", jmcRole(history.getSnapshot(hours(1).plusSeconds(30)), "hirt"));
+		assertEquals("Lead", jmcRole(history.getSnapshot(hours(3)), "hirt"));
+		assertEquals("Author", jmcRole(history.getSnapshot(Instant.now()), "duke"));
+		assertNull(jmcRole(history.getSnapshot(hours(1)), "duke"));
+	}
+
+	@Test
+	public void testPersonHistory() throws IOException {
+		recordHistory();
+		// Reopen, so that the index is rebuilt from disk
+		CensusHistory history = new CensusHistory(directory, 2);
+		List<String> changes = history.getChanges("hirt").stream().map(change -> change.getType() + " " + change.getKind() + " " + change.getId() + " "
+				+ change.getValue() + (change.getPreviousValue() != null ? " from " + change.getPreviousValue() : "")).collect(Collectors.toList());
+		assertEquals(List.of("initial person hirt Marcus Hirt", "initial project jmc Committer", "changed project jmc Reviewer from Committer",
+				"changed project jmc Lead from Reviewer"), sortedPerTimestamp(history.getChanges("hirt"), changes));
+		assertEquals("added", history.getChanges("duke").get(0).getType());
+		assertEquals(hours(4), history.getChanges("duke").get(0).getTimestamp());
+	}
+
+	@Test
+	public void testSegmentsAreCompacted() throws IOException {
+		recordHistory();
+		try (Stream<Path> files = Files.list(directory)) {
+			List<String> names = files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+			assertEquals(2, names.size());
+			assertTrue(names.get(0).endsWith(".log.gz"));
+			assertTrue(names.get(1).endsWith(".log"));
+		}
+	}
+
+	@Test
+	public void testUnchangedSnapshotsAreNotRecorded() throws IOException {
+		CensusHistory history = new CensusHistory(directory, 2);
+		history.record(census(START, "Committer", false));
+		history.record(census(hours(1), "Committer", false));
+		assertEquals(2, history.getChanges("hirt").size());
+		assertEquals(START, history.getSnapshot(Instant.now()).getTimestamp());
+	}
+
+	@Test
+	public void testRecoversFromCrashDuringCompaction() throws IOException {
+		recordHistory();
+		int changes = new CensusHistory(directory, 2).getChanges("hirt").size();
+		// Crashed after the compacted segment was moved in place, before the active one was deleted
+		Path compacted = segments().get(0);
+		Path active = compacted.resolveSibling(compacted.getFileName().toString().replace(".gz", ""));
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(compacted))) {
+			Files.copy(in, active);
+		}
+		Files.write(compacted.resolveSibling(compacted.getFileName() + ".tmp"), new byte[] {1, 2, 3});
+
+		CensusHistory history = new CensusHistory(directory, 2);
+		assertEquals(changes, history.getChanges("hirt").size());
+		assertEquals(2, segments().size());
+		assertFalse(Files.exists(active));
+		history.record(census(hours(5), "Reviewer", true));
+		assertEquals("Reviewer", jmcRole(new CensusHistory(directory, 2).getSnapshot(hours(5)), "hirt"));
+	}
+
+	@Test
+	public void testRecoversFromTornCheckpoint() throws IOException {
+		recordHistory();
+		// Crashed while writing the checkpoint starting the last segment
+		Path active = segments().get(1);
+		try (FileChannel channel = FileChannel.open(active, StandardOpenOption.WRITE)) {
+			channel.truncate(10);
+		}
+
+		CensusHistory history = new CensusHistory(directory, 2);
+		assertTrue(history.isEnabled());
+		assertEquals(hours(2), history.getSnapshot(Instant.now()).getTimestamp());
+		assertFalse(Files.exists(active));
+		// Starts a new segment, rather than appending a delta to nothing
+		history.record(census(hours(5), "Reviewer", true));
+		CensusSnapshot reopened = new CensusHistory(directory, 2).getSnapshot(hours(5));
+		assertEquals("Reviewer", jmcRole(reopened, "hirt"));
+		assertEquals("Author", jmcRole(reopened, "duke"));
+		assertEquals("Marcus Hirt", reopened.getPeople().get("hirt").getFullName());
+	}
+
+	@Test
+	public void testDropsBadRecordsAtTheEnd() throws IOException {
+		recordHistory();
+		Path active = segments().get(1);
+		long length = Files.size(active);
+		// What a file system may leave at the end of a file after a crash
+		Files.write(active, new byte[64], StandardOpenOption.APPEND);
+
+		CensusHistory history = new CensusHistory(directory, 2);
+		assertTrue(history.isEnabled());
+		assertEquals(length, Files.size(active));
+		assertEquals(hours(4), history.getSnapshot(Instant.now()).getTimestamp());
+
+		// A record that does not match its checksum is dropped, with everything after it
+		history.record(census(hours(5), "Reviewer", true));
+		byte[] bytes = Files.readAllBytes(active);
+		bytes[(int) length + 12] ^= 1;
+		Files.write(active, bytes);
+		history = new CensusHistory(directory, 2);
+		assertTrue(history.isEnabled());
+		assertEquals(hours(4), history.getSnapshot(Instant.now()).getTimestamp());
+		assertEquals(length, Files.size(active));
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Records five versions of a small census; with two deltas per segment, the last one starts
+	 * a new segment.
+	 */
+	private CensusHistory recordHistory() throws IOException {
+		CensusHistory history = new CensusHistory(directory, 2);
+		history.record(census(START, "Committer", false));
+		history.record(census(hours(1), "Reviewer", false));
+		history.record(census(hours(2), "Lead", false));
+		// Older than the latest, ignored
+		history.record(census(hours(1), "Author", false));
+		history.record(census(hours(4), "Lead", true));
+		return history;
+	}
+
+	private static CensusSnapshot census(Instant timestamp, String hirtRole, boolean withDuke) {
+		Project jmc = new Project("jmc");
+		jmc.setFullName("JDK Mission Control Project");
+		Map<String, Person> people = new HashMap<>();
+		Person hirt = new Person("hirt", "Marcus Hirt");
+		people.put("hirt", hirt);
+		jmc.addMember("hirt", hirtRole);
+		hirt.addAffiliation("jmc", jmc);
+		if (withDuke) {
+			Person duke = new Person("duke", "Duke");
+			people.put("duke", duke);
+			jmc.addMember("duke", "Author");
+			duke.addAffiliation("jmc", jmc);
+		}
+		return new CensusSnapshot(people.keySet(), new HashMap<>(), new HashMap<>(Map.of("jmc", jmc)), people, timestamp);
+	}
+
+	private static String jmcRole(CensusSnapshot snapshot, String userId) {
+		return snapshot == null ? null : snapshot.getProjects().get("jmc").getMembers().get(userId);
+	}
+
+	private static Instant hours(int hours) {
+		return START.plus(Duration.ofHours(hours));
+	}
+
+	/**
+	 * Changes with the same timestamp have no defined order, so sort them for comparison.
+	 */
+	private static List<String> sortedPerTimestamp(List<CensusHistory.Change> changes, List<String> descriptions) {
+		List<String> sorted = new ArrayList<>();
+		for (int i = 0; i < changes.size(); ) {
+			int j = i;
+			while (j < changes.size() && changes.get(j).getTimestamp().equals(changes.get(i).getTimestamp())) {
+				j++;
+			}
+			List<String> group = new ArrayList<>(descriptions.subList(i, j));
+			Collections.sort(group);
+			sorted.addAll(group);
+			i = j;
+		}
+		return sorted;
+	}
+}
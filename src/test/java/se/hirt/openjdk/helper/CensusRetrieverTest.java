@@ -1,11 +1,18 @@
 package se.hirt.openjdk.helper;
 
+import com.sun.net.httpserver.HttpServer;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
 import org.junit.jupiter.api.Test;
 import se.hirt.openjdk.helper.census.CensusRetriever;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -30,4 +37,56 @@ public class CensusRetrieverTest {
 		assertFalse(result.isEmpty());
 		assertTrue(result.contains("OpenJDK"));
 	}
+
+	@Test
+	public void testRetrieveCensusStreamsDecompressedBody() throws IOException, InterruptedException {
+		StandInServers servers = new StandInServers();
+		servers.init(Map.of());
+		try {
+			CensusRetriever retriever = new CensusRetriever(servers.start().get("openjdk.census.url"));
+			String result = retriever.retrieveCensus((in, charset) -> {
+				assertEquals("us-ascii", charset);
+				return new String(in.readAllBytes(), charset);
+			});
+			assertTrue(result.contains("Marcus Hirt"));
+			assertEquals(1, servers.getGzipCensusResponses());
+		} finally {
+			servers.stop();
+		}
+	}
+
+	@Test
+	public void testRetrieveCensusFromFile() throws IOException, InterruptedException {
+		CensusRetriever retriever = new CensusRetriever(Path.of("src/test/resources/census.html").toUri().toString());
+		assertTrue(retriever.retrieveCensusContent().contains("Marcus Hirt"));
+	}
+
+	@Test
+	public void testRetrieveCensusGivesUpOnStalledBody() throws IOException, InterruptedException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/census", exchange -> {
+			// Promises a body, sends a little of it, and then nothing
+			exchange.sendResponseHeaders(200, 1_000_000);
+			OutputStream out = exchange.getResponseBody();
+			out.write("<html>".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			try {
+				Thread.sleep(30_000);
+			} catch (InterruptedException e) {
+				// Stopped
+			}
+			exchange.close();
+		});
+		server.start();
+		try {
+			CensusRetriever retriever = new CensusRetriever("http://localhost:" + server.getAddress().getPort() + "/census", Duration.ofMillis(500));
+			long start = System.nanoTime();
+			IOException e = assertThrows(IOException.class, retriever::retrieveCensusContent);
+			assertTrue(e.getMessage().contains("deadline"), e.getMessage());
+			assertTrue(System.nanoTime() - start < Duration.ofSeconds(10).toNanos());
+			assertFalse(Thread.currentThread().isInterrupted());
+		} finally {
+			server.stop(0);
+		}
+	}
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import se.hirt.openjdk.helper.census.CensusSnapshot;
+import se.hirt.openjdk.helper.census.OpenjdkCensusScraper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures how parsing, searching and the retained heap of a snapshot grow with the size of the
+ * census, using {@link SyntheticCensus}, and fails on clearly superlinear growth. Excluded from the
+ * normal build; run with {@code ./mvnw test -Pload-test -Dtest=CensusScalingTest}. The scales can
+ * be changed with the {@code scaling.factors} system property, e.g. {@code 1,10,100} (which needs
+ * a few GB of heap).
+ * <p>
+ * The serialization of the people endpoint can be measured at scale by running the load tests
+ * with {@code -Dloadtest.census.scale=10}.
+ */
+@Tag("load")
+public class CensusScalingTest {
+	private static final double[] FACTORS = Arrays.stream(System.getProperty("scaling.factors", "1,2,5,10").split(","))
+			.mapToDouble(Double::parseDouble).toArray();
+	// Allowed growth of the cost per person, from the smallest to the largest scale
+	private static final double MAX_GROWTH = 3;
+
+	private static final class Measurement {
+		private final int people;
+		private final double parseMillis;
+		private final double searchMillis;
+		private final long retainedBytes;
+
+		Measurement(int people, double parseMillis, double searchMillis, long retainedBytes) {
+			this.people = people;
+			this.parseMillis = parseMillis;
+			this.searchMillis = searchMillis;
+			this.retainedBytes = retainedBytes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%9d people: parse %9.1f ms (%6.2f us/person), search %8.2f ms (%6.3f us/person), retained %6.1f MB (%5d B/person)",
+					people, parseMillis, parseMillis * 1000 / people, searchMillis, searchMillis * 1000 / people, retainedBytes / 1048576.0,
+					retainedBytes / people);
+		}
+	}
+
+	@Test
+	public void testScaling() {
+		List<Measurement> measurements = new ArrayList<>();
+		for (double factor : FACTORS) {
+			measurements.add(measure(SyntheticCensus.ofScale(factor)));
+			System.out.println(measurements.get(measurements.size() - 1));
+		}
+		Measurement smallest = measurements.get(0);
+		Measurement largest = measurements.get(measurements.size() - 1);
+		assertLinear("parse time", smallest.parseMillis / smallest.people, largest.parseMillis / largest.people);
+		assertLinear("search time", smallest.searchMillis / smallest.people, largest.searchMillis / largest.people);
+		assertLinear("retained heap", (double) smallest.retainedBytes / smallest.people, (double) largest.retainedBytes / largest.people);
+	}
+
+	private static Measurement measure(SyntheticCensus synthetic) {
+		String html = synthetic.toHtml();
+		// Warm up at every scale, so that the smallest scale is not penalized
+		new OpenjdkCensusScraper(html);
+		double parseMillis = median(() -> new OpenjdkCensusScraper(html));
+
+		long before = usedHeapAfterGc();
+		CensusSnapshot snapshot = new OpenjdkCensusScraper(html).getSnapshot();
+		long retained = usedHeapAfterGc() - before;
+		assertEquals(synthetic.getPeopleCount(), snapshot.getPeople().size());
+
+		snapshot.findPeople("Hir.*");
+		double searchMillis = median(() -> {
+			snapshot.findPeople("Hir.*");
+			snapshot.findPeople(".*nomatch.*");
+			return snapshot.findProjects(".*-1.*");
+		});
+		Measurement measurement = new Measurement(synthetic.getPeopleCount(), parseMillis, searchMillis, retained);
+		// Keep the snapshot reachable until it has been measured
+		assertTrue(snapshot.getUserIds().size() > 0);
+		return measurement;
+	}
+
+	private static double median(Supplier<?> operation) {
+		double[] millis = new double[5];
+		for (int i = 0; i < millis.length; i++) {
+			long start = System.nanoTime();
+			operation.get();
+			millis[i] = (System.nanoTime() - start) / 1e6;
+		}
+		Arrays.sort(millis);
+		return millis[millis.length / 2];
+	}
+
+	private static long usedHeapAfterGc() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static void assertLinear(String what, double smallestPerPerson, double largestPerPerson) {
+		assertTrue(largestPerPerson <= smallestPerPerson * MAX_GROWTH,
+				String.format("The %s per person grew from %.3f to %.3f", what, smallestPerPerson, largestPerPerson));
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import se.hirt.openjdk.helper.census.CensusCoordinator;
+import se.hirt.openjdk.helper.census.CensusRetriever;
+import se.hirt.openjdk.helper.census.OpenjdkCensusScraper;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * A census replica, run in its own JVM by {@link CensusCoordinationTest}. Prints a line when it
+ * becomes the fetcher, and one for every census version it publishes.
+ * <p>
+ * Arguments: the shared directory, the census URL, the refresh interval in seconds and the lock
+ * poll interval in milliseconds.
+ */
+public class CoordinatedReplica {
+	static final String FETCHER = "FETCHER";
+	static final String VERSION = "VERSION ";
+
+	public static void main(String[] args) throws InterruptedException {
+		CensusCoordinator coordinator = new CensusCoordinator(Path.of(args[0]), Duration.ofMillis(Long.parseLong(args[3])));
+		OpenjdkCensusScraper scraper = new OpenjdkCensusScraper(new CensusRetriever(args[1]), Integer.parseInt(args[2]), coordinator);
+		String version = null;
+		boolean fetcher = false;
+		while (true) {
+			if (!fetcher && coordinator.isFetcher()) {
+				fetcher = true;
+				report(FETCHER);
+			}
+			String current = scraper.getSnapshot().getVersion();
+			if (scraper.getSnapshot().getPeople().size() > 0 && !current.equals(version)) {
+				version = current;
+				report(VERSION + version);
+			}
+			Thread.sleep(50);
+		}
+	}
+
+	private static void report(String line) {
+		System.out.println(line);
+		System.out.flush();
+	}
+}
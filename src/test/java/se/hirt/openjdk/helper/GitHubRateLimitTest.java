@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.ResourceArg;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs against a GitHub stand-in with a tiny rate limit. The analytics crawl all 250 pull requests
+ * with three bulk requests the first time, and with one after that.
+ */
+@QuarkusTest
+@QuarkusTestResource(value = StandInServers.class, restrictToAnnotatedClass = true, initArgs = {
+		@ResourceArg(name = StandInServers.RATE_LIMIT, value = "10")})
+public class GitHubRateLimitTest {
+
+	@Test
+	public void testBulkRequestsAreShedBeforeInteractiveOnes() {
+		int status = 200;
+		for (int i = 0; i < 10 && status == 200; i++) {
+			status = given().when().get("/github/analytics?owner=openjdk&repo=jmc").then().extract().statusCode();
+		}
+		assertEquals(429, status);
+
+		// The reserve is kept for interactive requests...
+		given()
+				.when().get("/github/repos?user=thegreystone")
+				.then()
+				.statusCode(200);
+
+		// ...until the budget is exhausted, after which GitHub is not asked at all
+		status = 200;
+		for (int i = 0; i < 10 && status != 429; i++) {
+			status = given().when().get("/github/repos?user=thegreystone").then().extract().statusCode();
+		}
+		given()
+				.when().get("/github/repos?user=thegreystone")
+				.then()
+				.statusCode(429)
+				.header("Retry-After", notNullValue())
+				.body(containsString("retry after"));
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+import se.hirt.openjdk.helper.github.PullRequestStore;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.HexFormat;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+@QuarkusTestResource(value = StandInServers.class, restrictToAnnotatedClass = true)
+public class GitHubResourceTest {
+	@Inject
+	PullRequestStore pullStore;
+
+	@Test
+	public void testRepositories() {
+		given()
+				.when().get("/github/repos?user=thegreystone")
+				.then()
+				.statusCode(200)
+				.body("", hasSize(5))
+				.body("[0].name", is("thegreystone-repo-0"));
+	}
+
+	@Test
+	public void testPullRequestsFollowsPages() {
+		given()
+				.when().get("/github/pulls?owner=openjdk&repo=jmc&state=all")
+				.then()
+				.statusCode(200)
+				.body("", hasSize(250))
+				.body("[0].number", is(250));
+	}
+
+	@Test
+	public void testPullRequestsStateAndUser() {
+		given()
+				.when().get("/github/pulls?owner=openjdk&repo=jmc&state=open&user=thegreystone")
+				.then()
+				.statusCode(200)
+				.body("", hasSize(16))
+				.body("state", everyItem(is("open")))
+				.body("user", everyItem(is("thegreystone")));
+	}
+
+	@Test
+	public void testPullRequestsMaxResults() {
+		given()
+				.when().get("/github/pulls?owner=openjdk&repo=jmc&state=all&maxresults=1&direction=asc")
+				.then()
+				.statusCode(200)
+				.body("", hasSize(1))
+				.body("[0].number", is(1))
+				.body("[0].body", is("Description of change 1."));
+	}
+
+	@Test
+	public void testPullRequestsFieldsAndBodyMax() {
+		given()
+				.when().get("/github/pulls?owner=openjdk&repo=jmc&state=all&maxresults=2&direction=asc&fields=number,body,merged_at&bodymax=14")
+				.then()
+				.statusCode(200)
+				.body("", hasSize(2))
+				.body("[0].keySet()", containsInAnyOrder("number", "body", "body_truncated", "merged_at"))
+				.body("[0].body", is("Description of"))
+				.body("[0].body_truncated", is(true))
+				.body("[0].merged_at", notNullValue())
+				.body("[1].merged_at", nullValue());
+	}
+
+	@Test
+	public void testRepositoriesFields() {
+		given()
+				.when().get("/github/repos?user=thegreystone&fields=name,stars")
+				.then()
+				.statusCode(200)
+				.body("[1].keySet()", containsInAnyOrder("name", "stars"))
+				.body("[1].stars", is(7));
+	}
+
+	@Test
+	public void testInvalidField() {
+		given()
+				.when().get("/github/pulls?owner=openjdk&repo=jmc&fields=number,reviewers")
+				.then()
+				.statusCode(400)
+				.body(startsWith("Invalid field: reviewers"));
+	}
+
+	@Test
+	public void testSinglePullRequestHasFullBody() {
+		given()
+				.when().get("/github/pulls/7?owner=openjdk&repo=jmc")
+				.then()
+				.statusCode(200)
+				.body("number", is(7))
+				.body("body", endsWith("Progress checklist"))
+				.body("closed_at", notNullValue());
+		given()
+				.when().get("/github/pulls/100000?owner=openjdk&repo=jmc")
+				.then()
+				.statusCode(404);
+	}
+
+	@Test
+	public void testCensusIsServedFromStandIn() {
+		given()
+				.when().get("/census/projects?projectid=jmc")
+				.then()
+				.statusCode(200)
+				.body("results[0].members", hasSize(27));
+	}
+
+	@Test
+	public void testAnalyticsUpdatesIncrementally() {
+		given()
+				.when().get("/github/analytics?owner=openjdk&repo=analytics&top=3")
+				.then()
+				.statusCode(200)
+				.body("repositories[0].updated", is(250))
+				.body("pullRequests", is(250))
+				.body("open", is(83))
+				.body("closed", is(167))
+				.body("merged", is(83))
+				.body("timeToCloseHours.count", is(167))
+				.body("timeToCloseHours.p50", greaterThanOrEqualTo(3f))
+				.body("longestWaiting", hasSize(3))
+				.body("longestWaiting[0].number", is(3))
+				.body("authors.bric3", is(50));
+
+		// Nothing has changed since, so nothing is counted again
+		given()
+				.when().get("/github/analytics?owner=openjdk&repo=analytics")
+				.then()
+				.statusCode(200)
+				.body("repositories[0].updated", is(0))
+				.body("pullRequests", is(250));
+	}
+
+	@Test
+	public void testAnalyticsMergesRepositories() {
+		given()
+				.when().get("/github/analytics?owner=openjdk&repo=analytics-a,analytics-b")
+				.then()
+				.statusCode(200)
+				.body("repositories", hasSize(2))
+				.body("pullRequests", is(500))
+				.body("timeToMergeHours.count", is(166));
+	}
+
+	@Test
+	public void testPullRequestsAcrossRepositories() {
+		given()
+				.when().get("/github/repos/pulls?owner=openjdk&repos=jmc,jmc-agent,skara&user=thegreystone&maxresults=10&fields=number,user")
+				.then()
+				.statusCode(200)
+				.body("", hasSize(10))
+				.body("user", everyItem(is("thegreystone")))
+				.body("[0].repo", is("jmc"))
+				.body("[0].number", is(240))
+				.body("[2].repo", is("skara"))
+				.body("[3].number", is(225))
+				.body("[9].repo", is("jmc"))
+				.body("[9].number", is(195));
+
+		given()
+				.when().get("/github/repos/pulls?owner=openjdk&match=repo-[0-2]&state=all&maxresults=5&direction=asc&fields=number")
+				.then()
+				.statusCode(200)
+				.body("repo", contains("openjdk-repo-0", "openjdk-repo-1", "openjdk-repo-2", "openjdk-repo-0", "openjdk-repo-1"))
+				.body("number", contains(1, 1, 1, 2, 2));
+	}
+
+	@Test
+	public void testPullRequestsAcrossRepositoriesValidation() {
+		given()
+				.when().get("/github/repos/pulls?owner=openjdk&repos=jmc&sort=popularity")
+				.then()
+				.statusCode(400);
+		given()
+				.when().get("/github/repos/pulls?owner=openjdk&repos=jmc&match=jmc")
+				.then()
+				.statusCode(400);
+	}
+
+	@Test
+	public void testWebhookKeepsPullRequestsCurrent() throws Exception {
+		postWebhook("pull_request", "pull_request_opened.json")
+				.then()
+				.statusCode(200)
+				.body(is("Applied pull request 251"));
+		// The first request starts filling the store with a crawl, and is answered by GitHub meanwhile
+		given()
+				.when().get("/github/pulls?owner=openjdk&repo=webhooks&state=open")
+				.then()
+				.statusCode(200)
+				.body("", hasSize(83));
+		long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+		while (!pullStore.get("openjdk", "webhooks").isSynced() && System.nanoTime() < deadline) {
+			Thread.sleep(50);
+		}
+		assertTrue(pullStore.get("openjdk", "webhooks").isSynced());
+		// The crawl keeps the newer pull request from the event
+		given()
+				.when().get("/github/pulls?owner=openjdk&repo=webhooks&state=open")
+				.then()
+				.statusCode(200)
+				.body("", hasSize(84))
+				.body("[0].number", is(251))
+				.body("[0].body", is("Applies pull request events as they happen."));
+
+		postWebhook("pull_request", "pull_request_closed.json")
+				.then()
+				.statusCode(200);
+		// A late redelivery of the older event does not reopen it
+		postWebhook("pull_request", "pull_request_opened.json")
+				.then()
+				.statusCode(200)
+				.body(is("Ignored outdated pull request 251"));
+		given()
+				.when().get("/github/pulls?owner=openjdk&repo=webhooks&state=open")
+				.then()
+				.statusCode(200)
+				.body("", hasSize(83))
+				.body("number", not(hasItem(251)));
+		given()
+				.when().get("/github/pulls?owner=openjdk&repo=webhooks&state=closed&maxresults=1&fields=number,merged_at")
+				.then()
+				.statusCode(200)
+				.body("[0].number", is(251))
+				.body("[0].merged_at", is("2021-03-02T12:00:00Z"));
+	}
+
+	@Test
+	public void testWebhookSignature() throws Exception {
+		given()
+				.contentType("application/json")
+				.header("X-GitHub-Event", "pull_request")
+				.header("X-Hub-Signature-256", "sha256=" + "0".repeat(64))
+				.body(readPayload("pull_request_opened.json"))
+				.when().post("/github/webhook")
+				.then()
+				.statusCode(401);
+		postWebhook("ping", "pull_request_opened.json")
+				.then()
+				.statusCode(200)
+				.body(is("pong"));
+		postWebhook("issues", "pull_request_opened.json")
+				.then()
+				.statusCode(202);
+	}
+
+	private static io.restassured.response.Response postWebhook(String event, String payloadName) throws IOException, GeneralSecurityException {
+		byte[] payload = readPayload(payloadName);
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(StandInServers.WEBHOOK_SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+		return given()
+				.contentType("application/json")
+				.header("X-GitHub-Event", event)
+				.header("X-Hub-Signature-256", "sha256=" + HexFormat.of().formatHex(mac.doFinal(payload)))
+				.body(payload)
+				.when().post("/github/webhook");
+	}
+
+	private static byte[] readPayload(String name) throws IOException {
+		try (InputStream in = GitHubResourceTest.class.getResourceAsStream("/webhooks/" + name)) {
+			return in.readAllBytes();
+		}
+	}
+}
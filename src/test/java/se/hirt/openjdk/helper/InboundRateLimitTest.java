@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.ResourceArg;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs with an inbound capacity of two GitHub requests per client, each costing a lookup and the
+ * request made to GitHub.
+ */
+@QuarkusTest
+@QuarkusTestResource(value = StandInServers.class, restrictToAnnotatedClass = true, initArgs = {
+		@ResourceArg(name = StandInServers.INBOUND_CAPACITY, value = "22")})
+public class InboundRateLimitTest {
+	@Inject
+	InboundRateLimiter rateLimiter;
+
+	@Test
+	public void testClientOverLimitIsRefused() {
+		// No trusted proxy is configured, so a new forwarded address does not get a new bucket
+		for (int i = 0; i < 2; i++) {
+			given()
+					.header("X-Forwarded-For", "192.0.2." + i)
+					.when().get("/github/repos?user=thegreystone")
+					.then()
+					.statusCode(200);
+		}
+		given()
+				.header("X-Forwarded-For", "192.0.2.2")
+				.when().get("/github/repos?user=thegreystone")
+				.then()
+				.statusCode(429)
+				.header("Retry-After", notNullValue())
+				.body(containsString("retry after"));
+
+		// A client with an API key has a bucket of its own
+		given()
+				.header(InboundRateLimiter.API_KEY_HEADER, StandInServers.API_KEY)
+				.when().get("/census/people?userid=hirt")
+				.then()
+				.statusCode(200);
+	}
+
+	@Test
+	public void testCrawlIsChargedPerGitHubRequest() {
+		// All 250 pull requests take three GitHub requests, one more than the capacity allows
+		given()
+				.header(InboundRateLimiter.API_KEY_HEADER, StandInServers.API_KEY)
+				.when().get("/github/pulls?owner=openjdk&repo=jmc&state=all")
+				.then()
+				.statusCode(429)
+				.header("Retry-After", notNullValue());
+	}
+
+	@Test
+	public void testExpensiveRequestsCostAsSearches() {
+		int searchCost = rateLimiter.costOf("/census/people/search");
+		assertTrue(searchCost > rateLimiter.costOf("/census/people"));
+		assertEquals(searchCost, rateLimiter.costOf("/census/graphql"));
+		assertEquals(searchCost, rateLimiter.costOf("/census/export"));
+	}
+
+	@Test
+	public void testClientsAreBounded() {
+		for (int i = 0; i < 10_100; i++) {
+			rateLimiter.tryConsume("10.0." + (i / 256) + "." + (i % 256), 1);
+		}
+		assertEquals(10_000, rateLimiter.getClientCount());
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a single endpoint at a fixed request rate and reports throughput and latency
+ * percentiles. Requests are sent on schedule regardless of whether earlier ones have completed,
+ * and latency is measured from the scheduled send time, so that a slow server shows up as
+ * latency rather than as a lower request rate.
+ */
+public class LoadDriver {
+	private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+	private final URI uri;
+	private final int requestsPerSecond;
+	private final Duration duration;
+
+	public LoadDriver(URI uri, int requestsPerSecond, Duration duration) {
+		this.uri = uri;
+		this.requestsPerSecond = requestsPerSecond;
+		this.duration = duration;
+	}
+
+	public Report run() throws InterruptedException {
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+		int total = (int) Math.max(1, duration.toNanos() / intervalNanos);
+		long[] latencies = new long[total];
+		AtomicInteger errors = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(total);
+		HttpRequest request = HttpRequest.newBuilder(uri).header("Accept-Encoding", "gzip").GET().build();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < total; i++) {
+			long scheduled = start + i * intervalNanos;
+			long wait = scheduled - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			int index = i;
+			client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, throwable) -> {
+				latencies[index] = System.nanoTime() - scheduled;
+				if (throwable != null || response.statusCode() >= 400) {
+					errors.incrementAndGet();
+				}
+				done.countDown();
+			});
+		}
+		if (!done.await(duration.toSeconds() + 60, TimeUnit.SECONDS)) {
+			throw new IllegalStateException("Requests to " + uri + " did not complete in time");
+		}
+		return new Report(uri, requestsPerSecond, latencies, errors.get(), System.nanoTime() - start);
+	}
+
+	public static class Report {
+		private final URI uri;
+		private final int targetRate;
+		private final long[] sortedLatencies;
+		private final int errors;
+		private final long elapsedNanos;
+
+		Report(URI uri, int targetRate, long[] latencies, int errors, long elapsedNanos) {
+			this.uri = uri;
+			this.targetRate = targetRate;
+			this.sortedLatencies = latencies.clone();
+			Arrays.sort(sortedLatencies);
+			this.errors = errors;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public int getRequests() {
+			return sortedLatencies.length;
+		}
+
+		public int getErrors() {
+			return errors;
+		}
+
+		public double getThroughput() {
+			return sortedLatencies.length / (elapsedNanos / 1e9);
+		}
+
+		/**
+		 * @param percentile the percentile, between 0 and 100.
+		 * @return the latency at the percentile, in milliseconds.
+		 */
+		public double getLatencyMillis(double percentile) {
+			int index = (int) Math.ceil(percentile / 100.0 * sortedLatencies.length) - 1;
+			return sortedLatencies[Math.max(0, Math.min(index, sortedLatencies.length - 1))] / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("GET %s at %d req/s: %d requests, %d errors, %.1f req/s, latency ms p50=%.2f p90=%.2f p99=%.2f max=%.2f", uri,
+					targetRate, getRequests(), errors, getThroughput(), getLatencyMillis(50), getLatencyMillis(90), getLatencyMillis(99),
+					getLatencyMillis(100));
+		}
+	}
+}
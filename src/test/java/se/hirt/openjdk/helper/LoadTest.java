@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.ResourceArg;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.URL;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Load tests against the local stand-ins, runnable without network access. Excluded from the
+ * normal build; run with {@code ./mvnw test -Pload-test}. The rate and duration can be changed
+ * with the {@code loadtest.rate} (requests per second) and {@code loadtest.duration} (seconds)
+ * system properties.
+ */
+@QuarkusTest
+@QuarkusTestResource(value = StandInServers.class, restrictToAnnotatedClass = true, initArgs = {
+		@ResourceArg(name = StandInServers.LATENCY_MILLIS, value = "20"), @ResourceArg(name = StandInServers.RATE_LIMIT, value = "1000000")})
+@Tag("load")
+public class LoadTest {
+	private static final int RATE = Integer.getInteger("loadtest.rate", 50);
+	private static final Duration DURATION = Duration.ofSeconds(Integer.getInteger("loadtest.duration", 10));
+
+	@TestHTTPResource("/")
+	URL baseUrl;
+
+	@Test
+	public void testPeople() throws Exception {
+		run("census/people");
+	}
+
+	@Test
+	public void testPerson() throws Exception {
+		run("census/people?userid=hirt");
+	}
+
+	@Test
+	public void testSearchPeople() throws Exception {
+		run("census/people/search?query=Hir.*");
+	}
+
+	@Test
+	public void testProjects() throws Exception {
+		run("census/projects");
+	}
+
+	@Test
+	public void testPullRequests() throws Exception {
+		run("github/pulls?owner=openjdk&repo=jmc&state=all");
+	}
+
+	@Test
+	public void testRepositories() throws Exception {
+		run("github/repos?user=thegreystone");
+	}
+
+	private void run(String path) throws Exception {
+		URI uri = baseUrl.toURI().resolve(path);
+		// Warm up before measuring.
+		new LoadDriver(uri, RATE, Duration.ofSeconds(1)).run();
+		LoadDriver.Report report = new LoadDriver(uri, RATE, DURATION).run();
+		System.out.println(report);
+		assertEquals(0, report.getErrors(), report.toString());
+	}
+}
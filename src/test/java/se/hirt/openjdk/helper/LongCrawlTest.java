@@ -31,55 +31,39 @@
  */
 package se.hirt.openjdk.helper;
 
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.ResourceArg;
 import io.quarkus.test.junit.QuarkusTest;
 import org.junit.jupiter.api.Test;
 
 import static io.restassured.RestAssured.given;
-import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.*;
 
+/**
+ * Runs with the default inbound capacity, against repositories of 20 000 pull requests, which
+ * take 200 GitHub requests to crawl.
+ */
 @QuarkusTest
-public class CensusResourceTest {
+@QuarkusTestResource(value = StandInServers.class, restrictToAnnotatedClass = true, initArgs = {
+		@ResourceArg(name = StandInServers.PULLS_PER_REPO, value = "20000"), @ResourceArg(name = StandInServers.INBOUND_CAPACITY, value = "120")})
+public class LongCrawlTest {
 
 	@Test
-	public void testSearchPeopleEndpoint() {
+	public void testCompleteListingFinishes() {
 		given()
-				.when().get("/census/people/search?query=Hir.*")
+				.when().get("/github/pulls?owner=openjdk&repo=jdk&state=all&maxresults=-1&fields=number")
 				.then()
 				.statusCode(200)
-				.body("query", is("Hir.*"))
-				.body("results", hasSize(3))
-				.body("results[0].userId", notNullValue())
-				.body("results[0].fullName", notNullValue())
-				.body("results[0].affiliations.groups", isA(java.util.List.class))
-				.body("results[0].affiliations.projects", isA(java.util.List.class));
+				.body("size()", is(20000));
 	}
 
 	@Test
-	public void testSearchPeopleEndpointNoResults() {
+	public void testFirstAnalyticsCrawlFinishes() {
 		given()
-				.when().get("/census/people/search?query=NonexistentPerson")
+				.when().get("/github/analytics?owner=openjdk&repo=jdk-sandbox")
 				.then()
 				.statusCode(200)
-				.body("query", is("NonexistentPerson"))
-				.body("results", hasSize(0));
-	}
-
-	@Test
-	public void testSearchPeopleEndpointMissingQuery() {
-		given()
-				.when().get("/census/people/search")
-				.then()
-				.statusCode(400)
-				.body("error", is("Query parameter is required"));
-	}
-
-	@Test
-	public void testSearchPeopleEndpointEmptyQuery() {
-		given()
-				.when().get("/census/people/search?query=")
-				.then()
-				.statusCode(400)
-				.body("error", is("Query parameter is required"));
+				.body("repositories[0].updated", is(20000))
+				.body("repositories[0].updatedThrough", notNullValue());
 	}
 }
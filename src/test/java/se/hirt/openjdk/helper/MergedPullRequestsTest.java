@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import se.hirt.openjdk.helper.github.MergedPullRequests;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MergedPullRequestsTest {
+
+	@Test
+	public void testMergesInOrderUpToLimit() {
+		MergedPullRequests merged = new MergedPullRequests("created_at", false, 4);
+		// Each repository arrives newest first, interleaved
+		for (int day = 9; day >= 1; day--) {
+			add(merged, "jmc", day * 2, day);
+			add(merged, "jdk", day * 2 + 1, day);
+		}
+		assertEquals(List.of("jdk#19", "jmc#18", "jdk#17", "jmc#16"), names(merged.getResults()));
+	}
+
+	@Test
+	public void testStopsCrawlsBeyondLimit() {
+		MergedPullRequests merged = new MergedPullRequests("updated_at", true, 2);
+		assertTrue(merged.isWanted("skara", pull(1, 5)));
+		add(merged, "skara", 1, 5);
+		add(merged, "skara", 2, 6);
+		// Anything sorting after the two merged ones, and so the rest of its repository, is not needed
+		assertFalse(merged.isWanted("jmc", pull(7, 7)));
+		// Ties are broken by repository
+		assertFalse(merged.isWanted("zgc", pull(3, 6)));
+		assertTrue(merged.isWanted("jmc", pull(4, 4)));
+		add(merged, "jmc", 4, 4);
+		assertEquals(List.of("jmc#4", "skara#1"), names(merged.getResults()));
+	}
+
+	@Test
+	public void testUnlimited() {
+		MergedPullRequests merged = new MergedPullRequests("created_at", false, Integer.MAX_VALUE);
+		for (int number = 1; number <= 100; number++) {
+			assertTrue(merged.isWanted("jmc", pull(number, number)));
+			add(merged, "jmc", number, number);
+		}
+		assertEquals(100, merged.getResults().size());
+		assertEquals("jmc#100", names(merged.getResults()).get(0));
+	}
+
+	private static void add(MergedPullRequests merged, String repo, int number, int day) {
+		ObjectNode result = JsonNodeFactory.instance.objectNode().put("name", repo + "#" + number);
+		merged.add(repo, pull(number, day), result);
+	}
+
+	private static JsonNode pull(int number, int day) {
+		String timestamp = Instant.parse("2024-01-01T00:00:00Z").plus(Duration.ofDays(day)).toString();
+		return JsonNodeFactory.instance.objectNode().put("number", number).put("created_at", timestamp).put("updated_at", timestamp);
+	}
+
+	private static List<String> names(List<JsonNode> results) {
+		return results.stream().map(result -> result.path("name").asText()).collect(Collectors.toList());
+	}
+}
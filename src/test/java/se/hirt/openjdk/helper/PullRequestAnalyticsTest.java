@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import se.hirt.openjdk.helper.github.PullRequestAnalytics;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PullRequestAnalyticsTest {
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	@Test
+	public void testStalePageDoesNotReopen() {
+		PullRequestAnalytics analytics = new PullRequestAnalytics();
+		assertTrue(analytics.record("openjdk", "jmc", pull(1, "2024-01-01T00:00:00Z", "2024-01-03T00:00:00Z", "2024-01-03T00:00:00Z")));
+		// Fetched before it was closed, by a crawl still under way
+		assertFalse(analytics.record("openjdk", "jmc", pull(1, "2024-01-01T00:00:00Z", "2024-01-02T00:00:00Z", null)));
+		PullRequestAnalytics.Summary summary = summarize(analytics);
+		assertEquals(1, summary.getPullRequestCount());
+		assertEquals(0, summary.getOpenCount());
+		assertEquals(1, summary.getTimeToClose().getCount());
+	}
+
+	@Test
+	public void testReopenedIsOpenOnly() {
+		PullRequestAnalytics analytics = new PullRequestAnalytics();
+		analytics.record("openjdk", "jmc", pull(1, "2024-01-01T00:00:00Z", "2024-01-03T00:00:00Z", "2024-01-03T00:00:00Z"));
+		assertTrue(analytics.record("openjdk", "jmc", pull(1, "2024-01-01T00:00:00Z", "2024-01-04T00:00:00Z", null)));
+		PullRequestAnalytics.Summary summary = summarize(analytics);
+		assertEquals(1, summary.getOpenCount());
+		assertEquals(0, summary.toMap(Instant.parse("2024-01-05T00:00:00Z"), 10).get("closed"));
+		// Closed again, the first time to close is kept
+		analytics.record("openjdk", "jmc", pull(1, "2024-01-01T00:00:00Z", "2024-01-05T00:00:00Z", "2024-01-05T00:00:00Z"));
+		summary = summarize(analytics);
+		assertEquals(0, summary.getOpenCount());
+		assertEquals(1, summary.getTimeToClose().getCount());
+	}
+
+	@Test
+	public void testRepositoriesAreBounded() {
+		PullRequestAnalytics analytics = new PullRequestAnalytics();
+		assertNull(analytics.findStats("openjdk", "missing"));
+		for (int i = 0; i < 1_100; i++) {
+			analytics.record("openjdk", "repo-" + i, pull(1, "2024-01-01T00:00:00Z", "2024-01-01T00:00:00Z", null));
+		}
+		assertNull(analytics.findStats("openjdk", "repo-0"));
+		assertNotNull(analytics.findStats("openjdk", "repo-1099"));
+	}
+
+	private static PullRequestAnalytics.Summary summarize(PullRequestAnalytics analytics) {
+		return PullRequestAnalytics.summarize(List.of(analytics.findStats("openjdk", "jmc")));
+	}
+
+	private static JsonNode pull(int number, String createdAt, String updatedAt, String closedAt) {
+		ObjectNode pull = MAPPER.createObjectNode();
+		pull.put("number", number);
+		pull.put("title", "Change " + number);
+		pull.putObject("user").put("login", "thegreystone");
+		pull.put("created_at", createdAt);
+		pull.put("updated_at", updatedAt);
+		pull.put("closed_at", closedAt);
+		return pull;
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import org.junit.jupiter.api.Test;
+import se.hirt.openjdk.helper.github.QuantileSketch;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuantileSketchTest {
+
+	@Test
+	public void testQuantilesWithinRelativeAccuracy() {
+		QuantileSketch sketch = new QuantileSketch(0.01);
+		for (int i = 1; i <= 10000; i++) {
+			sketch.add(i);
+		}
+		assertEquals(10000, sketch.getCount());
+		assertEquals(5000, sketch.getQuantile(0.5), 5000 * 0.01);
+		assertEquals(9900, sketch.getQuantile(0.99), 9900 * 0.01);
+		assertEquals(1, sketch.getQuantile(0));
+		assertEquals(10000, sketch.getQuantile(1));
+		// Logarithmic in the range of the values, not linear in their number
+		assertTrue(sketch.getBucketCount() < 500, String.valueOf(sketch.getBucketCount()));
+	}
+
+	@Test
+	public void testMergeEqualsCombined() {
+		Random random = new Random(4711);
+		QuantileSketch first = new QuantileSketch(0.01);
+		QuantileSketch second = new QuantileSketch(0.01);
+		QuantileSketch combined = new QuantileSketch(0.01);
+		for (int i = 0; i < 5000; i++) {
+			double value = Math.exp(random.nextDouble() * 12);
+			(i % 2 == 0 ? first : second).add(value);
+			combined.add(value);
+		}
+		first.merge(second);
+		assertEquals(combined.getCount(), first.getCount());
+		for (double quantile : new double[] {0, 0.25, 0.5, 0.9, 0.99, 1}) {
+			assertEquals(combined.getQuantile(quantile), first.getQuantile(quantile));
+		}
+		assertThrows(IllegalArgumentException.class, () -> first.merge(new QuantileSketch(0.02)));
+	}
+
+	@Test
+	public void testZerosAndEmpty() {
+		QuantileSketch sketch = new QuantileSketch(0.01);
+		assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+		sketch.add(0);
+		sketch.add(0);
+		sketch.add(-1);
+		sketch.add(100);
+		assertEquals(0, sketch.getQuantile(0.5));
+		assertEquals(100, sketch.getQuantile(1));
+	}
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.quarkus.test.common.QuarkusTestResourceLifecycleManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-ins for openjdk.org and the GitHub API, so that the service can be tested and load
+ * tested without network access. The census stand-in serves the census.html fixture, the GitHub
+ * stand-in serves generated, paginated repositories and pull requests with Link, ETag and
+ * rate-limit headers. Both can be given an artificial latency.
+ * <p>
+ * Use with {@code @QuarkusTestResource(value = StandInServers.class, restrictToAnnotatedClass = true)};
+ * the init args below can be set with {@code @ResourceArg}.
+ */
+public class StandInServers implements QuarkusTestResourceLifecycleManager {
+	/**
+	 * Artificial latency added to every response, in milliseconds.
+	 */
+	public static final String LATENCY_MILLIS = "latencyMillis";
+	/**
+	 * The number of pull requests generated for every repository.
+	 */
+	public static final String PULLS_PER_REPO = "pullsPerRepo";
+	/**
+	 * The hourly rate limit reported by the GitHub stand-in.
+	 */
+	public static final String RATE_LIMIT = "rateLimit";
+	/**
+	 * Serves a {@link SyntheticCensus} of this scale instead of the census.html fixture. Defaults
+	 * to the {@code loadtest.census.scale} system property, if set.
+	 */
+	public static final String CENSUS_SCALE = "censusScale";
+	/**
+	 * The inbound rate limit capacity of the service, in tokens per client. Defaults to a capacity
+	 * that tests never exhaust. The API key {@link #API_KEY} is accepted.
+	 */
+	public static final String INBOUND_CAPACITY = "inboundCapacity";
+	public static final String API_KEY = "stand-in-key";
+	/**
+	 * The secret that webhook payloads are signed with.
+	 */
+	public static final String WEBHOOK_SECRET = "stand-in-secret";
+
+	static final String[] USERS = {"thegreystone", "bric3", "aptmac", "tabata-d", "Suchitainf"};
+	private static final Instant EPOCH = Instant.parse("2020-01-01T00:00:00Z");
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final AtomicInteger rateLimitUsed = new AtomicInteger();
+	private final AtomicInteger censusRequests = new AtomicInteger();
+	private final AtomicInteger gzipCensusResponses = new AtomicInteger();
+	private long latencyMillis = 0;
+	private int pullsPerRepo = 250;
+	private int rateLimit = 5000;
+	private String censusScale;
+	private int inboundCapacity = 1_000_000;
+	private byte[] censusHtml;
+	private byte[] gzipCensusHtml;
+	private ExecutorService executor;
+	private HttpServer openjdkServer;
+	private HttpServer gitHubServer;
+
+	@Override
+	public void init(Map<String, String> initArgs) {
+		latencyMillis = Long.parseLong(initArgs.getOrDefault(LATENCY_MILLIS, String.valueOf(latencyMillis)));
+		pullsPerRepo = Integer.parseInt(initArgs.getOrDefault(PULLS_PER_REPO, String.valueOf(pullsPerRepo)));
+		rateLimit = Integer.parseInt(initArgs.getOrDefault(RATE_LIMIT, String.valueOf(rateLimit)));
+		censusScale = initArgs.getOrDefault(CENSUS_SCALE, System.getProperty("loadtest.census.scale"));
+		inboundCapacity = Integer.parseInt(initArgs.getOrDefault(INBOUND_CAPACITY, String.valueOf(inboundCapacity)));
+	}
+
+	@Override
+	public Map<String, String> start() {
+		try (InputStream in = getClass().getClassLoader().getResourceAsStream("census.html")) {
+			if (in == null) {
+				throw new IOException("Could not find census.html");
+			}
+			censusHtml = censusScale == null ? in.readAllBytes()
+					: SyntheticCensus.ofScale(Double.parseDouble(censusScale)).toHtml().getBytes(StandardCharsets.US_ASCII);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+				out.write(censusHtml);
+			}
+			gzipCensusHtml = compressed.toByteArray();
+			executor = Executors.newCachedThreadPool();
+			openjdkServer = createServer();
+			openjdkServer.createContext("/census", this::handleCensus);
+			openjdkServer.start();
+			gitHubServer = createServer();
+			gitHubServer.createContext("/", this::handleGitHub);
+			gitHubServer.start();
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not start the stand-in servers", e);
+		}
+		Map<String, String> config = new HashMap<>();
+		config.put("openjdk.census.url", baseUrl(openjdkServer) + "census");
+		config.put("github.api.url", baseUrl(gitHubServer));
+		config.put("inbound.rate-limit.capacity", String.valueOf(inboundCapacity));
+		config.put("inbound.rate-limit.api-keys", API_KEY);
+		config.put("github.webhook.secret", WEBHOOK_SECRET);
+		return config;
+	}
+
+	@Override
+	public void stop() {
+		if (openjdkServer != null) {
+			openjdkServer.stop(0);
+		}
+		if (gitHubServer != null) {
+			gitHubServer.stop(0);
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private HttpServer createServer() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setExecutor(executor);
+		return server;
+	}
+
+	private static String baseUrl(HttpServer server) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	/**
+	 * @return the number of times the census has been requested.
+	 */
+	public int getCensusRequests() {
+		return censusRequests.get();
+	}
+
+	/**
+	 * @return the number of times the census has been sent gzip compressed.
+	 */
+	public int getGzipCensusResponses() {
+		return gzipCensusResponses.get();
+	}
+
+	private void handleCensus(HttpExchange exchange) throws IOException {
+		censusRequests.incrementAndGet();
+		delay();
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=us-ascii");
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			gzipCensusResponses.incrementAndGet();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			send(exchange, gzipCensusHtml);
+		} else {
+			send(exchange, censusHtml);
+		}
+	}
+
+	private void handleGitHub(HttpExchange exchange) throws IOException {
+		delay();
+		String[] path = exchange.getRequestURI().getPath().split("/");
+		Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+
+		Object entity;
+		if (path.length == 4 && path[1].equals("users") && path[3].equals("repos")) {
+			entity = repositories(path[2]);
+		} else if (path.length == 5 && path[1].equals("repos") && path[4].equals("pulls")) {
+			entity = pullRequestPage(exchange, path[2], path[3], query);
+		} else if (path.length == 6 && path[1].equals("repos") && path[4].equals("pulls") && path[5].matches("\\d+")
+				&& Integer.parseInt(path[5]) >= 1 && Integer.parseInt(path[5]) <= pullsPerRepo) {
+			entity = pullRequest(path[2], path[3], Integer.parseInt(path[5]));
+		} else {
+			sendError(exchange, 404, "Not Found");
+			return;
+		}
+
+		byte[] body = objectMapper.writeValueAsBytes(entity);
+		String etag = "W/\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+		exchange.getResponseHeaders().set("ETag", etag);
+		// Like GitHub, conditional requests answered with 304 do not count against the rate limit.
+		if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+			addRateLimitHeaders(exchange, rateLimitUsed.get());
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+		int used = rateLimitUsed.incrementAndGet();
+		addRateLimitHeaders(exchange, used);
+		if (used > rateLimit) {
+			sendError(exchange, 403, "API rate limit exceeded for 127.0.0.1.");
+			return;
+		}
+		send(exchange, body);
+	}
+
+	private List<Map<String, Object>> repositories(String user) {
+		List<Map<String, Object>> repos = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Map<String, Object> repo = new LinkedHashMap<>();
+			repo.put("name", user + "-repo-" + i);
+			repo.put("description", "Repository " + i + " of " + user);
+			repo.put("stargazers_count", i * 7);
+			repo.put("created_at", timestamp(i * 24));
+			repo.put("pushed_at", timestamp(i * 24 + 5));
+			repo.put("updated_at", timestamp(i * 24 + 6));
+			repos.add(repo);
+		}
+		return repos;
+	}
+
+	private List<Map<String, Object>> pullRequestPage(HttpExchange exchange, String owner, String repo, Map<String, String> query) {
+		String state = query.getOrDefault("state", "open");
+		int perPage = Integer.parseInt(query.getOrDefault("per_page", "30"));
+		int page = Integer.parseInt(query.getOrDefault("page", "1"));
+		boolean ascending = "asc".equals(query.get("direction"));
+
+		List<Map<String, Object>> matching = new ArrayList<>();
+		for (int i = 0; i < pullsPerRepo; i++) {
+			// Newest first, as GitHub does by default.
+			int number = ascending ? i + 1 : pullsPerRepo - i;
+			Map<String, Object> pull = pullRequest(owner, repo, number);
+			if (state.equals("all") || state.equals(pull.get("state"))) {
+				matching.add(pull);
+			}
+		}
+
+		int lastPage = Math.max(1, (matching.size() + perPage - 1) / perPage);
+		String base = "http://127.0.0.1:" + gitHubServer.getAddress().getPort() + exchange.getRequestURI().getPath() + "?state=" + state
+				+ "&per_page=" + perPage + "&page=";
+		List<String> links = new ArrayList<>();
+		if (page < lastPage) {
+			links.add("<" + base + (page + 1) + ">; rel=\"next\"");
+			links.add("<" + base + lastPage + ">; rel=\"last\"");
+		}
+		if (page > 1) {
+			links.add("<" + base + "1>; rel=\"first\"");
+			links.add("<" + base + (page - 1) + ">; rel=\"prev\"");
+		}
+		if (!links.isEmpty()) {
+			exchange.getResponseHeaders().set("Link", String.join(", ", links));
+		}
+
+		int from = Math.min(matching.size(), (page - 1) * perPage);
+		int to = Math.min(matching.size(), from + perPage);
+		return matching.subList(from, to);
+	}
+
+	/**
+	 * Generates a deterministic pull request. Every third one is open.
+	 */
+	static Map<String, Object> pullRequest(String owner, String repo, int number) {
+		boolean open = number % 3 == 0;
+		Map<String, Object> pull = new LinkedHashMap<>();
+		pull.put("url", "https://api.github.com/repos/" + owner + "/" + repo + "/pulls/" + number);
+		pull.put("number", number);
+		pull.put("state", open ? "open" : "closed");
+		pull.put("title", number + ": Change number " + number + " in " + repo);
+		pull.put("body", "Description of change " + number + ".\n<!-- Anything below this marker will be hidden -->\n---\nProgress checklist");
+		pull.put("user", Map.of("login", USERS[number % USERS.length]));
+		pull.put("created_at", timestamp(number * 7));
+		pull.put("updated_at", timestamp(number * 7 + 3));
+		pull.put("closed_at", open ? null : timestamp(number * 7 + 3 + number % 50));
+		pull.put("merged_at", open || number % 2 == 0 ? null : timestamp(number * 7 + 3 + number % 50));
+		return pull;
+	}
+
+	private static String timestamp(long hours) {
+		return EPOCH.plus(Duration.ofHours(hours)).toString();
+	}
+
+	private void addRateLimitHeaders(HttpExchange exchange, int used) {
+		long reset = Instant.now().plus(Duration.ofHours(1)).getEpochSecond();
+		exchange.getResponseHeaders().set("X-RateLimit-Limit", String.valueOf(rateLimit));
+		exchange.getResponseHeaders().set("X-RateLimit-Remaining", String.valueOf(Math.max(0, rateLimit - used)));
+		exchange.getResponseHeaders().set("X-RateLimit-Used", String.valueOf(Math.min(used, rateLimit)));
+		exchange.getResponseHeaders().set("X-RateLimit-Reset", String.valueOf(reset));
+		exchange.getResponseHeaders().set("X-RateLimit-Resource", "core");
+	}
+
+	private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] body = objectMapper.writeValueAsBytes(Map.of("message", message));
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static void send(HttpExchange exchange, byte[] body) throws IOException {
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private void delay() {
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery != null) {
+			for (String pair : rawQuery.split("&")) {
+				int index = pair.indexOf('=');
+				if (index > 0) {
+					query.put(URLDecoder.decode(pair.substring(0, index), StandardCharsets.UTF_8),
+							URLDecoder.decode(pair.substring(index + 1), StandardCharsets.UTF_8));
+				}
+			}
+		}
+		return query;
+	}
+}
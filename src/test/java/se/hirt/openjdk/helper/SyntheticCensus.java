@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Generates census HTML in the structure of the openjdk.org census page, at any number of people,
+ * for scaling tests. The output is deterministic for a given size and seed.
+ * <p>
+ * At scale 1, the sizes match the census.html fixture: 1231 people, 22 groups and 90 projects.
+ * The number of projects grows with the number of people, so that projects keep their size, while
+ * the number of groups stays the same. Every project has a Lead, and people have the same rough
+ * distribution of affiliations as in the real census.
+ */
+public final class SyntheticCensus {
+	public static final int PEOPLE_AT_SCALE_1 = 1231;
+	private static final int GROUPS = 22;
+	private static final int PROJECTS_AT_SCALE_1 = 90;
+	private static final String[] ROLES = {"Author", "Committer", "Committer", "Reviewer"};
+	private static final String[] SYLLABLES = {"an", "bel", "cor", "da", "el", "fin", "gus", "hir", "is", "jo", "ka", "lin", "mar", "nor",
+			"os", "per", "qui", "ros", "sen", "tor", "ul", "ve", "wen", "xa", "yr", "zel"};
+
+	private final List<String> groups = new ArrayList<>();
+	private final List<String> projects = new ArrayList<>();
+	private final Map<String, String> affiliationNames = new HashMap<>();
+	// userid -> full name, sorted like the census
+	private final SortedMap<String, String> people = new TreeMap<>();
+	// userid -> affiliation id -> role, where groups have the role Member
+	private final Map<String, SortedMap<String, String>> memberships = new HashMap<>();
+	// affiliation id -> role -> userids
+	private final Map<String, SortedMap<String, SortedSet<String>>> members = new HashMap<>();
+
+	public SyntheticCensus(int peopleCount, long seed) {
+		Random random = new Random(seed);
+		int projectCount = Math.max(1, (int) Math.round((double) peopleCount * PROJECTS_AT_SCALE_1 / PEOPLE_AT_SCALE_1));
+		for (int i = 0; i < GROUPS; i++) {
+			String id = word(random, 2) + "-" + i;
+			groups.add(id);
+			affiliationNames.put(id, capitalize(id) + " Group");
+		}
+		for (int i = 0; i < projectCount; i++) {
+			String id = word(random, 2) + "-" + i;
+			if (affiliationNames.containsKey(id)) {
+				id += "-port";
+			}
+			projects.add(id);
+			affiliationNames.put(id, capitalize(id) + " Project");
+		}
+		while (people.size() < peopleCount) {
+			String first = capitalize(word(random, 1 + random.nextInt(2)));
+			String last = capitalize(word(random, 2 + random.nextInt(2)));
+			String userId = (first.charAt(0) + last).toLowerCase(Locale.ROOT);
+			for (int suffix = 2; people.containsKey(userId); suffix++) {
+				userId = (first.charAt(0) + last).toLowerCase(Locale.ROOT) + suffix;
+			}
+			people.put(userId, first + " " + last);
+		}
+		for (String userId : people.keySet()) {
+			SortedMap<String, String> personMemberships = new TreeMap<>();
+			// Most people are in a few projects, some are in many
+			int projectMemberships = 1 + (int) Math.min(11, Math.floor(Math.log(1 - random.nextDouble()) / Math.log(0.55)));
+			for (int i = 0; i < projectMemberships; i++) {
+				// Skewed, so that some projects are much larger than others
+				String project = projects.get((int) (projects.size() * Math.pow(random.nextDouble(), 2)));
+				personMemberships.put(project, ROLES[random.nextInt(ROLES.length)]);
+			}
+			if (random.nextInt(5) == 0) {
+				personMemberships.put(groups.get(random.nextInt(groups.size())), "Member");
+			}
+			memberships.put(userId, personMemberships);
+		}
+		// The first member of every project becomes its Lead, and empty projects get one
+		Map<String, String> leads = new HashMap<>();
+		for (String userId : people.keySet()) {
+			for (String affiliation : memberships.get(userId).keySet()) {
+				leads.putIfAbsent(affiliation, userId);
+			}
+		}
+		for (String project : projects) {
+			memberships.get(leads.getOrDefault(project, people.firstKey())).put(project, "Lead");
+		}
+		for (Map.Entry<String, SortedMap<String, String>> entry : memberships.entrySet()) {
+			for (Map.Entry<String, String> membership : entry.getValue().entrySet()) {
+				members.computeIfAbsent(membership.getKey(), a -> new TreeMap<>()).computeIfAbsent(membership.getValue(), r -> new TreeSet<>())
+						.add(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * @return a census with the given multiple of the people in the census.html fixture.
+	 */
+	public static SyntheticCensus ofScale(double scale) {
+		return new SyntheticCensus((int) Math.round(PEOPLE_AT_SCALE_1 * scale), 4711);
+	}
+
+	public int getPeopleCount() {
+		return people.size();
+	}
+
+	public int getGroupCount() {
+		return groups.size();
+	}
+
+	public int getProjectCount() {
+		return projects.size();
+	}
+
+	/**
+	 * @return the number of group and project memberships, over all people.
+	 */
+	public int getMembershipCount() {
+		return memberships.values().stream().mapToInt(Map::size).sum();
+	}
+
+	/**
+	 * @return the full names of the people, by userid.
+	 */
+	public SortedMap<String, String> getPeople() {
+		return Collections.unmodifiableSortedMap(people);
+	}
+
+	/**
+	 * @return the affiliations of a person, mapped to the role.
+	 */
+	public SortedMap<String, String> getMemberships(String userId) {
+		return Collections.unmodifiableSortedMap(memberships.get(userId));
+	}
+
+	public String toHtml() {
+		StringWriter writer = new StringWriter();
+		try {
+			write(writer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return writer.toString();
+	}
+
+	public void write(Writer out) throws IOException {
+		out.write("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd\">");
+		out.write("<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=us-ascii\" />");
+		out.write("<title>OpenJDK Census</title></head><body>\n<div class=\"timestamp\">Synthetic census</div>\n<table>\n");
+		out.write("<tr class=\"part\">\n<td>Index</td>\n</tr>\n");
+		writeIndex(out, "groups", "Groups", new TreeSet<>(groups));
+		writeIndex(out, "projects", "Projects", new TreeSet<>(projects));
+		writeIndex(out, "people", "People", people.keySet());
+		out.write("</table>\n<table>\n");
+		writeAffiliations(out, "groups", "Groups", new TreeSet<>(groups));
+		writeAffiliations(out, "projects", "Projects", new TreeSet<>(projects));
+		out.write("<tr class=\"part\" id=\"people\">\n<td>People</td>\n</tr>\n");
+		for (Map.Entry<String, String> person : people.entrySet()) {
+			String userId = person.getKey();
+			out.write("<tr class=\"section\" id=\"" + userId + "\">\n<td><span>" + userId + "</span></td>\n<td><span>" + person.getValue()
+					+ "</span></td>\n</tr>\n");
+			SortedMap<String, String> personMemberships = memberships.get(userId);
+			writePersonMemberships(out, "Groups", personMemberships, true);
+			writePersonMemberships(out, "Projects", personMemberships, false);
+		}
+		out.write("</table>\n</body></html>\n");
+	}
+
+	private static void writeIndex(Writer out, String id, String title, Collection<String> ids) throws IOException {
+		out.write("<tr>\n<td class=\"hd\"><a href=\"#" + id + "\">" + title + "</a></td>\n<td>");
+		int column = 0;
+		for (String entry : ids) {
+			out.write("<a href=\"#" + entry + "\">" + entry + "</a>");
+			out.write(++column % 8 == 0 ? "\n" : " ");
+		}
+		out.write("</td>\n</tr>\n");
+	}
+
+	private void writeAffiliations(Writer out, String id, String title, Collection<String> ids) throws IOException {
+		out.write("<tr class=\"part\" id=\"" + id + "\">\n<td>" + title + "</td>\n</tr>\n");
+		for (String affiliation : ids) {
+			out.write("<tr class=\"section\" id=\"" + affiliation + "\">\n<td><span>" + affiliation + "</span></td>\n<td><span><a href=\"http://openjdk.org/"
+					+ id + "/" + affiliation + "\">" + affiliationNames.get(affiliation) + "</a></span></td>\n</tr>\n");
+			for (Map.Entry<String, SortedSet<String>> role : members.getOrDefault(affiliation, Collections.emptySortedMap()).entrySet()) {
+				out.write("<tr class=\"role\">\n<td></td>\n<td>" + (role.getKey().equals("Lead") ? "Lead" : role.getKey() + "s") + "</td>\n</tr>\n");
+				for (String userId : role.getValue()) {
+					out.write("<tr>\n<td><a href=\"#" + userId + "\">" + userId + "</a></td>\n<td colspan=\"3\">" + people.get(userId) + "</td>\n</tr>\n");
+				}
+			}
+		}
+	}
+
+	private void writePersonMemberships(Writer out, String kind, SortedMap<String, String> personMemberships, boolean groupsOnly)
+			throws IOException {
+		boolean first = true;
+		for (Map.Entry<String, String> membership : personMemberships.entrySet()) {
+			if (groups.contains(membership.getKey()) != groupsOnly) {
+				continue;
+			}
+			if (first) {
+				out.write("<tr class=\"role\">\n<td></td>\n<td>" + kind + "</td>\n</tr>\n");
+				first = false;
+			}
+			String name = affiliationNames.get(membership.getKey());
+			out.write("<tr>\n<td><a href=\"#" + membership.getKey() + "\">" + membership.getKey() + "</a></td>\n<td>"
+					+ (groupsOnly ? name : name + " &#8211; " + membership.getValue()) + "</td>\n</tr>\n");
+		}
+	}
+
+	private static String word(Random random, int syllables) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < syllables; i++) {
+			builder.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		return builder.toString();
+	}
+
+	private static String capitalize(String word) {
+		return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+	}
+}
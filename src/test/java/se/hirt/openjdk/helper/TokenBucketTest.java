@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTest {
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testAllowsBurstUpToCapacity() {
+		TokenBucket bucket = new TokenBucket(10, 1, 0);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(0, bucket.tryConsume(1, 0));
+		}
+		assertEquals(SECOND, bucket.tryConsume(1, 0));
+	}
+
+	@Test
+	public void testRefillsAtRate() {
+		TokenBucket bucket = new TokenBucket(10, 2, 0);
+		assertEquals(0, bucket.tryConsume(10, 0));
+		assertEquals(2 * SECOND, bucket.tryConsume(4, 0));
+		assertEquals(SECOND, bucket.tryConsume(4, SECOND));
+		assertEquals(0, bucket.tryConsume(4, 2 * SECOND));
+		assertFalse(bucket.isFull(2 * SECOND));
+		// Never more than the capacity, however long it has been idle
+		assertTrue(bucket.isFull(100 * SECOND));
+		assertEquals(10, bucket.getTokens(100 * SECOND), 0.001);
+	}
+
+	@Test
+	public void testCostAboveCapacityCanBeServed() {
+		TokenBucket bucket = new TokenBucket(5, 1, 0);
+		assertEquals(0, bucket.tryConsume(50, 0));
+		assertEquals(5 * SECOND, bucket.tryConsume(50, 0));
+	}
+}
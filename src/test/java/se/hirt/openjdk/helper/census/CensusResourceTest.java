@@ -0,0 +1,459 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+import se.hirt.openjdk.helper.SyntheticCensus;
+
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+public class CensusResourceTest {
+	@TestHTTPResource("/census/changes")
+	URL changesUrl;
+
+	@Inject
+	OpenjdkCensusScraper census;
+
+	@Inject
+	Event<CensusSnapshot> snapshotPublished;
+
+	@Test
+	public void testSearchPeopleEndpoint() {
+		given()
+				.when().get("/census/people/search?query=Hir.*")
+				.then()
+				.statusCode(200)
+				.body("query", is("Hir.*"))
+				.body("results", hasSize(3))
+				.body("results[0].userId", notNullValue())
+				.body("results[0].fullName", notNullValue())
+				.body("results[0].affiliations.groups", isA(java.util.List.class))
+				.body("results[0].affiliations.projects", isA(java.util.List.class));
+	}
+
+	@Test
+	public void testSearchPeopleEndpointNoResults() {
+		given()
+				.when().get("/census/people/search?query=NonexistentPerson")
+				.then()
+				.statusCode(200)
+				.body("query", is("NonexistentPerson"))
+				.body("results", hasSize(0));
+	}
+
+	@Test
+	public void testSearchPeopleEndpointMissingQuery() {
+		given()
+				.when().get("/census/people/search")
+				.then()
+				.statusCode(400)
+				.body("error", is("Query parameter is required"));
+	}
+
+	@Test
+	public void testSearchPeopleEndpointEmptyQuery() {
+		given()
+				.when().get("/census/people/search?query=")
+				.then()
+				.statusCode(400)
+				.body("error", is("Query parameter is required"));
+	}
+
+	@Test
+	public void testPeopleNotModified() {
+		String etag = given()
+				.when().get("/census/people")
+				.then()
+				.statusCode(200)
+				.header("ETag", notNullValue())
+				.extract().header("ETag");
+
+		given()
+				.header("If-None-Match", etag)
+				.when().get("/census/people")
+				.then()
+				.statusCode(304);
+	}
+
+	@Test
+	public void testSearchNotModified() {
+		String etag = given()
+				.when().get("/census/projects/search?query=jmc")
+				.then()
+				.statusCode(200)
+				.extract().header("ETag");
+
+		given()
+				.header("If-None-Match", etag)
+				.when().get("/census/projects/search?query=jmc")
+				.then()
+				.statusCode(304);
+	}
+
+	@Test
+	public void testStaleETagIsIgnored() {
+		given()
+				.header("If-None-Match", "\"0000000000000000\"")
+				.when().get("/census/groups")
+				.then()
+				.statusCode(200)
+				.body("results", not(empty()));
+	}
+
+	@Test
+	public void testProjectMembersByRole() {
+		given()
+				.when().get("/census/projects?projectid=jmc&role=Reviewer")
+				.then()
+				.statusCode(200)
+				.body("role", is("Reviewer"))
+				.body("results[0].members", not(empty()))
+				.body("results[0].members.role", everyItem(is("Reviewer")));
+	}
+
+	@Test
+	public void testLeadsAcrossProjects() {
+		given()
+				.when().get("/census/projects?role=lead")
+				.then()
+				.statusCode(200)
+				.body("results", not(empty()))
+				.body("results.members.flatten().role", everyItem(is("Lead")));
+	}
+
+	@Test
+	public void testPeopleByRole() {
+		given()
+				.when().get("/census/people?userid=hirt&role=Lead")
+				.then()
+				.statusCode(200)
+				.body("results[0].affiliations.projects.id", hasItem("jmc"))
+				.body("results[0].affiliations.projects.role", everyItem(is("Lead")));
+	}
+
+	@Test
+	public void testStats() {
+		given()
+				.when().get("/census/stats?top=3")
+				.then()
+				.statusCode(200)
+				.body("people", greaterThan(1000))
+				.body("roles.projects.Committer", greaterThan(0))
+				.body("top.projects", hasSize(3))
+				.body("top.people", hasSize(3))
+				.body("projectStats.find { it.id == 'jmc' }.roles.Lead", is(1));
+	}
+
+	@Test
+	public void testStatsAreEncodedPerTop() {
+		String etag = given()
+				.when().get("/census/stats?top=2")
+				.then()
+				.statusCode(200)
+				.body("top.projects", hasSize(2))
+				.extract().header("ETag");
+		given()
+				.when().get("/census/stats?top=4")
+				.then()
+				.statusCode(200)
+				.body("top.projects", hasSize(4));
+		given()
+				.when().get("/census/stats?top=2")
+				.then()
+				.statusCode(200)
+				.header("ETag", etag)
+				.body("top.projects", hasSize(2));
+		given()
+				.header("If-None-Match", etag)
+				.when().get("/census/stats?top=2")
+				.then()
+				.statusCode(304);
+	}
+
+	@Test
+	public void testStatsRankedByRole() {
+		given()
+				.when().get("/census/stats?top=1&role=lead")
+				.then()
+				.statusCode(200)
+				.body("top.role", is("lead"))
+				.body("top.projects[0].roles.Lead", greaterThan(0));
+	}
+
+	@Test
+	public void testQuery() {
+		given()
+				.queryParam("q", "people where project=jmc and role=Reviewer")
+				.when().get("/census/query")
+				.then()
+				.statusCode(200)
+				.body("results", hasSize(9))
+				.body("plan", startsWith("index"))
+				.body("truncated", is(false));
+	}
+
+	@Test
+	public void testInvalidQuery() {
+		given()
+				.queryParam("q", "people where shoesize=42")
+				.when().get("/census/query")
+				.then()
+				.statusCode(400)
+				.body("error", startsWith("Unknown field"));
+	}
+
+	@Test
+	public void testGraphQL() {
+		given()
+				.contentType("application/json")
+				.body(Map.of("query", "query Lead($id: String!) { project(id: $id) { members(role: \"Lead\") { person { userid } } } }",
+						"variables", Map.of("id", "jmc")))
+				.when().post("/census/graphql")
+				.then()
+				.statusCode(200)
+				.body("data.project.members[0].person.userid", is("hirt"));
+		given()
+				.queryParam("query", "{ person(userid: \"hirt\") { name projects(role: \"Lead\") { role project { id } } } }")
+				.when().get("/census/graphql")
+				.then()
+				.statusCode(200)
+				.body("data.person.name", is("Marcus Hirt"))
+				.body("data.person.projects.project.id", hasItem("jmc"));
+		given()
+				.when().get("/census/graphql/schema.graphql")
+				.then()
+				.statusCode(200)
+				.body(containsString("type Person"));
+	}
+
+	@Test
+	public void testGraphQLLimits() {
+		given()
+				.queryParam("query", "{ people { projects { project { members { person { name } } } } } }")
+				.when().get("/census/graphql")
+				.then()
+				.statusCode(200)
+				.body("errors[0].message", containsString("more than the limit"));
+		given()
+				.queryParam("query", "{ people(first: 2) { projects(first: 2) { project { members(first: 2) { person { groups(first: 2) { group { "
+						+ "members(first: 2) { person { projects(first: 2) { project { id } } } } } } } } } } } }")
+				.when().get("/census/graphql")
+				.then()
+				.statusCode(200)
+				.body("errors[0].message", containsString("maximum query depth exceeded"));
+		given()
+				.queryParam("query", "{ people(search: \"(\") { userid } }")
+				.when().get("/census/graphql")
+				.then()
+				.statusCode(200)
+				.body("errors[0].message", startsWith("Invalid search expression"));
+	}
+
+	@Test
+	public void testExport() {
+		String lines = given()
+				.header("Accept", "application/x-ndjson")
+				.when().get("/census/export")
+				.then()
+				.statusCode(200)
+				.contentType("application/x-ndjson")
+				.extract().asString();
+		List<String> entries = lines.lines().collect(Collectors.toList());
+		assertTrue(entries.get(0).contains("\"type\":\"census\""), entries.get(0));
+		assertTrue(entries.stream().anyMatch(line -> line.startsWith("{\"type\":\"person\",\"userId\":\"hirt\"")));
+		assertEquals(1231, entries.stream().filter(line -> line.startsWith("{\"type\":\"person\"")).count());
+
+		given()
+				.queryParam("format", "json")
+				.when().get("/census/export")
+				.then()
+				.statusCode(200)
+				.contentType("application/json")
+				.body("people.size()", is(1231))
+				.body("projects.find { it.id == 'jmc' }.members.size()", is(27));
+
+		given()
+				.queryParam("format", "xml")
+				.when().get("/census/export")
+				.then()
+				.statusCode(400);
+	}
+
+	@Test
+	public void testBinaryFormats() {
+		given()
+				.header("Accept", "application/cbor")
+				.when().get("/census/people")
+				.then()
+				.statusCode(200)
+				.contentType("application/cbor")
+				.header("ETag", endsWith("-cbor\""))
+				.header("Vary", containsString("Accept"));
+		given()
+				.header("Accept", "application/x-jackson-smile, application/json;q=0.5")
+				.when().get("/census/projects?projectid=jmc")
+				.then()
+				.statusCode(200)
+				.contentType("application/x-jackson-smile");
+		given()
+				.header("Accept", "application/cbor")
+				.when().get("/census/export")
+				.then()
+				.statusCode(200)
+				.contentType("application/cbor");
+	}
+
+	@Test
+	public void testNegotiatedETags() {
+		String cborTag = given()
+				.header("Accept", "application/cbor")
+				.when().get("/census/projects?projectid=jmc")
+				.then()
+				.statusCode(200)
+				.header("Vary", containsString("Accept"))
+				.extract().header("ETag");
+
+		// The JSON representation differs, so the CBOR tag must not validate it
+		given()
+				.header("If-None-Match", cborTag)
+				.when().get("/census/projects?projectid=jmc")
+				.then()
+				.statusCode(200)
+				.contentType("application/json")
+				.header("Vary", containsString("Accept"));
+		given()
+				.header("Accept", "application/cbor")
+				.header("If-None-Match", cborTag)
+				.when().get("/census/projects?projectid=jmc")
+				.then()
+				.statusCode(304)
+				.header("Vary", containsString("Accept"));
+	}
+
+	@Test
+	public void testChangesStreamStartsWithCurrentVersion() throws Exception {
+		HttpClient client = HttpClient.newHttpClient();
+		HttpRequest request = HttpRequest.newBuilder(URI.create(changesUrl.toString())).timeout(Duration.ofSeconds(10)).build();
+		HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+		assertEquals(200, response.statusCode());
+		try (Stream<String> lines = response.body()) {
+			List<String> event = lines.takeWhile(line -> !line.startsWith("data:")).collect(Collectors.toList());
+			assertTrue(event.stream().anyMatch(line -> line.replace(" ", "").equals("event:current")), event.toString());
+			assertTrue(event.stream().anyMatch(line -> line.startsWith("id:")), event.toString());
+		}
+	}
+
+	@Test
+	public void testChangesStreamPushesChangeAfterSubscribing() throws Exception {
+		CensusSnapshot current = census.getSnapshot();
+		CensusSnapshot next = OpenjdkCensusScraper.parse(SyntheticCensus.ofScale(0.1).toHtml(), true);
+		HttpClient client = HttpClient.newHttpClient();
+		HttpRequest request = HttpRequest.newBuilder(URI.create(changesUrl.toString())).timeout(Duration.ofSeconds(10)).build();
+		HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+		assertEquals(200, response.statusCode());
+		try (Stream<String> lines = response.body()) {
+			Iterator<String> iterator = lines.iterator();
+			// The client is registered by the time it has got the current event
+			List<String> first = readEvent(iterator);
+			assertTrue(first.contains("event:current"), first.toString());
+			assertTrue(first.contains("id:" + current.getVersion()), first.toString());
+
+			snapshotPublished.fire(next);
+			List<String> second = readEvent(iterator);
+			assertTrue(second.contains("event:change"), second.toString());
+			assertTrue(second.contains("id:" + next.getVersion()), second.toString());
+			assertTrue(second.stream().anyMatch(line -> line.contains("\"previousVersion\":\"" + current.getVersion() + "\"")), second.toString());
+		} finally {
+			snapshotPublished.fire(current);
+		}
+	}
+
+	/**
+	 * @return the lines of the next server-sent event, without spaces.
+	 */
+	private static List<String> readEvent(Iterator<String> lines) {
+		List<String> event = new ArrayList<>();
+		while (lines.hasNext()) {
+			String line = lines.next().replace(" ", "");
+			if (line.isEmpty() && !event.isEmpty()) {
+				break;
+			}
+			if (!line.isEmpty()) {
+				event.add(line);
+			}
+		}
+		return event;
+	}
+
+	@Test
+	public void testFootprint() {
+		given()
+				.when().get("/admin/footprint")
+				.then()
+				.statusCode(200)
+				.body("snapshot.components.people", greaterThan(0))
+				.body("snapshot.total", greaterThan(0))
+				.body("overBudget", is(false));
+	}
+
+	@Test
+	public void testLimits() {
+		given()
+				.when().get("/admin/limits")
+				.then()
+				.statusCode(200)
+				.body("name", containsInAnyOrder("github", "census"))
+				.body("limit", everyItem(greaterThan(0)));
+	}
+}
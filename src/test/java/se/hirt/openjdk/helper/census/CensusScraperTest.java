@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2024 Marcus Hirt
+ *                    www.hirt.se
+ *
+ * This software is free:
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. The name of the author may not be used to endorse or promote products
+ *    derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESSED OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * Copyright (C) Marcus Hirt, 2024
+ */
+package se.hirt.openjdk.helper.census;
+
+import io.quarkus.test.junit.QuarkusTest;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.groovy.json.internal.IO;
+import org.junit.jupiter.api.Test;
+import se.hirt.openjdk.helper.SyntheticCensus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class CensusScraperTest {
+
+	@Test
+	public void testGetUserIds() throws IOException {
+		String html = getHtml();
+		OpenjdkCensusScraper scraper = new OpenjdkCensusScraper(html);
+		Set<String> users = scraper.getUserIds();
+		assertNotNull(users);
+		System.out.println(users);
+		assertEquals(1231, users.size());
+	}
+
+	@Test
+	public void testGetPeople() throws IOException {
+		String html = getHtml();
+		OpenjdkCensusScraper scraper = new OpenjdkCensusScraper(html);
+		Map<String, Person> people = scraper.getPeople();
+		assertNotNull(people);
+		assertEquals(1231, people.keySet().size());
+		Set<Person> noAffiliation = new HashSet<>();
+		for (Person person : people.values()) {
+			if (person.getAffiliations().size() <= 0) {
+				noAffiliation.add(person);
+			}
+		}
+		assertEquals(102, noAffiliation.size());
+	}
+
+	@Test
+	public void testGetProjects() throws IOException {
+		String html = getHtml();
+		OpenjdkCensusScraper scraper = new OpenjdkCensusScraper(html);
+		Map<String, Project> projects = scraper.getProjects();
+		assertNotNull(projects);
+		System.out.println(projects);
+		assertEquals(78, projects.size());
+	}
+
+	@Test
+	public void testGetGroups() throws IOException {
+		String html = getHtml();
+		OpenjdkCensusScraper scraper = new OpenjdkCensusScraper(html);
+		Map<String, Group> groups = scraper.getGroups();
+		assertNotNull(groups);
+		System.out.println(groups);
+		assertEquals(20, groups.size());
+	}
+
+	@Test
+	public void testGetJMCProject() throws IOException {
+		String html = getHtml();
+		OpenjdkCensusScraper scraper = new OpenjdkCensusScraper(html);
+		Map<String, Project> projects = scraper.getProjects();
+		assertNotNull(projects);
+		Project project = projects.get("jmc");
+		assertTrue(project.getFullName().contains("JDK Mission Control"));
+		assertEquals(27, project.getMembers().size());
+	}
+
+	@Test
+	public void testFindPeople() throws IOException {
+		String html = getHtml();
+		OpenjdkCensusScraper scraper = new OpenjdkCensusScraper(html);
+		Set<Person> people = scraper.findPeople("Hir.*");
+		assertEquals(3, people.size());
+	}
+
+	@Test
+	public void testSnapshotVersionIsContentBased() throws IOException {
+		String html = getHtml();
+		CensusSnapshot first = new OpenjdkCensusScraper(html).getSnapshot();
+		CensusSnapshot second = new OpenjdkCensusScraper(html).getSnapshot();
+		assertEquals(first.getVersion(), second.getVersion());
+		assertNotEquals(CensusSnapshot.EMPTY.getVersion(), first.getVersion());
+	}
+
+	@Test
+	public void testParallelParsingIsDeterministic() throws IOException {
+		String html = getHtml();
+		CensusSnapshot expected = OpenjdkCensusScraper.parse(html, false);
+		String expectedContent = describe(expected);
+		assertEquals(1231, expected.getPeople().size());
+		// Parse several at once, so that the person blocks compete for the common pool
+		List<CensusSnapshot> snapshots = IntStream.range(0, 4).parallel().mapToObj(i -> new OpenjdkCensusScraper(html).getSnapshot())
+				.collect(Collectors.toList());
+		for (CensusSnapshot snapshot : snapshots) {
+			assertEquals(expected.getVersion(), snapshot.getVersion());
+			assertEquals(expectedContent, describe(snapshot));
+		}
+	}
+
+	/**
+	 * @return everything in the snapshot, in a stable order.
+	 */
+	private static String describe(CensusSnapshot snapshot) {
+		StringBuilder builder = new StringBuilder();
+		builder.append(new TreeSet<>(snapshot.getUserIds())).append('\n');
+		for (Affiliation affiliation : new TreeMap<>(snapshot.getProjects()).values()) {
+			builder.append("project ").append(affiliation.getId()).append(' ').append(affiliation.getFullName()).append(' ')
+					.append(new TreeMap<>(affiliation.getMembers())).append('\n');
+		}
+		for (Affiliation affiliation : new TreeMap<>(snapshot.getGroups()).values()) {
+			builder.append("group ").append(affiliation.getId()).append(' ').append(affiliation.getFullName()).append(' ')
+					.append(new TreeMap<>(affiliation.getMembers())).append('\n');
+		}
+		for (Person person : new TreeMap<>(snapshot.getPeople()).values()) {
+			builder.append("person ").append(person.getUserid()).append(' ').append(person.getFullName());
+			for (Map.Entry<String, Affiliation> affiliation : new TreeMap<>(person.getAffiliations()).entrySet()) {
+				builder.append(' ').append(affiliation.getKey()).append('=').append(affiliation.getValue().getClass().getSimpleName());
+			}
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	@Test
+	public void testMappedCensusMatchesSnapshot() throws IOException {
+		CensusSnapshot snapshot = new OpenjdkCensusScraper(getHtml()).getSnapshot();
+		Path file = Files.createTempFile("census", ".mapped");
+		try {
+			MappedCensus.write(snapshot, file);
+			MappedCensus mapped = MappedCensus.open(file);
+			assertEquals(snapshot.getVersion(), mapped.getVersion());
+			assertEquals(snapshot.getPeople().size(), mapped.getPeopleCount());
+			for (Person person : snapshot.getPeople().values()) {
+				int index = mapped.findPerson(person.getUserid());
+				assertEquals(person.getFullName(), mapped.getFullName(index));
+				Map<String, String> roles = new HashMap<>();
+				for (int i = 0; i < mapped.getMembershipCount(index); i++) {
+					int kind = mapped.getMembershipKind(index, i);
+					roles.put(mapped.getAffiliationId(kind, mapped.getMembershipAffiliation(index, i)), mapped.getMembershipRole(index, i));
+				}
+				assertEquals(person.getAffiliations().keySet(), roles.keySet());
+			}
+			int jmc = mapped.findAffiliation(MappedCensus.PROJECT, "jmc");
+			Map<String, String> members = new HashMap<>();
+			for (int i = 0; i < mapped.getMemberCount(MappedCensus.PROJECT, jmc); i++) {
+				members.put(mapped.getMemberUserId(MappedCensus.PROJECT, jmc, i), mapped.getMemberRole(MappedCensus.PROJECT, jmc, i));
+			}
+			assertEquals(snapshot.getProjects().get("jmc").getMembers(), members);
+			assertEquals(snapshot.getProjects().get("jmc").getFullName(), mapped.getAffiliationName(MappedCensus.PROJECT, jmc));
+			assertEquals(-1, mapped.findPerson("nosuchuser"));
+			assertEquals(-1, mapped.findAffiliation(MappedCensus.GROUP, "jmc"));
+
+			// Read through the same view as the snapshot
+			assertEquals(snapshot.getPeople().keySet(), mapped.getPeople().keySet());
+			assertEquals(snapshot.getProjects().keySet(), mapped.getProjects().keySet());
+			assertEquals(snapshot.getGroups().keySet(), mapped.getGroups().keySet());
+			for (Project project : snapshot.getProjects().values()) {
+				assertEquals(project.getMembers(), mapped.getProjects().get(project.getId()).getMembers());
+				assertEquals(project.getFullName(), mapped.getProjects().get(project.getId()).getFullName());
+			}
+			Person hirt = mapped.getPeople().get("hirt");
+			assertEquals("Marcus Hirt", hirt.getFullName());
+			assertEquals(snapshot.getPeople().get("hirt").getAffiliations().keySet(), hirt.getAffiliations().keySet());
+			assertEquals("Lead", hirt.getAffiliations().get("jmc").getMembers().get("hirt"));
+			assertNull(mapped.getPeople().get("nosuchuser"));
+			assertEquals(snapshot.getRoleIndex().getMembers(snapshot.getProjects().get("jmc"), "reviewer"),
+					mapped.getRoleIndex().getMembers(mapped.getProjects().get("jmc"), "reviewer"));
+			CensusQuery query = CensusQuery.parse("people where project=jmc and role=Reviewer");
+			assertEquals(query.execute(snapshot, 100).getMatches().stream().map(person -> ((Person) person).getUserid()).collect(Collectors.toSet()),
+					query.execute(mapped, 100).getMatches().stream().map(person -> ((Person) person).getUserid()).collect(Collectors.toSet()));
+			assertTrue(CensusChange.between(snapshot, mapped).isEmpty());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testMappedCensusSearch() throws IOException {
+		CensusSnapshot snapshot = new OpenjdkCensusScraper(getHtml()).getSnapshot();
+		Path file = Files.createTempFile("census", ".mapped");
+		try {
+			MappedCensus.write(snapshot, file);
+			MappedCensus mapped = MappedCensus.open(file);
+			Set<String> expected = new HashSet<>();
+			snapshot.findPeople("Hirt|^jo").forEach(person -> expected.add(person.getUserid()));
+			Set<String> found = new HashSet<>();
+			Arrays.stream(mapped.searchPeople("Hirt|^jo")).forEach(person -> found.add(mapped.getUserId(person)));
+			assertEquals(expected, found);
+			assertEquals(snapshot.findProjects(".*Mission.*").size(), mapped.searchAffiliations(MappedCensus.PROJECT, ".*Mission.*").length);
+			assertEquals(expected, mapped.findPeople("Hirt|^jo").stream().map(Person::getUserid).collect(Collectors.toSet()));
+			assertEquals(snapshot.findProjects(".*Mission.*"), mapped.findProjects(".*Mission.*").stream().map(project -> snapshot.getProjects().get(project.getId()))
+					.collect(Collectors.toSet()));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testStats() throws IOException {
+		CensusSnapshot snapshot = new OpenjdkCensusScraper(getHtml()).getSnapshot();
+		CensusStats stats = snapshot.getStats();
+		assertEquals(1231, stats.getPeople());
+		CensusStats.AffiliationStats jmc = stats.getProjects().get("jmc");
+		assertEquals(27, jmc.getMembers());
+		assertEquals(Map.of("Author", 6, "Committer", 11, "Lead", 1, "Reviewer", 9), jmc.getRoles());
+		assertEquals(1231, stats.getAffiliationsPerPerson().values().stream().mapToInt(Integer::intValue).sum());
+
+		List<CensusStats.AffiliationStats> largest = stats.getLargestProjects(null, 3);
+		assertEquals(3, largest.size());
+		assertTrue(largest.get(0).getMembers() >= largest.get(1).getMembers());
+		CensusStats.AffiliationStats mostReviewers = stats.getLargestProjects("reviewer", 1).get(0);
+		for (Project project : snapshot.getProjects().values()) {
+			assertTrue(snapshot.getRoleIndex().getMembers(project, "Reviewer").size() <= mostReviewers.getRoles().get("Reviewer"));
+		}
+		CensusStats.PersonStats mostAffiliated = stats.getMostAffiliatedPeople(1).get(0);
+		assertEquals(stats.getAffiliationsPerPerson().lastKey().intValue(), mostAffiliated.getAffiliations());
+
+		Path file = Files.createTempFile("census", ".mapped");
+		try {
+			MappedCensus.write(snapshot, file);
+			CensusStats mappedStats = MappedCensus.open(file).getStats();
+			assertEquals(stats.getAffiliationsPerPerson(), mappedStats.getAffiliationsPerPerson());
+			assertEquals(stats.getProjectRoles(), mappedStats.getProjectRoles());
+			assertEquals(jmc.getRoles(), mappedStats.getProjects().get("jmc").getRoles());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testQuery() throws IOException {
+		CensusSnapshot snapshot = new OpenjdkCensusScraper(getHtml()).getSnapshot();
+		CensusQuery.Result reviewers = CensusQuery.parse("people where project=jmc and role=Reviewer").execute(snapshot, 100);
+		assertEquals(9, reviewers.getMatches().size());
+		assertTrue(reviewers.getPlan().startsWith("index project=jmc as Reviewer (9)"), reviewers.getPlan());
+
+		CensusQuery.Result lead = CensusQuery.parse("people where name~\"Hir\" and project=jmc and role=lead").execute(snapshot, 100);
+		assertEquals(List.of(snapshot.getPeople().get("hirt")), lead.getMatches());
+
+		CensusQuery.Result scanned = CensusQuery.parse("people where name~\"Hir\"").execute(snapshot, 100);
+		assertTrue(scanned.getPlan().startsWith("scan people (1231)"), scanned.getPlan());
+		assertEquals(snapshot.getPeople().values().stream().filter(p -> p.getFullName() != null && p.getFullName().contains("Hir")).count(),
+				scanned.getMatches().size());
+
+		CensusQuery.Result limited = CensusQuery.parse("people where project=jmc").execute(snapshot, 5);
+		assertEquals(5, limited.getMatches().size());
+		assertTrue(limited.isTruncated());
+
+		CensusQuery.Result projects = CensusQuery.parse("projects where member=hirt and role=Lead").execute(snapshot, 100);
+		assertTrue(projects.getMatches().contains(snapshot.getProjects().get("jmc")));
+		assertTrue(CensusQuery.parse("groups where member=hirt").execute(snapshot, 100).getMatches().stream().allMatch(g -> g instanceof Group));
+		assertEquals(1, CensusQuery.parse("projects where (id=jmc or id=jdk) and members>=27 and members<28").execute(snapshot, 100).getMatches().size());
+
+		assertThrows(IllegalArgumentException.class, () -> CensusQuery.parse("people where members>3"));
+		assertThrows(IllegalArgumentException.class, () -> CensusQuery.parse("persons"));
+		assertThrows(IllegalArgumentException.class, () -> CensusQuery.parse("people where name~\"(\""));
+	}
+
+	@Test
+	public void testCensusChange() throws IOException {
+		CensusSnapshot snapshot = new OpenjdkCensusScraper(getHtml()).getSnapshot();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CensusSnapshotCodec.write(snapshot, out);
+		CensusSnapshot copy = CensusSnapshotCodec.read(new ByteArrayInputStream(out.toByteArray()));
+
+		copy.getProjects().get("jmc").addMember("hirt", "Reviewer");
+		Set<String> userIds = new HashSet<>(copy.getUserIds());
+		userIds.add("newbie");
+		Map<String, Person> people = new HashMap<>(copy.getPeople());
+		people.put("newbie", new Person("newbie", "New Person"));
+		Group removedGroup = copy.getGroups().values().stream().filter(g -> !g.getMembers().isEmpty() && !g.getMembers().containsKey("hirt"))
+				.findFirst().get();
+		Map<String, Group> groups = new HashMap<>(copy.getGroups());
+		groups.remove(removedGroup.getId());
+		CensusSnapshot changed = new CensusSnapshot(userIds, groups, copy.getProjects(), people);
+
+		CensusChange change = CensusChange.between(snapshot, changed);
+		assertEquals(snapshot.getVersion(), change.getPreviousVersion());
+		assertEquals(changed.getVersion(), change.getVersion());
+		assertEquals(Set.of("newbie"), change.getPeople().getAdded());
+		assertTrue(change.getPeople().getRemoved().isEmpty());
+		assertTrue(change.getPeople().getChanged().contains("hirt"));
+		assertTrue(change.getPeople().getChanged().containsAll(removedGroup.getMembers().keySet()));
+		assertEquals(Set.of("jmc"), change.getProjects().getChanged());
+		assertEquals(Set.of(removedGroup.getId()), change.getGroups().getRemoved());
+		assertTrue(change.getGroups().getChanged().isEmpty());
+
+		CensusChange reverse = CensusChange.between(changed, snapshot);
+		assertEquals(Set.of("newbie"), reverse.getPeople().getRemoved());
+		assertEquals(Set.of(removedGroup.getId()), reverse.getGroups().getAdded());
+		assertTrue(CensusChange.between(snapshot, copy).getProjects().getChanged().contains("jmc"));
+		assertTrue(CensusChange.between(snapshot, snapshot).isEmpty());
+	}
+
+	@Test
+	public void testSyntheticCensus() {
+		SyntheticCensus synthetic = SyntheticCensus.ofScale(1);
+		assertEquals(synthetic.toHtml(), SyntheticCensus.ofScale(1).toHtml());
+		CensusSnapshot snapshot = new OpenjdkCensusScraper(synthetic.toHtml()).getSnapshot();
+		assertEquals(SyntheticCensus.PEOPLE_AT_SCALE_1, snapshot.getPeople().size());
+		assertEquals(synthetic.getPeople().keySet(), snapshot.getUserIds());
+		assertEquals(synthetic.getGroupCount(), snapshot.getGroups().size());
+		assertEquals(synthetic.getProjectCount(), snapshot.getProjects().size());
+		assertEquals(synthetic.getMembershipCount(), snapshot.getRoleIndex().getRoleNames().stream()
+				.mapToInt(role -> snapshot.getRoleIndex().getAffiliations(role).values().stream().mapToInt(List::size).sum()).sum());
+		for (Project project : snapshot.getProjects().values()) {
+			assertEquals(1, snapshot.getRoleIndex().getMembers(project, "Lead").size(), project.getId());
+		}
+		String userId = synthetic.getPeople().firstKey();
+		Person person = snapshot.getPeople().get(userId);
+		assertEquals(synthetic.getPeople().get(userId), person.getFullName());
+		assertEquals(synthetic.getMemberships(userId).keySet(), person.getAffiliations().keySet());
+	}
+
+	@Test
+	public void testFootprintEstimate() throws IOException {
+		CensusSnapshot snapshot = new OpenjdkCensusScraper(getHtml()).getSnapshot();
+		CensusFootprint.Footprint footprint = CensusFootprint.estimate(snapshot);
+		assertEquals(snapshot.getVersion(), footprint.getVersion());
+		assertEquals(List.of("people", "groups", "projects", "userIds", "roleIndex", "stats"), List.copyOf(footprint.getComponents().keySet()));
+		assertTrue(footprint.getComponents().values().stream().allMatch(size -> size > 0), footprint.getComponents().toString());
+		assertEquals(footprint.getComponents().values().stream().mapToLong(Long::longValue).sum(), footprint.getTotal());
+		// The fixture retains about 2 MB
+		assertTrue(footprint.getTotal() > 1_000_000 && footprint.getTotal() < 4_000_000, String.valueOf(footprint.getTotal()));
+		assertEquals(footprint.getTotal(), CensusFootprint.estimate(snapshot).getTotal());
+
+		long single = CensusFootprint.estimate(new OpenjdkCensusScraper(SyntheticCensus.ofScale(1).toHtml()).getSnapshot()).getTotal();
+		long doubled = CensusFootprint.estimate(new OpenjdkCensusScraper(SyntheticCensus.ofScale(2).toHtml()).getSnapshot()).getTotal();
+		assertTrue(doubled > single * 1.7 && doubled < single * 2.3, single + " " + doubled);
+	}
+
+	@Test
+	public void testSnapshotCodecRoundTrip() throws IOException {
+		CensusSnapshot snapshot = new OpenjdkCensusScraper(getHtml()).getSnapshot();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CensusSnapshotCodec.write(snapshot, out);
+		CensusSnapshot read = CensusSnapshotCodec.read(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(snapshot.getVersion(), read.getVersion());
+		assertEquals(snapshot.getTimestamp().toEpochMilli(), read.getTimestamp().toEpochMilli());
+		assertEquals(snapshot.getUserIds(), read.getUserIds());
+		assertEquals(27, read.getProjects().get("jmc").getMembers().size());
+		assertEquals(snapshot.getPeople().get("hirt").getAffiliations().keySet(), read.getPeople().get("hirt").getAffiliations().keySet());
+	}
+
+	@Test
+	public void testSearchEmitsFlightRecorderEvent() throws IOException {
+		OpenjdkCensusScraper scraper = new OpenjdkCensusScraper(getHtml());
+		Path file = Files.createTempFile("census-search", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("se.hirt.openjdk.helper.CensusSearch");
+			recording.start();
+			scraper.findPeople("Hir.*");
+			recording.stop();
+			recording.dump(file);
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+			assertEquals(1, events.size());
+			assertEquals("people", events.get(0).getString("kind"));
+			assertEquals(1231, events.get(0).getInt("candidates"));
+			assertEquals(3, events.get(0).getInt("hits"));
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Test
+	public void testRoleIndex() throws IOException {
+		CensusSnapshot snapshot = new OpenjdkCensusScraper(getHtml()).getSnapshot();
+		RoleIndex roleIndex = snapshot.getRoleIndex();
+		Project jmc = snapshot.getProjects().get("jmc");
+		assertEquals(9, roleIndex.getMembers(jmc, "Reviewer").size());
+		assertEquals(Map.of("hirt", "Lead"), roleIndex.getMembers(jmc, "lead"));
+		assertTrue(roleIndex.getAffiliations("Lead", "hirt").contains(jmc));
+		assertEquals("Lead", roleIndex.getRoles("hirt").get(jmc));
+		assertEquals(Set.of("lead", "reviewer", "committer", "author", "member"), roleIndex.getRoleNames());
+		// The index is shared by all readers of the snapshot
+		assertThrows(UnsupportedOperationException.class, () -> roleIndex.getMembers(jmc, "lead").clear());
+		assertThrows(UnsupportedOperationException.class, () -> roleIndex.getAffiliations("lead").remove("hirt"));
+		assertThrows(UnsupportedOperationException.class, () -> roleIndex.getAffiliations("lead").get("hirt").clear());
+		assertThrows(UnsupportedOperationException.class, () -> roleIndex.getRoles("hirt").clear());
+	}
+
+	@Test
+	public void testLiveScraper() throws IOException {
+		OpenjdkCensusScraper scraper = new OpenjdkCensusScraper(new CensusRetriever(), 1000);
+		Set<Person> people = scraper.findPeople("Hir.*");
+		assertEquals(3, people.size());
+		scraper.shutdown();
+	}
+
+	private String getHtml() throws IOException {
+		String html;
+		try (InputStream inputStream = getClass().getClassLoader().getResourceAsStream("census.html")) {
+			if (inputStream == null) {
+				throw new IOException("Could not find census.html");
+			}
+			html = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		return html;
+	}
+}